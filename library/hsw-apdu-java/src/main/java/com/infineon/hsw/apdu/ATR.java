@@ -5,14 +5,78 @@
 package com.infineon.hsw.apdu;
 
 import com.infineon.hsw.utils.Utils;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * Container class for the card answer to reset.
+ * Container class for the card answer to reset. The ATR is decoded according
+ * to ISO/IEC 7816-3 (initial character TS, format byte T0, interface bytes,
+ * historical bytes and check byte TCK) and ISO/IEC 7816-4 (card capabilities
+ * in compact-TLV historical bytes).
  */
 public class ATR {
+    /** Maximum command data length of short APDUs */
+    public static final int MAX_SHORT_LC = 255;
+
+    /** Maximum response data length of short APDUs */
+    public static final int MAX_SHORT_LE = 256;
+
+    /** Maximum command data length of extended length APDUs */
+    public static final int MAX_EXTENDED_LC = 65535;
+
+    /** Maximum response data length of extended length APDUs */
+    public static final int MAX_EXTENDED_LE = 65536;
+
+    /** Maximum number of interface byte groups */
+    private static final int MAX_GROUPS = 16;
+
+    /** Maximum number of decoded ATRs kept by valueOf() */
+    private static final int CACHE_SIZE = 64;
+
+    /** Decoded ATRs by their bytes, least recently used first */
+    private static final Map<ByteBuffer, ATR> CACHE =
+            new LinkedHashMap<ByteBuffer, ATR>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<ByteBuffer, ATR> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
     /** Byte array containing the ATR */
     private final byte[] abATR;
 
+    /** Interface bytes TAi, TBi, TCi and TDi (i = 1..), -1 if absent */
+    private final int[][] interfaceBytes = new int[4][MAX_GROUPS + 1];
+
+    /** Bit mask of the offered protocols (bit n for T=n) */
+    private int protocols;
+
+    /** Historical bytes */
+    private byte[] historicalBytes = new byte[0];
+
+    /** Check byte TCK or -1 if absent */
+    private int tck = -1;
+
+    /** Marker if the ATR is well-formed and its check byte is correct */
+    private boolean valid;
+
+    /** Marker if command chaining is supported */
+    private boolean commandChaining;
+
+    /** Marker if extended length APDUs are supported */
+    private boolean extendedLength;
+
+    /** Marker if the historical bytes contain the card capabilities */
+    private boolean cardCapabilities;
+
+    /** Maximum number of logical channels */
+    private int maxLogicalChannels = 1;
+
     /**
      * Constructor.
      *
@@ -20,6 +84,32 @@ public class ATR {
      */
     public ATR(byte[] atr) {
         abATR = atr.clone();
+
+        for (int[] bytes : interfaceBytes)
+            Arrays.fill(bytes, -1);
+
+        decode();
+    }
+
+    /**
+     * Return the decoded ATR for a byte array. Decoded ATRs are cached, so
+     * reconnecting to a card or connecting to cards of the same type does not
+     * decode the ATR again.
+     *
+     * @param atr byte array containing ATR.
+     * @return decoded ATR.
+     */
+    public static ATR valueOf(byte[] atr) {
+        ByteBuffer key = ByteBuffer.wrap(atr.clone());
+
+        synchronized (CACHE) {
+            ATR decoded = CACHE.get(key);
+            if (decoded == null) {
+                decoded = new ATR(key.array());
+                CACHE.put(key, decoded);
+            }
+            return decoded;
+        }
     }
 
     /**
@@ -31,6 +121,188 @@ public class ATR {
         return abATR != null ? abATR.clone() : null;
     }
 
+    /**
+     * Check if the ATR is well-formed and the check byte TCK is correct.
+     *
+     * @return true if ATR is valid.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Return the initial character TS.
+     *
+     * @return TS or -1 if the ATR is empty.
+     */
+    public int getTS() {
+        return (abATR.length > 0) ? (abATR[0] & 0xFF) : -1;
+    }
+
+    /**
+     * Return the format byte T0.
+     *
+     * @return T0 or -1 if the ATR is too short.
+     */
+    public int getT0() {
+        return (abATR.length > 1) ? (abATR[1] & 0xFF) : -1;
+    }
+
+    /**
+     * Return the interface byte TAi.
+     *
+     * @param i index of interface byte group starting with 1.
+     * @return TAi or -1 if absent.
+     */
+    public int getTA(int i) {
+        return getInterfaceByte(0, i);
+    }
+
+    /**
+     * Return the interface byte TBi.
+     *
+     * @param i index of interface byte group starting with 1.
+     * @return TBi or -1 if absent.
+     */
+    public int getTB(int i) {
+        return getInterfaceByte(1, i);
+    }
+
+    /**
+     * Return the interface byte TCi.
+     *
+     * @param i index of interface byte group starting with 1.
+     * @return TCi or -1 if absent.
+     */
+    public int getTC(int i) {
+        return getInterfaceByte(2, i);
+    }
+
+    /**
+     * Return the interface byte TDi.
+     *
+     * @param i index of interface byte group starting with 1.
+     * @return TDi or -1 if absent.
+     */
+    public int getTD(int i) {
+        return getInterfaceByte(3, i);
+    }
+
+    /**
+     * Check if a transmission protocol is offered by the card.
+     *
+     * @param protocol protocol number (e.g. 0 for T=0, 1 for T=1).
+     * @return true if the protocol is offered.
+     */
+    public boolean isProtocolSupported(int protocol) {
+        return (protocol >= 0) && (protocol < 16) &&
+               ((protocols & (1 << protocol)) != 0);
+    }
+
+    /**
+     * Return the first offered transmission protocol.
+     *
+     * @return protocol number.
+     */
+    public int getDefaultProtocol() {
+        return Integer.numberOfTrailingZeros(protocols);
+    }
+
+    /**
+     * Return the information field size of the card for T=1 (TAi of the first
+     * T=1 specific group).
+     *
+     * @return IFSC in bytes, 32 if not specified.
+     */
+    public int getIFSC() {
+        for (int i = 2; i < MAX_GROUPS; i++) {
+            if ((getTD(i) & 0x0F) == 1)
+                return (getTA(i + 1) > 0) ? getTA(i + 1) : 32;
+        }
+
+        return 32;
+    }
+
+    /**
+     * Return the historical bytes.
+     *
+     * @return historical bytes.
+     */
+    public byte[] getHistoricalBytes() {
+        return historicalBytes.clone();
+    }
+
+    /**
+     * Return the check byte TCK.
+     *
+     * @return TCK or -1 if absent.
+     */
+    public int getTCK() {
+        return tck;
+    }
+
+    /**
+     * Check if the card supports command chaining, as indicated by the card
+     * capabilities in the historical bytes.
+     *
+     * @return true if command chaining is supported.
+     */
+    public boolean isCommandChainingSupported() {
+        return commandChaining;
+    }
+
+    /**
+     * Check if the card supports extended length APDUs, as indicated by the
+     * card capabilities in the historical bytes.
+     *
+     * @return true if extended Lc and Le fields are supported.
+     */
+    public boolean isExtendedLengthSupported() {
+        return extendedLength;
+    }
+
+    /**
+     * Check if the historical bytes contain the card capabilities, i.e. the
+     * third software function table.
+     *
+     * @return true if the card capabilities are indicated.
+     */
+    public boolean hasCardCapabilities() {
+        return cardCapabilities;
+    }
+
+    /**
+     * Return the maximum number of logical channels, as indicated by the card
+     * capabilities in the historical bytes. The value 8 indicates 8 or more
+     * logical channels.
+     *
+     * @return maximum number of logical channels including the basic channel,
+     *         1 if not indicated.
+     */
+    public int getMaxLogicalChannels() {
+        return maxLogicalChannels;
+    }
+
+    /**
+     * Return the maximum command data length supported by the card.
+     *
+     * @return MAX_EXTENDED_LC if extended length APDUs are supported,
+     *         MAX_SHORT_LC otherwise.
+     */
+    public int getMaxLc() {
+        return extendedLength ? MAX_EXTENDED_LC : MAX_SHORT_LC;
+    }
+
+    /**
+     * Return the maximum response data length supported by the card.
+     *
+     * @return MAX_EXTENDED_LE if extended length APDUs are supported,
+     *         MAX_SHORT_LE otherwise.
+     */
+    public int getMaxLe() {
+        return extendedLength ? MAX_EXTENDED_LE : MAX_SHORT_LE;
+    }
+
     /**
      * Returns the ATR as a hex string.
      *
@@ -39,4 +311,122 @@ public class ATR {
     public String toString() {
         return Utils.toHexString(abATR);
     }
+
+    /**
+     * Helper method to return an interface byte.
+     *
+     * @param kind 0 for TA, 1 for TB, 2 for TC and 3 for TD.
+     * @param i    index of interface byte group starting with 1.
+     * @return interface byte or -1 if absent.
+     */
+    private int getInterfaceByte(int kind, int i) {
+        if ((i < 1) || (i > MAX_GROUPS))
+            return -1;
+
+        return interfaceBytes[kind][i];
+    }
+
+    /**
+     * Helper method to decode the ATR.
+     */
+    private void decode() {
+        if ((abATR.length < 2) ||
+            ((abATR[0] != (byte) 0x3B) && (abATR[0] != (byte) 0x3F)))
+            return;
+
+        int iOffset = 2;
+        int iIndicator = (abATR[1] & 0xF0) >> 4;
+        int iHistorical = abATR[1] & 0x0F;
+        boolean checked = false;
+
+        // interface bytes, each TDi indicates the presence of the next group
+        for (int i = 1; iIndicator != 0; i++) {
+            if (i > MAX_GROUPS)
+                return;
+
+            int iNext = 0;
+            for (int kind = 0; kind < 4; kind++) {
+                if ((iIndicator & (1 << kind)) == 0)
+                    continue;
+                if (iOffset >= abATR.length)
+                    return;
+
+                interfaceBytes[kind][i] = abATR[iOffset++] & 0xFF;
+                if (kind == 3) {
+                    int protocol = interfaceBytes[kind][i] & 0x0F;
+
+                    iNext = interfaceBytes[kind][i] >> 4;
+                    protocols |= 1 << protocol;
+
+                    // TCK is present if any protocol other than T=0 is offered
+                    checked |= (protocol != 0);
+                }
+            }
+            iIndicator = iNext;
+        }
+
+        // T=0 is assumed if no protocol is indicated
+        if (protocols == 0)
+            protocols = 1;
+
+        if (iOffset + iHistorical > abATR.length)
+            return;
+
+        historicalBytes =
+                Arrays.copyOfRange(abATR, iOffset, iOffset + iHistorical);
+        iOffset += iHistorical;
+
+        if (checked) {
+            if (iOffset >= abATR.length)
+                return;
+
+            int iCheck = 0;
+            for (int i = 1; i <= iOffset; i++)
+                iCheck ^= abATR[i];
+
+            tck = abATR[iOffset++] & 0xFF;
+            if (iCheck != 0)
+                return;
+        }
+
+        decodeCapabilities();
+        valid = (iOffset == abATR.length);
+    }
+
+    /**
+     * Helper method to decode the card capabilities from compact-TLV
+     * historical bytes.
+     */
+    private void decodeCapabilities() {
+        int iEnd = historicalBytes.length;
+
+        if (iEnd == 0)
+            return;
+
+        // category indicator 00 is followed by a 3 byte status indicator
+        if (historicalBytes[0] == 0x00)
+            iEnd -= 3;
+        else if (historicalBytes[0] != (byte) 0x80)
+            return;
+
+        for (int i = 1; i < iEnd;) {
+            int iTag = (historicalBytes[i] & 0xF0) >> 4;
+            int iLength = historicalBytes[i] & 0x0F;
+
+            i++;
+            if (i + iLength > iEnd)
+                return;
+
+            // third software function table of card capabilities
+            if ((iTag == 0x07) && (iLength >= 3)) {
+                int iFunctions = historicalBytes[i + 2] & 0xFF;
+
+                cardCapabilities = true;
+                commandChaining = (iFunctions & 0x80) != 0;
+                extendedLength = (iFunctions & 0x40) != 0;
+                maxLogicalChannels = (iFunctions & 0x07) + 1;
+            }
+            i += iLength;
+        }
+    }
 }
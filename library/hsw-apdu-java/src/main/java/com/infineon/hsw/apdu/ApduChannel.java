@@ -4,13 +4,25 @@
 
 package com.infineon.hsw.apdu;
 
+import com.infineon.hsw.channel.AsyncChannelAdapter;
 import com.infineon.hsw.channel.ChannelException;
+import com.infineon.hsw.channel.IAsyncChannel;
 import com.infineon.hsw.channel.IChannel;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
 
 /**
  * Communication channel for APDU structured data packages. The APDUs can be
@@ -34,6 +46,15 @@ public class ApduChannel {
     /** Bit flag to keep original class byte for GET RESPONSE command in T=0 */
     public static final int FLAG_KEEP_CLASS_BYTE = 8;
 
+    /** Priority lane for urgent exchanges like health probes */
+    public static final int LANE_HIGH = 0;
+
+    /** Priority lane for regular exchanges */
+    public static final int LANE_NORMAL = 1;
+
+    /** Priority lane for bulk transfers */
+    public static final int LANE_BULK = 2;
+
     /** Reference of APDU logger instance */
     protected final ApduLogger
             logger = new ApduLogger("com.infineon.hsw.apdu.ApduChannel", null);
@@ -41,6 +62,21 @@ public class ApduChannel {
     /** Reference to synchronous communication channel */
     protected IChannel channel;
 
+    /** Reference to asynchronous communication channel */
+    private IAsyncChannel asyncChannel;
+
+    /** Size of a buffer holding any short APDU command or response */
+    private static final int SHORT_BUFFER_SIZE = 261;
+
+    /** Size of a buffer holding any extended APDU response */
+    private static final int EXTENDED_BUFFER_SIZE = 65538;
+
+    /** Reusable buffer for encoded commands */
+    private ByteBuffer commandBuffer;
+
+    /** Reusable buffer for received responses */
+    private ByteBuffer responseBuffer;
+
     /** Marker if communication channel has been opened by this instance */
     private boolean openDone = false;
 
@@ -56,18 +92,77 @@ public class ApduChannel {
     /** Flag if original class byte is kept for GET RESPONSE command */
     private boolean keepClassByte = false;
 
+    /** Marker if APDUs are logged by the exchanging thread */
+    private volatile boolean syncLogging = true;
+
+    /** Asynchronous trace of all transmissions or null */
+    private volatile ApduTraceSink traceSink;
+
+    /** Lock serializing all exchanges on this channel */
+    private final ExchangeLock exchangeLock = new ExchangeLock();
+
     /** List of all registered state listeners */
-    private final List<WeakReference<IStateListener>> statelisteners =
-            new ArrayList<>();
+    private final List<StateListenerRef> statelisteners =
+            new CopyOnWriteArrayList<>();
 
-    /** Timer for sending delayed idle notifications */
-    private final Timer timer = new Timer();
+    /** Number of registered state listeners receiving BUSY and IDLE events */
+    private final AtomicInteger activityListeners = new AtomicInteger();
+
+    /** Delay of the IDLE event after the last exchange in nanoseconds */
+    private static final long IDLE_DELAY = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /** Reported state: no event or IDLE event fired last */
+    private static final int STATE_IDLE = 0;
+
+    /** Reported state: BUSY event fired last */
+    private static final int STATE_BUSY = 1;
+
+    /** Number of exchanges in progress */
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    /** State last reported to the listeners */
+    private final AtomicInteger reportedState = new AtomicInteger(STATE_IDLE);
+
+    /** Marker if a check for the IDLE event is scheduled */
+    private final AtomicBoolean idlePending = new AtomicBoolean();
+
+    /** Time in nanoseconds at which the IDLE event is due */
+    private volatile long idleDeadline;
+
+    /** Task firing the BUSY event */
+    private final Runnable busyTask = new Runnable() {
+        @Override
+        public void run() {
+            fireStateChanged(new StateChangeEvent(StateChangeEvent.EV_BUSY));
+        }
+    };
+
+    /** Task firing the IDLE event when due */
+    private final Runnable idleTask = new Runnable() {
+        @Override
+        public void run() {
+            checkIdle();
+        }
+    };
 
-    /** Timer task for delayed idle notifications */
-    private TimerTask idleTask;
+    /** Transmit latency of all exchanges */
+    private final LatencyHistogram latency = new LatencyHistogram();
 
-    /** Marker for idle / busy state */
-    private boolean busy;
+    /** Selection state of the logical channels */
+    private final SelectionState selectionState = new SelectionState();
+
+    /** ATR of the connected card, null if not connected */
+    private volatile ATR atr;
+
+    /** Maximum command data length overriding the ATR, 0 if not set */
+    private volatile int maxLc;
+
+    /** Maximum response data length overriding the ATR, 0 if not set */
+    private volatile int maxLe;
+
+    /** Transmit latency per instruction byte, created on first use */
+    private final AtomicReferenceArray<LatencyHistogram> insLatency =
+            new AtomicReferenceArray<>(256);
 
     /**
      * Default constructor to allow derived class different handling of logging.
@@ -105,21 +200,108 @@ public class ApduChannel {
     public final void setChannel(IChannel channel) {
         // set channel
         this.channel = channel;
+        asyncChannel = null;
 
         // signal that channel changed
         fireStateChanged(
                 new StateChangeEvent(StateChangeEvent.EV_CHANNEL_CHANGE));
     }
 
+    /**
+     * Set the asynchronous channel used by {@link #sendAsync(ApduCommand)}.
+     * If no asynchronous channel is set, the synchronous channel is used
+     * directly if it implements IAsyncChannel, otherwise it is wrapped into an
+     * AsyncChannelAdapter using the shared default executor. The asynchronous
+     * channel is reset whenever the synchronous channel is changed.
+     *
+     * @param asyncChannel asynchronous channel or null for default handling.
+     */
+    public void setAsyncChannel(IAsyncChannel asyncChannel) {
+        this.asyncChannel = asyncChannel;
+    }
+
+    /**
+     * Get the asynchronous channel used by {@link #sendAsync(ApduCommand)}.
+     *
+     * @return reference of asynchronous communication channel or null if no
+     *         channel is specified.
+     */
+    public IAsyncChannel getAsyncChannel() {
+        IAsyncChannel async = asyncChannel;
+
+        if ((async == null) && (channel != null)) {
+            if (channel instanceof IAsyncChannel)
+                async = (IAsyncChannel) channel;
+            else
+                async = new AsyncChannelAdapter(channel);
+
+            asyncChannel = async;
+        }
+
+        return async;
+    }
+
+    /**
+     * Get the histogram of the transmit latency of all exchanges of this
+     * channel. Every transmission is recorded, including protocol APDUs like
+     * GET RESPONSE. The histogram may be read while commands are sent.
+     *
+     * @return latency histogram of channel.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    /**
+     * Get the histogram of the transmit latency of all exchanges of this
+     * channel with the given instruction byte.
+     *
+     * @param ins instruction byte.
+     * @return latency histogram of instruction or null if no command with
+     *         this instruction has been sent.
+     */
+    public LatencyHistogram getLatencyHistogram(int ins) {
+        return insLatency.get(ins & 0xFF);
+    }
+
+    /**
+     * Reset the latency histograms of the channel and of all instructions.
+     */
+    public void resetLatencyHistograms() {
+        latency.reset();
+        for (int i = 0; i < insLatency.length(); i++) {
+            LatencyHistogram histogram = insLatency.get(i);
+            if (histogram != null)
+                histogram.reset();
+        }
+    }
+
     /**
      * Add a listener to the channel state. The listener will be informed of any
-     * change in the channel state in case of e.g. disconnect or reset event.
+     * change in the channel state in case of e.g. disconnect or reset event,
+     * including the BUSY and IDLE events.
      *
      * @param listener reference of listener object.
      */
     public void addStateListener(IStateListener listener) {
+        addStateListener(listener, true);
+    }
+
+    /**
+     * Add a listener to the channel state. BUSY and IDLE events are only
+     * scheduled while at least one listener receiving them is registered. A
+     * listener already registered is registered again with the new setting.
+     *
+     * @param listener       reference of listener object.
+     * @param activityEvents if true the listener is also informed of the BUSY
+     *         and IDLE events.
+     */
+    public void addStateListener(IStateListener listener,
+                                 boolean activityEvents) {
         removeStateListener(listener);
-        statelisteners.add(new WeakReference<>(listener));
+        statelisteners.add(new StateListenerRef(listener, activityEvents));
+        if (activityEvents)
+            activityListeners.incrementAndGet();
     }
 
     /**
@@ -128,14 +310,24 @@ public class ApduChannel {
      * @param listener reference of registered listener object.
      */
     public void removeStateListener(IStateListener listener) {
-        for (WeakReference<IStateListener> wr : statelisteners) {
+        for (StateListenerRef wr : statelisteners) {
             if (listener.equals(wr.get())) {
-                statelisteners.remove(wr);
+                unregister(wr);
                 break;
             }
         }
     }
 
+    /**
+     * Helper method to remove a registration of a state listener.
+     *
+     * @param wr registration to be removed.
+     */
+    private void unregister(StateListenerRef wr) {
+        if (statelisteners.remove(wr) && wr.activityEvents)
+            activityListeners.decrementAndGet();
+    }
+
     /**
      * Get communication channel associated with logger.
      *
@@ -155,7 +347,138 @@ public class ApduChannel {
      * @throws ApduException in case of communication problems.
      */
     public ApduResponse send(ApduCommand apduCommand) throws ApduException {
-        ApduResponse apduResponse = new ApduResponse("0000", 0);
+        return send(apduCommand, LANE_NORMAL);
+    }
+
+    /**
+     * Send APDU command and receive response. The channel may be shared by
+     * several threads: the exchanges are serialized, including the protocol
+     * APDUs of an exchange. While the channel is in use, the command waits in
+     * the given priority lane; lower lanes are served first, commands of the
+     * same lane in order of arrival.
+     *
+     * @param apduCommand APDU command to be sent
+     * @param lane        priority lane, e.g. LANE_HIGH, LANE_NORMAL or
+     *         LANE_BULK.
+     * @return APDU response received from card.
+     * @throws ApduException in case of communication problems.
+     */
+    public ApduResponse send(ApduCommand apduCommand, int lane)
+            throws ApduException {
+        exchangeLock.acquire(lane);
+        try {
+            return exchange(apduCommand, null, false);
+        } finally {
+            exchangeLock.release();
+        }
+    }
+
+    /**
+     * Execute a transaction. The sequence of exchanges of the transaction is
+     * not interleaved with exchanges of other threads.
+     *
+     * @param <T>         type of transaction result.
+     * @param transaction transaction to be executed.
+     * @return result of transaction.
+     * @throws ApduException in case of communication problems.
+     */
+    public <T> T execute(IApduTransaction<T> transaction) throws ApduException {
+        return execute(transaction, LANE_NORMAL);
+    }
+
+    /**
+     * Execute a transaction. The sequence of exchanges of the transaction is
+     * not interleaved with exchanges of other threads. While the channel is
+     * in use, the transaction waits in the given priority lane.
+     *
+     * @param <T>         type of transaction result.
+     * @param transaction transaction to be executed.
+     * @param lane        priority lane, e.g. LANE_HIGH, LANE_NORMAL or
+     *         LANE_BULK.
+     * @return result of transaction.
+     * @throws ApduException in case of communication problems.
+     */
+    public <T> T execute(IApduTransaction<T> transaction, int lane)
+            throws ApduException {
+        exchangeLock.acquire(lane);
+        try {
+            return transaction.execute(this);
+        } finally {
+            exchangeLock.release();
+        }
+    }
+
+    /**
+     * Acquire exclusive use of the channel for the calling thread. Used by
+     * command sets to process a command by their services atomically with
+     * its exchange. Each call has to be paired with releaseExchange().
+     *
+     * @param lane priority lane.
+     */
+    /* default */ void acquireExchange(int lane) {
+        exchangeLock.acquire(lane);
+    }
+
+    /**
+     * Acquire exclusive use of the channel for an asynchronous exchange. Used
+     * by command sets to process a command by their services atomically with
+     * its asynchronous exchange, see {@link #sendAsyncHeld(ApduCommand)}.
+     * Each call has to be paired with releaseExchange().
+     *
+     * @param lane priority lane.
+     * @return future completed when the channel is granted.
+     */
+    /* default */ CompletableFuture<Void> acquireExchangeAsync(int lane) {
+        return exchangeLock.acquireAsync(lane);
+    }
+
+    /**
+     * Release exclusive use of the channel acquired by acquireExchange() or
+     * acquireExchangeAsync().
+     */
+    /* default */ void releaseExchange() {
+        exchangeLock.release();
+    }
+
+    /**
+     * Send an APDU command which has already been encoded and receive the
+     * response without logging. Used by ApduScript, which holds the channel
+     * for the whole script. Protocol APDUs, latency recording and events are
+     * handled as for {@link #send(ApduCommand)}.
+     *
+     * @param apduCommand APDU command to be sent
+     * @param encoded     buffer containing the encoded APDU command.
+     * @return APDU response received from card.
+     * @throws ApduException in case of communication problems.
+     */
+    /* default */ ApduResponse sendEncoded(ApduCommand apduCommand,
+                                           ByteBuffer encoded)
+            throws ApduException {
+        exchangeLock.acquire(LANE_NORMAL);
+        try {
+            return exchange(apduCommand, encoded, true);
+        } finally {
+            exchangeLock.release();
+        }
+    }
+
+    /**
+     * Helper method to perform an exchange while the channel is locked.
+     *
+     * @param apduCommand APDU command to be sent
+     * @param encoded     buffer containing the encoded APDU command or null
+     *         if the command is to be encoded.
+     * @param quiet       if true, the exchange is not logged.
+     * @return APDU response received from card.
+     * @throws ApduException in case of communication problems.
+     */
+    private ApduResponse exchange(ApduCommand apduCommand, ByteBuffer encoded,
+                                  boolean quiet) throws ApduException {
+        ApduResponse apduResponse =
+                new ApduResponse(apduCommand.getLe() + 2);
+        ApduTraceSink sink = traceSink;
+
+        quiet |= !syncLogging;
 
         // signal that channel is busy
         setBusy();
@@ -164,103 +487,59 @@ public class ApduChannel {
             // use temp variable for command APDU
             ApduCommand cmd = apduCommand;
 
-            if (!logProtocolApdus)
+            if (!logProtocolApdus && !quiet)
                 logger.info("", cmd);
 
             while (true) {
-                byte[] abResponse;
+                int iLength;
 
                 // log partial APDU
-                if (logProtocolApdus)
+                if (logProtocolApdus && !quiet)
                     logger.info("", cmd);
 
+                // prepare buffers for command and response
+                ByteBuffer command = (cmd == apduCommand) && (encoded != null)
+                                             ? encoded.duplicate()
+                                             : prepareCommandBuffer(cmd);
+                ByteBuffer response = prepareResponseBuffer(cmd);
+                ByteBuffer traced = (sink != null) ? command.duplicate()
+                                                   : null;
+
                 // send command and receive response
-                long lExecTime = System.nanoTime();
+                long lStartTime = System.nanoTime();
+                long lExecTime;
 
                 try {
                     // send the command
-                    abResponse = channel.transmit(cmd.toBytes());
+                    iLength = channel.transmit(command, response);
 
                 } catch (ChannelException e) {
+                    if (sink != null)
+                        sink.traceError(traced, e.getMessage(), lStartTime,
+                                        System.nanoTime() - lStartTime);
                     logger.info("ERR: " + e.getMessage());
-                    disconnect();
+                    closeChannel();
                     throw new ApduException(e.getMessage(), e);
                 }
 
-                if (abResponse != null) {
-                    lExecTime = System.nanoTime() - lExecTime;
-
-                    // log partial response
-                    if (logProtocolApdus)
-                        logger.info("",
-                                    new ApduResponse(abResponse, lExecTime));
-
-                    // append data to response
-                    apduResponse.appendResponse(abResponse, lExecTime);
-
-                    // check for 61xx or 6Cxx
-                    if (handleGetResponse && (abResponse.length >= 2)) {
-                        // handle GET RESPONSE
-                        switch (abResponse[abResponse.length - 2]) {
-                        case 0x61: {
-                            ApduCommand origCmd = cmd;
-                            cmd = new ApduCommand("00C00000");
-                            int le = (abResponse[abResponse.length - 1] & 0xFF);
-                            if (le == 0) {
-                                le = 256;
-                            }
-                            cmd.setLe(le);
-                            if (keepClassByte)
-                                cmd.setCLA(origCmd.getCLA());
-                            else if (keepChannelBits)
-                                cmd.setLogChannel(origCmd.getLogChannel());
-                        }
-                            continue;
-
-                        case 0x6C: {
-                            // create new command and adjust Le
-                            cmd = new ApduCommand(cmd.getHeader())
-                                          .setLe((abResponse[abResponse.length -
-                                                             1] &
-                                                  0xFF));
-                        }
-                            continue;
-                        default: {
-                            // do nothing
-                        }
-                        }
-                    }
+                if (iLength >= 0) {
+                    lExecTime = System.nanoTime() - lStartTime;
+                    response.flip();
 
-                    break;
-                }
-            }
+                    if (sink != null)
+                        sink.trace(traced, response, lStartTime, lExecTime);
+
+                    // process partial response and check for 61xx or 6Cxx
+                    cmd = processPartialResponse(cmd, response, lExecTime,
+                                                 apduResponse, quiet);
+                    if (cmd != null)
+                        continue;
 
-            // log final APDU
-            if (!logProtocolApdus)
-                logger.info("", apduResponse);
-
-            // fire events on successful manage channel or select
-            switch (apduResponse.getSW() & 0xFF00) {
-            case 0x6C00:
-            case 0x9000: {
-                if (isManageChannel(apduCommand)) {
-                    fireStateChanged(new ApduEvent(ApduEvent.EV_MANAGE_CHANNEL,
-                                                   apduCommand, apduResponse));
                     break;
                 }
             }
-            // fall through
-            case 0x6100:
-            case 0x6200:
-            case 0x6300: {
-                if (isSelect(apduCommand))
-                    fireStateChanged(new ApduEvent(ApduEvent.EV_SELECT,
-                                                   apduCommand, apduResponse));
-            } break;
-            default: {
-                // Do nothing
-            }
-            }
+
+            completeExchange(apduCommand, apduResponse, quiet);
         } finally {
             // now we are idle again
             setIdle();
@@ -270,58 +549,454 @@ public class ApduChannel {
     }
 
     /**
-     * Helper method to send an IDLE event to all listeners after a certain
-     * delay.
+     * Send APDU command and receive response asynchronously. The method
+     * returns immediately, the exchange is performed by the asynchronous
+     * channel associated with this instance (see
+     * {@link #setAsyncChannel(IAsyncChannel)}). Like {@link #send(ApduCommand)}
+     * the T=0 protocol related APDUs are handled automatically if enabled.
+     *
+     * @param apduCommand APDU command to be sent
+     * @return future which is completed with the APDU response received from
+     *         card or completed exceptionally with an ApduException in case of
+     *         communication problems.
      */
-    private void setIdle() {
-        // create new task
-        idleTask = new TimerTask() {
+    public CompletableFuture<ApduResponse> sendAsync(ApduCommand apduCommand) {
+        return sendAsync(apduCommand, LANE_NORMAL);
+    }
+
+    /**
+     * Send APDU command and receive response asynchronously. The command is
+     * queued in the given priority lane and exchanged as soon as the channel
+     * is available; lower lanes are served first, commands of the same lane
+     * in order of arrival. Apart from that the method behaves like
+     * {@link #sendAsync(ApduCommand)}.
+     *
+     * @param apduCommand APDU command to be sent
+     * @param lane        priority lane, e.g. LANE_HIGH, LANE_NORMAL or
+     *         LANE_BULK.
+     * @return future which is completed with the APDU response received from
+     *         card or completed exceptionally with an ApduException in case of
+     *         communication problems.
+     */
+    public CompletableFuture<ApduResponse> sendAsync(
+            final ApduCommand apduCommand, int lane) {
+        final CompletableFuture<ApduResponse> result =
+                new CompletableFuture<>();
+
+        if (channel == null) {
+            result.completeExceptionally(
+                    new ApduException("No channel specified"));
+            return result;
+        }
+
+        exchangeLock.acquireAsync(lane).thenRun(new Runnable() {
             @Override
             public void run() {
-                // remove reference to task
-                idleTask = null;
+                startAsync(apduCommand, result);
+            }
+        });
+
+        return result;
+    }
 
-                // send notification
-                fireStateChanged(
-                        new StateChangeEvent(StateChangeEvent.EV_IDLE));
+    /**
+     * Send APDU command and receive response asynchronously while the
+     * exchange is already held, e.g. by acquireExchangeAsync(). The command
+     * is exchanged immediately; apart from that the method behaves like
+     * {@link #sendAsync(ApduCommand)}.
+     *
+     * @param apduCommand APDU command to be sent
+     * @return future which is completed with the APDU response received from
+     *         card or completed exceptionally with an ApduException in case of
+     *         communication problems.
+     */
+    /* default */ CompletableFuture<ApduResponse> sendAsyncHeld(
+            ApduCommand apduCommand) {
+        CompletableFuture<ApduResponse> result = new CompletableFuture<>();
+
+        if (channel == null) {
+            result.completeExceptionally(
+                    new ApduException("No channel specified"));
+            return result;
+        }
+
+        // nested in the held exchange, released again by finishAsync()
+        exchangeLock.acquireHeld();
+        startAsync(apduCommand, result);
+
+        return result;
+    }
+
+    /**
+     * Helper method to start an asynchronous exchange after the lock has been
+     * acquired.
+     *
+     * @param apduCommand APDU command to be sent
+     * @param result      future to be completed at the end of the exchange.
+     */
+    private void startAsync(ApduCommand apduCommand,
+                            CompletableFuture<ApduResponse> result) {
+        // signal that channel is busy
+        setBusy();
+
+        try {
+            ApduResponse apduResponse =
+                    new ApduResponse(apduCommand.getLe() + 2);
+
+            if (!logProtocolApdus && syncLogging)
+                logger.info("", apduCommand);
+
+            transmitAsync(getAsyncChannel(), apduCommand, apduCommand,
+                          apduResponse, result);
+        } catch (RuntimeException e) {
+            finishAsync();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Helper method to end an asynchronous exchange. The channel becomes idle
+     * and is handed to the next queued exchange.
+     */
+    private void finishAsync() {
+        setIdle();
+        exchangeLock.release();
+    }
+
+    /**
+     * Helper method to asynchronously transmit a (partial) command and to
+     * continue with the next partial command or to complete the exchange.
+     *
+     * @param asyncChannel asynchronous channel used for the transmission.
+     * @param apduCommand  original APDU command.
+     * @param cmd          partial APDU command to be transmitted.
+     * @param apduResponse accumulated APDU response.
+     * @param result       future to be completed at the end of the exchange.
+     */
+    private void transmitAsync(final IAsyncChannel asyncChannel,
+                               final ApduCommand apduCommand,
+                               final ApduCommand cmd,
+                               final ApduResponse apduResponse,
+                               final CompletableFuture<ApduResponse> result) {
+        final boolean quiet = !syncLogging;
+        final ApduTraceSink sink = traceSink;
+        final byte[] abCommand = cmd.toBytes();
+
+        // log partial APDU
+        if (logProtocolApdus && !quiet)
+            logger.info("", cmd);
+
+        final long lStartTime = System.nanoTime();
+
+        asyncChannel.transmitAsync(abCommand)
+                .whenComplete(new BiConsumer<byte[], Throwable>() {
+                    @Override
+                    public void accept(byte[] abResponse, Throwable error) {
+                        long lExecTime = System.nanoTime() - lStartTime;
+
+                        try {
+                            if (error != null) {
+                                Throwable cause = unwrap(error);
+                                if (sink != null)
+                                    sink.traceError(ByteBuffer.wrap(abCommand),
+                                                    cause.getMessage(),
+                                                    lStartTime, lExecTime);
+                                logger.info("ERR: " + cause.getMessage());
+                                closeChannel();
+                                throw new ApduException(cause.getMessage(),
+                                                        toException(cause));
+                            }
+
+                            if (sink != null) {
+                                ByteBuffer traced = (abResponse == null)
+                                        ? null
+                                        : ByteBuffer.wrap(abResponse);
+                                sink.trace(ByteBuffer.wrap(abCommand), traced,
+                                           lStartTime, lExecTime);
+                            }
+
+                            ApduCommand next = cmd;
+                            if (abResponse != null) {
+                                next = processPartialResponse(
+                                        cmd, ByteBuffer.wrap(abResponse),
+                                        lExecTime, apduResponse, quiet);
+                            }
+
+                            if (next != null) {
+                                transmitAsync(asyncChannel, apduCommand, next,
+                                              apduResponse, result);
+                                return;
+                            }
+
+                            completeExchange(apduCommand, apduResponse,
+                                             quiet);
+                            finishAsync();
+                            result.complete(apduResponse);
+                        } catch (ApduException | RuntimeException e) {
+                            finishAsync();
+                            result.completeExceptionally(e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Helper method to fill the reusable command buffer with a command.
+     *
+     * @param cmd APDU command to be sent.
+     * @return buffer containing the encoded command.
+     */
+    private ByteBuffer prepareCommandBuffer(ApduCommand cmd) {
+        int iLength = cmd.getLength();
+
+        if ((commandBuffer == null) || (commandBuffer.capacity() < iLength)) {
+            commandBuffer = ByteBuffer.allocateDirect(
+                    Math.max(iLength, SHORT_BUFFER_SIZE));
+        }
+
+        commandBuffer.clear();
+        cmd.encodeInto(commandBuffer);
+        commandBuffer.flip();
+
+        return commandBuffer;
+    }
+
+    /**
+     * Helper method to prepare the reusable response buffer for a command.
+     * The buffer is large enough for any response permitted by the APDU
+     * format of the command.
+     *
+     * @param cmd APDU command to be sent.
+     * @return empty buffer receiving the response.
+     */
+    private ByteBuffer prepareResponseBuffer(ApduCommand cmd) {
+        int iSize = cmd.isExtendedFormat() ? EXTENDED_BUFFER_SIZE
+                                           : SHORT_BUFFER_SIZE;
+
+        if ((responseBuffer == null) || (responseBuffer.capacity() < iSize))
+            responseBuffer = ByteBuffer.allocateDirect(iSize);
+
+        responseBuffer.clear();
+
+        return responseBuffer;
+    }
+
+    /**
+     * Helper method to record the latency of a transmission in the channel
+     * and instruction histograms.
+     *
+     * @param ins       instruction byte of transmitted command.
+     * @param lExecTime execution time in nanoseconds.
+     */
+    private void recordLatency(int ins, long lExecTime) {
+        LatencyHistogram histogram = insLatency.get(ins & 0xFF);
+
+        if (histogram == null) {
+            insLatency.compareAndSet(ins & 0xFF, null, new LatencyHistogram());
+            histogram = insLatency.get(ins & 0xFF);
+        }
+
+        latency.record(lExecTime);
+        histogram.record(lExecTime);
+    }
+
+    /**
+     * Helper method to process a partial response. The partial response is
+     * logged and appended to the accumulated response. If the partial response
+     * requests a protocol APDU (61xx or 6Cxx), the follow-up command is built.
+     *
+     * @param cmd          partial APDU command which has been sent.
+     * @param response     buffer containing the received partial response.
+     * @param lExecTime    execution time of partial command in nanoseconds.
+     * @param apduResponse accumulated APDU response.
+     * @param quiet        if true, the partial response is not logged.
+     * @return follow-up command to be sent or null if exchange is complete.
+     * @throws ApduException if the response cannot be processed.
+     */
+    private ApduCommand processPartialResponse(ApduCommand cmd,
+                                               ByteBuffer response,
+                                               long lExecTime,
+                                               ApduResponse apduResponse,
+                                               boolean quiet)
+            throws ApduException {
+        int iLength = response.remaining();
+        int iOffset = response.position();
+
+        recordLatency(cmd.getINS(), lExecTime);
+
+        // log partial response
+        if (logProtocolApdus && !quiet) {
+            logger.info("", new ApduResponse(iLength).appendResponse(
+                                    response.duplicate(), lExecTime));
+        }
+
+        // check for 61xx or 6Cxx before the buffer is consumed
+        byte sw1 = (iLength >= 2) ? response.get(iOffset + iLength - 2) : 0;
+        int sw2 = (iLength >= 2) ? (response.get(iOffset + iLength - 1) & 0xFF)
+                                 : 0;
+
+        // append data to response
+        apduResponse.appendResponse(response, lExecTime);
+
+        if (handleGetResponse && (iLength >= 2)) {
+            // handle GET RESPONSE
+            switch (sw1) {
+            case 0x61: {
+                int le = sw2;
+                if (le == 0) {
+                    le = 256;
+                }
+                ApduCommand getResponse = new ApduCommand(0x00, 0xC0, 0x00,
+                                                          0x00, le);
+                if (keepClassByte)
+                    getResponse.setCLA(cmd.getCLA());
+                else if (keepChannelBits)
+                    getResponse.setLogChannel(cmd.getLogChannel());
+                return getResponse;
+            }
+
+            case 0x6C: {
+                // create new command and adjust Le
+                return new ApduCommand(cmd.getCLA(), cmd.getINS(),
+                                       cmd.getP1(), cmd.getP2(), sw2);
+            }
+            default: {
+                // do nothing
+            }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Helper method to finish an exchange by logging the final response and
+     * firing the events on successful manage channel or select.
+     *
+     * @param apduCommand  original APDU command.
+     * @param apduResponse final APDU response.
+     * @param quiet        if true, the final response is not logged.
+     */
+    private void completeExchange(ApduCommand apduCommand,
+                                  ApduResponse apduResponse, boolean quiet) {
+        // log final APDU
+        if (!logProtocolApdus && !quiet)
+            logger.info("", apduResponse);
+
+        selectionState.update(apduCommand, apduResponse);
+
+        // fire events on successful manage channel or select
+        switch (apduResponse.getSW() & 0xFF00) {
+        case 0x6C00:
+        case 0x9000: {
+            if (isManageChannel(apduCommand)) {
+                fireStateChanged(new ApduEvent(ApduEvent.EV_MANAGE_CHANNEL,
+                                               apduCommand, apduResponse));
+                break;
             }
-        };
+        }
+        // fall through
+        case 0x6100:
+        case 0x6200:
+        case 0x6300: {
+            if (isSelect(apduCommand))
+                fireStateChanged(new ApduEvent(ApduEvent.EV_SELECT,
+                                               apduCommand, apduResponse));
+        } break;
+        default: {
+            // Do nothing
+        }
+        }
+    }
+
+    /**
+     * Helper method to remove the completion wrapper of an asynchronous
+     * failure.
+     *
+     * @param error failure reported by a future.
+     * @return original cause of the failure.
+     */
+    private static Throwable unwrap(Throwable error) {
+        if ((error instanceof CompletionException) &&
+            (error.getCause() != null))
+            return error.getCause();
+
+        return error;
+    }
+
+    /**
+     * Helper method to convert a failure into an exception which can be
+     * chained to an ApduException.
+     *
+     * @param error failure reported by a future.
+     * @return failure as exception.
+     */
+    private static Exception toException(Throwable error) {
+        if (error instanceof Exception)
+            return (Exception) error;
 
-        // signal that we are idle in a while
-        timer.schedule(idleTask, 200);
+        return new ExecutionException(error);
+    }
+
+    /**
+     * Helper method to send an IDLE event to all listeners after a certain
+     * delay. Consecutive exchanges are coalesced: the event is only fired if
+     * no exchange has been started within the delay, and at most one check is
+     * scheduled per channel.
+     */
+    private void setIdle() {
+        if (activeCount.decrementAndGet() > 0)
+            return;
 
-        // change internal state
-        busy = false;
+        // nothing to report if BUSY has not been reported
+        if (reportedState.get() == STATE_IDLE)
+            return;
+
+        idleDeadline = System.nanoTime() + IDLE_DELAY;
+        if (idlePending.compareAndSet(false, true))
+            EventScheduler.INSTANCE.schedule(idleTask, IDLE_DELAY,
+                                             TimeUnit.NANOSECONDS);
     }
 
     /**
-     * Helper method to send a BUSY event to all listeners
+     * Helper method to send a BUSY event to all listeners. No event is
+     * scheduled if no listener receiving BUSY and IDLE events is registered or
+     * if the channel did not become idle since the last BUSY event.
      */
     private void setBusy() {
-        // signal we are busy
-        busy = true;
-
-        // get local copy of reference as reference is cleared in a separate
-        // thread
-        TimerTask busyTask = idleTask;
-
-        // stop timer task or send signal
-        if (busyTask != null)
-            busyTask.cancel();
-        else {
-            busyTask = new TimerTask() {
-                @Override
-                public void run() {
-                    // send notification
-                    fireStateChanged(
-                            new StateChangeEvent(StateChangeEvent.EV_BUSY));
-                }
-            };
+        activeCount.incrementAndGet();
+
+        if (activityListeners.get() == 0)
+            return;
+
+        // send notification via the event thread to guarantee that events are
+        // fired in correct order
+        if (reportedState.compareAndSet(STATE_IDLE, STATE_BUSY))
+            EventScheduler.INSTANCE.execute(busyTask);
+    }
 
-            // send notification via timer to guarantee that events are fired in
-            // correct order
-            timer.schedule(busyTask, 0);
+    /**
+     * Helper method executed by the event thread to fire the IDLE event once
+     * it is due.
+     */
+    private void checkIdle() {
+        idlePending.set(false);
+
+        // a running exchange schedules a new check when it ends
+        if (activeCount.get() > 0)
+            return;
+
+        long remaining = idleDeadline - System.nanoTime();
+        if (remaining > 0) {
+            // another exchange ended meanwhile, wait for its deadline
+            if (idlePending.compareAndSet(false, true))
+                EventScheduler.INSTANCE.schedule(idleTask, remaining,
+                                                 TimeUnit.NANOSECONDS);
+            return;
         }
+
+        if (reportedState.compareAndSet(STATE_BUSY, STATE_IDLE))
+            fireStateChanged(new StateChangeEvent(StateChangeEvent.EV_IDLE));
     }
 
     /**
@@ -330,7 +1005,7 @@ public class ApduChannel {
      * @return true if busy
      */
     public boolean isBusy() {
-        return busy;
+        return activeCount.get() > 0;
     }
 
     /**
@@ -368,6 +1043,7 @@ public class ApduChannel {
         if (channel == null)
             throw new ApduException("No channel specified");
 
+        exchangeLock.acquire(LANE_HIGH);
         try {
             // check if channel is open
             if (!channel.isOpen()) {
@@ -376,26 +1052,43 @@ public class ApduChannel {
                 openDone = true;
             }
 
-            // connect to card
-            ATR atr = new ATR(channel.connect(data));
+            // connect to card, decoded ATRs are cached per ATR
+            ATR cardAtr = ATR.valueOf(channel.connect(data));
+            atr = cardAtr;
 
             // log the ATR
-            logger.info("", atr);
+            logger.info("", cardAtr);
 
             // signal state change
             fireStateChanged(new StateChangeEvent(StateChangeEvent.EV_CONNECT));
-            return atr;
+            return cardAtr;
         } catch (ChannelException ce) {
             throw new ApduException(ce.getMessage(), ce);
+        } finally {
+            exchangeLock.release();
         }
     }
 
     /**
-     * Disconnect from terminal.
+     * Disconnect from terminal. A running exchange is completed first.
      *
      * @throws ApduException if disconnect fails for some reason.
      */
     public void disconnect() throws ApduException {
+        exchangeLock.acquire(LANE_HIGH);
+        try {
+            closeChannel();
+        } finally {
+            exchangeLock.release();
+        }
+    }
+
+    /**
+     * Helper method to disconnect from terminal while the channel is locked.
+     *
+     * @throws ApduException if disconnect fails for some reason.
+     */
+    private void closeChannel() throws ApduException {
         try {
             // do nothing if not open
             if ((channel != null) && channel.isOpen()) {
@@ -413,6 +1106,7 @@ public class ApduChannel {
         } catch (ChannelException ce) {
             throw new ApduException(ce.getMessage(), ce);
         } finally {
+            atr = null;
             fireStateChanged(
                     new StateChangeEvent(StateChangeEvent.EV_DISCONNECT));
         }
@@ -429,20 +1123,124 @@ public class ApduChannel {
         if (channel == null)
             throw new ApduException("No channel specified");
 
+        exchangeLock.acquire(LANE_HIGH);
         try {
-            ATR atr = new ATR(channel.reset(warmReset ? new byte[] { 1 }
-                                                      : new byte[] { 0 }));
-            logger.info("", atr);
+            ATR cardAtr = ATR.valueOf(channel.reset(
+                    warmReset ? new byte[] { 1 } : new byte[] { 0 }));
+            atr = cardAtr;
+            logger.info("", cardAtr);
 
             // signal that we are connected again
             fireStateChanged(new StateChangeEvent(StateChangeEvent.EV_CONNECT));
 
-            return atr;
+            return cardAtr;
         } catch (ChannelException ce) {
             throw new ApduException(ce.getMessage(), ce);
+        } finally {
+            exchangeLock.release();
         }
     }
 
+    /**
+     * Return the ATR of the connected card.
+     *
+     * @return ATR of card or null if not connected.
+     */
+    public ATR getATR() {
+        return atr;
+    }
+
+    /**
+     * Override the maximum data lengths of commands and responses indicated
+     * by the ATR, e.g. for readers which do not support extended length APDUs
+     * although the card does.
+     *
+     * @param maxLc maximum command data length, 0 to use the ATR.
+     * @param maxLe maximum response data length, 0 to use the ATR.
+     * @throws ApduException if a length is out of range.
+     */
+    public void setLengthLimits(int maxLc, int maxLe) throws ApduException {
+        if ((maxLc < 0) || (maxLc > ATR.MAX_EXTENDED_LC) || (maxLe < 0) ||
+            (maxLe > ATR.MAX_EXTENDED_LE))
+            throw new ApduException(String.format(
+                    "Invalid length limits Lc=%d Le=%d", maxLc, maxLe));
+
+        this.maxLc = maxLc;
+        this.maxLe = maxLe;
+    }
+
+    /**
+     * Return the maximum command data length, as set by setLengthLimits() or
+     * indicated by the card capabilities of the ATR. Short APDUs are assumed
+     * if the card is not connected.
+     *
+     * @return maximum command data length.
+     */
+    public int getMaxLc() {
+        ATR current = atr;
+
+        if (maxLc != 0)
+            return maxLc;
+
+        return (current != null) ? current.getMaxLc() : ATR.MAX_SHORT_LC;
+    }
+
+    /**
+     * Return the maximum response data length, as set by setLengthLimits() or
+     * indicated by the card capabilities of the ATR. Short APDUs are assumed
+     * if the card is not connected.
+     *
+     * @return maximum response data length.
+     */
+    public int getMaxLe() {
+        ATR current = atr;
+
+        if (maxLe != 0)
+            return maxLe;
+
+        return (current != null) ? current.getMaxLe() : ATR.MAX_SHORT_LE;
+    }
+
+    /**
+     * Return the selection state of the logical channels of the card.
+     *
+     * @return selection state.
+     */
+    public SelectionState getSelectionState() {
+        return selectionState;
+    }
+
+    /**
+     * Set the sink receiving an asynchronous trace of all transmissions,
+     * including protocol APDUs. The trace is independent of the logger.
+     *
+     * @param sink trace sink or null to stop tracing.
+     */
+    public void setTraceSink(ApduTraceSink sink) {
+        traceSink = sink;
+    }
+
+    /**
+     * Return the sink receiving the trace of all transmissions.
+     *
+     * @return trace sink or null if not tracing.
+     */
+    public ApduTraceSink getTraceSink() {
+        return traceSink;
+    }
+
+    /**
+     * Enable or disable logging of the APDUs by the exchanging thread.
+     * Enabled by default. If disabled, the logger neither formats nor outputs
+     * APDUs, errors are still logged; combine with a trace sink to keep a
+     * record of the exchanges off the exchanging thread.
+     *
+     * @param enable if true, APDUs are logged synchronously.
+     */
+    public void enableSyncLogging(boolean enable) {
+        syncLogging = enable;
+    }
+
     /**
      * Enable or disable automatic handling of GET RESPONSE in T=0 protocol.
      *
@@ -460,15 +1258,23 @@ public class ApduChannel {
      * @param event reference of event on communication channel.
      */
     public void fireStateChanged(StateChangeEvent event) {
+        // logical channels are closed on connect, disconnect and reset
+        if ((event.getEventID() == StateChangeEvent.EV_CONNECT) ||
+            (event.getEventID() == StateChangeEvent.EV_DISCONNECT))
+            selectionState.invalidateAll();
+
+        boolean activity = (event.getEventID() == StateChangeEvent.EV_BUSY) ||
+                           (event.getEventID() == StateChangeEvent.EV_IDLE);
+
         Object[] listeners = statelisteners.toArray();
-        for (Object wr : listeners) {
-            @SuppressWarnings("unchecked")
-            IStateListener sl = ((WeakReference<IStateListener>) wr).get();
+        for (Object listener : listeners) {
+            StateListenerRef wr = (StateListenerRef) listener;
+            IStateListener sl = wr.get();
 
-            if (sl != null)
+            if (sl == null)
+                unregister(wr);
+            else if (!activity || wr.activityEvents)
                 sl.notify(event);
-            else
-                statelisteners.remove(wr);
         }
     }
 
@@ -503,4 +1309,53 @@ public class ApduChannel {
     public boolean isManageChannel(ApduCommand apdu) {
         return (apdu.getINS() == (byte) 0x70);
     }
+
+    /**
+     * Weak registration of a state listener.
+     */
+    private static final class StateListenerRef
+            extends WeakReference<IStateListener> {
+        /** Marker if the listener receives BUSY and IDLE events */
+        private final boolean activityEvents;
+
+        /**
+         * Constructor.
+         *
+         * @param listener       registered listener.
+         * @param activityEvents true if the listener receives BUSY and IDLE
+         *         events.
+         */
+        private StateListenerRef(IStateListener listener,
+                                 boolean activityEvents) {
+            super(listener);
+            this.activityEvents = activityEvents;
+        }
+    }
+
+    /**
+     * Holder of the scheduler shared by all channels to fire BUSY and IDLE
+     * events. The single daemon thread is only started when the first event
+     * is scheduled and keeps the events of a channel in order.
+     */
+    private static final class EventScheduler {
+        /** Shared scheduler */
+        private static final ScheduledExecutorService INSTANCE =
+                createScheduler();
+
+        /**
+         * Helper method to create the scheduler.
+         *
+         * @return scheduler with one daemon thread.
+         */
+        private static ScheduledExecutorService createScheduler() {
+            return new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "hsw-apdu-channel-events");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
 }
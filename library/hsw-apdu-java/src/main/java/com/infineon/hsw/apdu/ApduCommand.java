@@ -5,6 +5,8 @@
 package com.infineon.hsw.apdu;
 
 import com.infineon.hsw.utils.Utils;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -30,6 +32,15 @@ public class ApduCommand {
 
     private boolean forceExtended = false;
 
+    /** Cached length of encoded command or -1 if it has to be computed */
+    private int encodedLength = -1;
+
+    /** Marker if the data array was allocated by this command for reuse */
+    private boolean dataOwned = false;
+
+    /** Shared empty command data */
+    private static final byte[] NO_DATA = new byte[0];
+
     /**
      * Builds an APDU from CLA, INS, P1, P2, optional command data and le byte.
      *
@@ -53,6 +64,22 @@ public class ApduCommand {
         this.data = ApduUtils.toBytes(data);
     }
 
+    /**
+     * Builds a case 1 or case 2 APDU without command data. Used internally for
+     * protocol APDUs like GET RESPONSE.
+     *
+     * @param cla class byte
+     * @param ins instruction byte
+     * @param p1  parameter byte 1
+     * @param p2  parameter byte 2
+     * @param le  expected response data length
+     */
+    /* default */ ApduCommand(int cla, int ins, int p1, int p2, int le) {
+        header = new byte[] { (byte) cla, (byte) ins, (byte) p1, (byte) p2 };
+        this.le = le;
+        this.data = NO_DATA;
+    }
+
     /**
      * Build an APDU command from a byte stream representation.
      *
@@ -351,6 +378,16 @@ public class ApduCommand {
         return header != null ? header.clone() : null;
     }
 
+    /**
+     * Get command header of APDU without copying. The returned array must not
+     * be modified.
+     *
+     * @return internal array containing the command header.
+     */
+    /* default */ byte[] getHeaderBytes() {
+        return header;
+    }
+
     /**
      * Set command data of APDU. The method returns a reference
      * to 'this' to allow simple concatenation of operations.
@@ -362,6 +399,41 @@ public class ApduCommand {
      */
     public ApduCommand setData(byte[] data) throws ApduException {
         this.data = data.clone();
+        dataOwned = false;
+        encodedLength = -1;
+        if (!checkExtendedApdu())
+            forceExtended = false;
+        return this;
+    }
+
+    /**
+     * Set command data of APDU from a part of an array. If the new data has
+     * the same length as the current data and the data array was allocated by
+     * a previous call of this method, the array is overwritten in place. This
+     * allows sending a sequence of commands with one command object without
+     * allocating. The method returns a reference to 'this' to allow simple
+     * concatenation of operations.
+     *
+     * @param data   array containing the new command data.
+     * @param offset offset of command data in array.
+     * @param length length of command data in bytes.
+     * @return reference to 'this' to allow simple concatenation of operations.
+     * @throws ApduException if the range exceeds the array.
+     */
+    public ApduCommand setData(byte[] data, int offset, int length)
+            throws ApduException {
+        if ((offset < 0) || (length < 0) || (length > data.length - offset))
+            throw new ApduException(String.format(
+                    "Invalid data range %d/%d of %d bytes", offset, length,
+                    data.length));
+
+        if (!dataOwned || (this.data.length != length)) {
+            this.data = new byte[length];
+            dataOwned = true;
+        }
+
+        System.arraycopy(data, offset, this.data, 0, length);
+        encodedLength = -1;
         if (!checkExtendedApdu())
             forceExtended = false;
         return this;
@@ -376,6 +448,16 @@ public class ApduCommand {
         return data != null ? data.clone() : null;
     }
 
+    /**
+     * Get command data of APDU without copying. The returned array must not be
+     * modified.
+     *
+     * @return internal array containing the command data.
+     */
+    /* default */ byte[] getDataBytes() {
+        return data;
+    }
+
     /**
      * Set expected length (le). The method returns a reference
      * to 'this' to allow simple concatenation of operations.
@@ -385,6 +467,7 @@ public class ApduCommand {
      */
     public ApduCommand setLe(int expectedLength) {
         le = expectedLength;
+        encodedLength = -1;
         if (!checkExtendedApdu())
             forceExtended = false;
         return this;
@@ -409,12 +492,25 @@ public class ApduCommand {
     }
 
     /**
-     * Returns the length of the APDU command in bytes.
+     * Returns the length of the APDU command in bytes. The length is computed
+     * once and cached until the command data, le or format is changed.
      *
      * @return length of the APDU command including the header, data and
      *         potential le byte.
      */
     public int getLength() {
+        if (encodedLength < 0)
+            encodedLength = computeLength();
+
+        return encodedLength;
+    }
+
+    /**
+     * Helper method to compute the length of the APDU command in bytes.
+     *
+     * @return length of the APDU command.
+     */
+    private int computeLength() {
         int iLength;
         int iLc = data.length;
 
@@ -466,11 +562,32 @@ public class ApduCommand {
      */
     public byte[] toBytes() {
         byte[] abCommand = new byte[getLength()];
-        int iOffset = 4;
+
+        encodeInto(abCommand, 0);
+        return abCommand;
+    }
+
+    /**
+     * Encode the APDU command into a caller provided buffer. No intermediate
+     * arrays are allocated.
+     *
+     * @param buffer array receiving the encoded command.
+     * @param offset offset of the command in the array.
+     * @return length of the encoded command in bytes.
+     * @throws IndexOutOfBoundsException if the command does not fit into the
+     *         array.
+     */
+    public int encodeInto(byte[] buffer, int offset) {
+        int iLength = getLength();
+        int iOffset = offset + 4;
         int iLc = data.length;
 
+        if ((offset < 0) || (offset > buffer.length - iLength))
+            throw new IndexOutOfBoundsException(
+                    "Buffer too small for APDU command");
+
         // set first four header bytes
-        System.arraycopy(header, 0, abCommand, 0, 4);
+        System.arraycopy(header, 0, buffer, offset, 4);
 
         // check if short APDU format
         if ((iLc <= 255) && (le <= 256) && !forceExtended) {
@@ -478,39 +595,90 @@ public class ApduCommand {
 
             if (iLc > 0) {
                 // set Lc byte and copy data
-                abCommand[iOffset] = (byte) iLc;
+                buffer[iOffset] = (byte) iLc;
                 iOffset += 1;
-                System.arraycopy(data, 0, abCommand, iOffset, iLc);
+                System.arraycopy(data, 0, buffer, iOffset, iLc);
                 iOffset += iLc;
             }
 
             if (le > 0) {
                 // set le byte
-                abCommand[iOffset] = (byte) le;
+                buffer[iOffset] = (byte) le;
             }
         } else {
             // extended APDU
-            abCommand[iOffset] = 0;
+            buffer[iOffset] = 0;
             iOffset += 1;
             if (iLc > 0) {
                 // set extended Lc and copy data
-                abCommand[iOffset] = (byte) (iLc >> 8);
+                buffer[iOffset] = (byte) (iLc >> 8);
                 iOffset += 1;
-                abCommand[iOffset] = (byte) iLc;
+                buffer[iOffset] = (byte) iLc;
                 iOffset += 1;
-                System.arraycopy(data, 0, abCommand, iOffset, iLc);
+                System.arraycopy(data, 0, buffer, iOffset, iLc);
                 iOffset += iLc;
             }
 
             if (le > 0) {
                 // set extended le
-                abCommand[iOffset] = (byte) (le >> 8);
+                buffer[iOffset] = (byte) (le >> 8);
                 iOffset += 1;
-                abCommand[iOffset] = (byte) le;
+                buffer[iOffset] = (byte) le;
             }
         }
 
-        return abCommand;
+        return iLength;
+    }
+
+    /**
+     * Encode the APDU command into a caller provided buffer at its current
+     * position. The position is advanced by the length of the command. No
+     * intermediate arrays are allocated, also not for direct buffers.
+     *
+     * @param buffer buffer receiving the encoded command.
+     * @return length of the encoded command in bytes.
+     * @throws BufferOverflowException if the command does not fit into the
+     *         remaining buffer.
+     */
+    public int encodeInto(ByteBuffer buffer) {
+        int iLength = getLength();
+        int iLc = data.length;
+
+        if (buffer.remaining() < iLength)
+            throw new BufferOverflowException();
+
+        if (buffer.hasArray()) {
+            encodeInto(buffer.array(),
+                       buffer.arrayOffset() + buffer.position());
+            buffer.position(buffer.position() + iLength);
+            return iLength;
+        }
+
+        buffer.put(header, 0, 4);
+
+        if ((iLc <= 255) && (le <= 256) && !forceExtended) {
+            // short APDU
+            if (iLc > 0) {
+                buffer.put((byte) iLc);
+                buffer.put(data, 0, iLc);
+            }
+            if (le > 0)
+                buffer.put((byte) le);
+        } else {
+            // extended APDU
+            buffer.put((byte) 0);
+            if (iLc > 0) {
+                buffer.put((byte) (iLc >> 8));
+                buffer.put((byte) iLc);
+                buffer.put(data, 0, iLc);
+            }
+            if (le > 0) {
+                buffer.put((byte) (le >> 8));
+                buffer.put((byte) le);
+            }
+        }
+
+        return iLength;
     }
 
     /**
@@ -528,6 +696,7 @@ public class ApduCommand {
      */
     public void setExtendedFormat(boolean isExtended) {
         // For case-1: Cant allow to force as extended APDU
+        encodedLength = -1;
         if (getCase() == APDU_CASE_1)
             forceExtended = false;
         else {
@@ -571,6 +740,7 @@ public class ApduCommand {
         // build new data array
         this.data = Arrays.copyOf(this.data, iOldLength + iNewLength);
         System.arraycopy(abData, 0, this.data, iOldLength, iNewLength);
+        encodedLength = -1;
 
         return this;
     }
@@ -6,7 +6,14 @@ package com.infineon.hsw.apdu;
 
 import com.infineon.hsw.utils.UtilException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
@@ -22,12 +29,26 @@ public class ApduCommandSet implements IStateListener {
     /** Reference of APDU channel */
     protected ApduChannel apduChannel;
 
-    /** List of registered services */
+    /**
+     * List of registered services, to be modified by registerService() and
+     * unregisterService() only
+     */
     protected final List<IApduService> services = new ArrayList<>();
 
+    /** Stages of registered services */
+    private final Map<IApduService, ServicePipeline.Stage> stages =
+            new IdentityHashMap<>();
+
+    /** Compiled pipelines by service mask, replaced on each change */
+    private volatile Map<Integer, ServicePipeline> pipelines =
+            Collections.emptyMap();
+
     /** Marker if application is currently selected */
     protected boolean selected = false;
 
+    /** Marker if SELECT commands not changing the selection are skipped */
+    private boolean skipRedundantSelect = false;
+
     /**
      * Protected default constructor to allow subclasses to implement their own
      * logic
@@ -57,7 +78,7 @@ public class ApduCommandSet implements IStateListener {
 
         // register for any terminal state changes
         if (channel != null)
-            channel.addStateListener(this);
+            channel.addStateListener(this, false);
 
         // set the AID
         setAID(aid);
@@ -161,6 +182,30 @@ public class ApduCommandSet implements IStateListener {
         selected = isSelected;
     }
 
+    /**
+     * Enable or disable skipping of SELECT commands which would not change the
+     * selection state of the logical channel (see {@link SelectionState}).
+     * Skipping is disabled by default. It should only be enabled if the card
+     * cannot be reset or deselected outside of this library, e.g. by the
+     * reader on field loss or by another client sharing the reader, as the
+     * selection state would not be invalidated then.
+     *
+     * @param skip if true redundant SELECT commands are not sent.
+     */
+    public void setSkipRedundantSelect(boolean skip) {
+        skipRedundantSelect = skip;
+    }
+
+    /**
+     * Check if SELECT commands which would not change the selection state are
+     * skipped.
+     *
+     * @return true if redundant SELECT commands are not sent.
+     */
+    public boolean isSkipRedundantSelect() {
+        return skipRedundantSelect;
+    }
+
     /**
      * Set channel object associated with APDU channel. This method allows to
      * change the terminal which is used to send APDUs without loosing all
@@ -170,7 +215,7 @@ public class ApduCommandSet implements IStateListener {
      */
     public void setChannel(ApduChannel channel) {
         if (channel != null)
-            channel.addStateListener(this);
+            channel.addStateListener(this, false);
 
         // set channel
         apduChannel = channel;
@@ -276,38 +321,100 @@ public class ApduCommandSet implements IStateListener {
      */
     public ApduResponse send(int serviceMask, ApduCommand command)
             throws ApduException {
-        IApduService oService;
-        ApduCommand apduCommand;
-
-        // determine number of registered services
-        int i;
-        int iNoOfServices = services.size();
-
-        apduCommand = command;
-
-        // run through all services in reverse order (last is called first)
-        for (i = iNoOfServices - 1; i >= 0; i--) {
-            oService = services.get(i);
-
-            // check that service is not masked
-            if ((oService.getServiceType() | serviceMask) == serviceMask)
-                apduCommand = oService.processCommand(apduCommand);
+        ServicePipeline pipeline = getPipeline(serviceMask);
+
+        // keep stateful services consistent with the exchange order
+        apduChannel.acquireExchange(ApduChannel.LANE_NORMAL);
+        try {
+            // pre-process command, send the APDU and post-process response
+            return pipeline.send(apduChannel, command);
+        } finally {
+            apduChannel.releaseExchange();
         }
+    }
 
-        // now send the APDU and receive the response
-        ApduResponse apduResponse = apduChannel.send(apduCommand);
+    /**
+     * Send command and receive card response asynchronously. This method
+     * modifies the CLA byte to set the logical channel bits if the object is
+     * assigned to a supplementary logical channel. For the base channel no
+     * modification is performed.
+     *
+     * @param command object containing command.
+     * @return future which is completed with the card response or completed
+     *         exceptionally with an ApduException in case of communication
+     *         problems.
+     */
+    public CompletableFuture<ApduResponse> sendAsync(ApduCommand command) {
+        return sendAsync(IApduService.SVC_ALL, command);
+    }
 
-        // run through all services in normal order
-        for (i = 0; i < iNoOfServices; i++) {
-            oService = services.get(i);
+    /**
+     * Send command and receive card response asynchronously. The command is
+     * queued in the normal lane of the channel. Once the channel is granted,
+     * the command is processed by the registered services, exchanged with
+     * the card and the response is processed, before the channel is handed to
+     * the next exchange. Synchronous services run on the thread which is
+     * granted the channel, which may be the calling thread; the calling
+     * thread is not blocked while the command is exchanged with the card or
+     * while an IAsyncApduService processes the command or response.
+     *
+     * @param serviceMask bit mask of service types to be applied before / after
+     *                    sending command
+     * @param command     object containing command.
+     * @return future which is completed with the card response or completed
+     *         exceptionally with an ApduException in case of communication
+     *         problems or the exception thrown by a service.
+     */
+    public CompletableFuture<ApduResponse> sendAsync(
+            int serviceMask, final ApduCommand command) {
+        final ServicePipeline pipeline = getPipeline(serviceMask);
+
+        // keep stateful services consistent with the exchange order
+        return apduChannel.acquireExchangeAsync(ApduChannel.LANE_NORMAL)
+                .thenCompose(new Function<Void,
+                        CompletableFuture<ApduResponse>>() {
+                    @Override
+                    public CompletableFuture<ApduResponse> apply(Void v) {
+                        // pre-process command, send the APDU and
+                        // post-process response
+                        return pipeline.sendAsync(apduChannel, command);
+                    }
+                })
+                .whenComplete(new BiConsumer<ApduResponse, Throwable>() {
+                    @Override
+                    public void accept(ApduResponse response, Throwable error) {
+                        apduChannel.releaseExchange();
+                    }
+                });
+    }
 
-            // check that service is not masked
-            if ((oService.getServiceType() | serviceMask) == serviceMask)
-                apduResponse = services.get(i).processResponse(apduResponse);
+    /**
+     * Helper method to get the compiled pipeline of the services which are not
+     * masked. The pipeline is compiled on first use of a service mask after
+     * the services have changed.
+     *
+     * @param serviceMask bit mask of service types to be applied.
+     * @return pipeline of services.
+     */
+    private ServicePipeline getPipeline(int serviceMask) {
+        ServicePipeline pipeline = pipelines.get(serviceMask);
+
+        if (pipeline == null) {
+            synchronized (services) {
+                pipeline = pipelines.get(serviceMask);
+                if (pipeline == null) {
+                    Map<Integer, ServicePipeline> compiled =
+                            new HashMap<>(pipelines);
+
+                    pipeline = new ServicePipeline(services, stages,
+                                                   serviceMask);
+                    compiled.put(serviceMask, pipeline);
+                    pipelines = compiled;
+                }
+            }
         }
 
-        // send modified command
-        return apduResponse;
+        return pipeline;
     }
 
     /**
@@ -317,8 +424,59 @@ public class ApduCommandSet implements IStateListener {
      * @return true if service was added, false otherwise.
      */
     public final boolean registerService(IApduService service) {
-        // add service to list
-        return services.add(service);
+        synchronized (services) {
+            // add service to list
+            boolean added = services.add(service);
+
+            pipelines = Collections.emptyMap();
+            return added;
+        }
+    }
+
+    /**
+     * Remove a service from the channel.
+     *
+     * @param service service to be removed.
+     * @return true if service was removed, false if it was not registered.
+     */
+    public final boolean unregisterService(IApduService service) {
+        synchronized (services) {
+            boolean removed = services.remove(service);
+
+            if (!services.contains(service))
+                stages.remove(service);
+
+            pipelines = Collections.emptyMap();
+            return removed;
+        }
+    }
+
+    /**
+     * Return the command processing times of a registered service.
+     *
+     * @param service registered service.
+     * @return histogram of processing times or null if the service is not
+     *         registered or has not processed a command yet.
+     */
+    public LatencyHistogram getCommandLatency(IApduService service) {
+        synchronized (services) {
+            ServicePipeline.Stage stage = stages.get(service);
+            return (stage == null) ? null : stage.getCommandLatency();
+        }
+    }
+
+    /**
+     * Return the response processing times of a registered service.
+     *
+     * @param service registered service.
+     * @return histogram of processing times or null if the service is not
+     *         registered or has not processed a response yet.
+     */
+    public LatencyHistogram getResponseLatency(IApduService service) {
+        synchronized (services) {
+            ServicePipeline.Stage stage = stages.get(service);
+            return (stage == null) ? null : stage.getResponseLatency();
+        }
     }
 
     /**
@@ -337,11 +495,50 @@ public class ApduCommandSet implements IStateListener {
             throws ApduException {
         // send SELECT by AID
         getLogger().info("Select by AID...");
-        return send(
+        return sendSelect(
                 new ApduCommand(0x00, 0xA4, 0x04, next ? 0x02 : 0x00, null, 256)
                         .appendData(aid));
     }
 
+    /**
+     * Send a SELECT command unless it would not change the selection state of
+     * the logical channel. In that case the response to the last identical
+     * SELECT command is returned without sending the command.
+     *
+     * @param command SELECT command.
+     * @return card response.
+     * @throws ApduException in case of communication problems.
+     */
+    protected ApduResponse sendSelect(ApduCommand command)
+            throws ApduException {
+        if (skipRedundantSelect) {
+            ApduResponse response =
+                    apduChannel.getSelectionState().getSelectResponse(
+                            getLogChannelNumber(), command);
+
+            if (response != null) {
+                // check for select by AID
+                if ((command.getP1() == 0x04) &&
+                    ((command.getP2() & 0xF0) == 0)) {
+                    selected = applicationIdentifier.partialEquals(
+                            command.getDataBytes());
+                }
+                return response;
+            }
+        }
+
+        return send(command);
+    }
+
+    /**
+     * Invalidate the selected file of the logical channel, e.g. after a
+     * command changed access conditions or passwords, so the next SELECT of a
+     * file is sent.
+     */
+    protected void invalidateFileSelection() {
+        apduChannel.getSelectionState().invalidateFile(getLogChannelNumber());
+    }
+
     /**
      * Select application associated with this command handler.
      *
@@ -356,7 +553,9 @@ public class ApduCommandSet implements IStateListener {
      * Notify command handler of new state of communication channel (e.g.
      * channel was disconnected or reset). The change in the state of the
      * communication channel may reset internal states of the command handler
-     * (e.g. secure channels etc.)
+     * (e.g. secure channels etc.) Command sets are not informed of BUSY and
+     * IDLE events unless they register again for them, see
+     * {@link ApduChannel#addStateListener(IStateListener, boolean)}.
      *
      * @param event event that triggers a state change.
      */
@@ -384,7 +583,7 @@ public class ApduCommandSet implements IStateListener {
                 // check for select by AID
                 if ((cmd.getP1() == 0x04) && ((cmd.getP2() & 0xF0) == 0)) {
                     selected = applicationIdentifier.partialEquals(
-                            cmd.getData());
+                            cmd.getDataBytes());
                 }
             }
         } break;
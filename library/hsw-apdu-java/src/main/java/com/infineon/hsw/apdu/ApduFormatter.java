@@ -4,15 +4,20 @@
 
 package com.infineon.hsw.apdu;
 
-import com.infineon.hsw.utils.Utils;
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
 import java.text.MessageFormat;
-import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 import java.util.logging.SimpleFormatter;
 
 /**
  * Formatter class for formatting logged APDU objects (ATR, command, response)
- * into strings.
+ * into strings. Besides the human readable layout the formatter offers
+ * JSON lines (one JSON object per record) and CSV output for machine
+ * ingestion. All output is appended into a reusable buffer, so formatting an
+ * APDU creates no intermediate strings.
  */
 public class ApduFormatter extends SimpleFormatter {
     /** Prepend APDU and ATR with descriptive markers ('--&gt; ' / '&lt;-- ') */
@@ -24,12 +29,22 @@ public class ApduFormatter extends SimpleFormatter {
     /** Extract status word in separate line */
     public static final int OPT_SEPARATE_SW12 = 0x00000004;
 
+    /** Human readable output */
+    public static final int MODE_TEXT = 0;
+
+    /** One JSON object per record */
+    public static final int MODE_JSON_LINES = 1;
+
+    /** One CSV line per record, preceded by a header line */
+    public static final int MODE_CSV = 2;
+
+    /** Header line of CSV output */
+    public static final String CSV_HEADER =
+            "time,type,message,data,sw,exec_time_ns\n";
+
     /** Helper constant for an empty string */
     private static final String EMPTY_STRING = "";
 
-    /** Constant string for a single blank character */
-    private static final String BLANK = " ";
-
     /** Constant string for a new line character */
     private static final String NEW_LINE = "\n";
 
@@ -48,9 +63,8 @@ public class ApduFormatter extends SimpleFormatter {
     /** Constant string for a status word marker prefix */
     private static final String SW_MARKER = " SW: ";
 
-    /** Format string for APDU response status */
-    private static final String
-            STATUS_LINE = "%02X %02X  Data:%5d Bytes  Exec Time: %8.2f ms\n \n";
+    /** Hex digits */
+    private static final char[] HEX_DIGIT = "0123456789ABCDEF".toCharArray();
 
     /** Number of bytes per line in case of byte array parameters */
     private int iBytesPerLine = 16;
@@ -59,6 +73,24 @@ public class ApduFormatter extends SimpleFormatter {
     private int iOptions = OPT_ADD_APDU_MARKER | OPT_SEPARATE_HEADER |
                            OPT_SEPARATE_SW12;
 
+    /** Output mode */
+    private int iMode = MODE_TEXT;
+
+    /** Reusable buffer of format() */
+    private final StringBuilder recordBuffer = new StringBuilder(256);
+
+    /** Reusable buffer receiving encoded APDU commands */
+    private byte[] commandBytes = new byte[64];
+
+    /** Locale of the cached number symbols */
+    private Locale symbolLocale;
+
+    /** Localized zero digit */
+    private char zeroDigit = '0';
+
+    /** Localized decimal separator */
+    private char decimalSeparator = '.';
+
     /**
      * Default constructor.
      */
@@ -138,81 +170,78 @@ public class ApduFormatter extends SimpleFormatter {
         return iBytesPerLine;
     }
 
-    @Override
-    public String format(LogRecord logRecord) {
-        String strMessage = logRecord.getMessage();
-        Object[] aoParams = logRecord.getParameters();
-
-        // check if parameter is a byte array
-        if ((aoParams != null) && (aoParams.length == 1)) {
-            if (aoParams[0] instanceof byte[]) {
-                strMessage = formatByteArray(strMessage, (byte[]) aoParams[0]);
-            } else if (aoParams[0] instanceof ApduCommand) {
-                strMessage = formatApduCommand(strMessage,
-                                               (ApduCommand) aoParams[0]);
-            } else if (aoParams[0] instanceof ApduResponse) {
-                strMessage = formatApduResponse(strMessage,
-                                                (ApduResponse) aoParams[0]);
-            } else if (aoParams[0] instanceof ATR) {
-                strMessage = formatATR(strMessage, (ATR) aoParams[0]);
-            } else {
-                // use standard formatting if various parameters defined
-                strMessage = new MessageFormat(strMessage)
-                                     .format(aoParams, new StringBuffer(), null)
-                                     .toString();
-            }
-        } else if (aoParams != null) {
-            // use standard formatting if various parameters defined
-            strMessage = new MessageFormat(strMessage)
-                                 .format(aoParams, new StringBuffer(), null)
-                                 .toString();
-        }
-
-        if (!strMessage.endsWith(NEW_LINE))
-            strMessage = strMessage + NEW_LINE;
+    /**
+     * Set the output mode. The OPT_xx options and the number of bytes per line
+     * only apply to MODE_TEXT.
+     *
+     * @param mode one of MODE_TEXT, MODE_JSON_LINES or MODE_CSV.
+     * @throws ApduException if the mode is unknown.
+     */
+    public void setOutputMode(int mode) throws ApduException {
+        if ((mode != MODE_TEXT) && (mode != MODE_JSON_LINES) &&
+            (mode != MODE_CSV))
+            throw new ApduException("Illegal output mode " + mode);
 
-        return strMessage;
+        iMode = mode;
     }
 
     /**
-     * Helper method to format the content of an ATR object.
+     * Retrieve the output mode.
      *
-     * @param strMessage optional comment to be printed in a separate line
-     *         before
-     *                   the ATR bytes.
-     * @param atr        ATR object to be formatted.
-     * @return String related to the message and ATR.
+     * @return one of MODE_TEXT, MODE_JSON_LINES or MODE_CSV.
      */
-    private String formatATR(String strMessage, ATR atr) {
-        byte[] atrBytes = atr.toBytes();
-
-        if (strMessage == null)
-            strMessage = EMPTY_STRING;
-
-        // create string builder
-        StringBuilder buffer = new StringBuilder(strMessage.length() +
-                                                 atrBytes.length * 3 +
-                                                 (ATR_MARKER.length() + 1) * 2);
-
-        // append message first
-        buffer.append(strMessage);
+    public int getOutputMode() {
+        return iMode;
+    }
 
-        // append new line if string is not empty or does not end with new line
-        if (!strMessage.isEmpty() && !strMessage.endsWith(NEW_LINE))
-            buffer.append(NEW_LINE);
+    @Override
+    public String getHead(Handler handler) {
+        return (iMode == MODE_CSV) ? CSV_HEADER : EMPTY_STRING;
+    }
 
-        String marker = EMPTY_STRING;
-        if (isOptionEnabled(OPT_ADD_APDU_MARKER))
-            marker = ATR_MARKER;
+    @Override
+    public synchronized String format(LogRecord logRecord) {
+        recordBuffer.setLength(0);
+        format(logRecord, recordBuffer);
+        return recordBuffer.toString();
+    }
 
-        buffer.append(formatByteArray(marker, atr.toBytes()));
-        buffer.append(BLANK).append(NEW_LINE);
+    /**
+     * Format a log record and append it to an Appendable.
+     *
+     * @param logRecord log record to be formatted.
+     * @param out       target of formatted record.
+     * @throws IOException if appending fails.
+     */
+    public synchronized void format(LogRecord logRecord, Appendable out)
+            throws IOException {
+        recordBuffer.setLength(0);
+        format(logRecord, recordBuffer);
+        out.append(recordBuffer);
+    }
 
-        return buffer.toString();
+    /**
+     * Format a log record and append it to a buffer. The appended text always
+     * ends with a new line.
+     *
+     * @param logRecord log record to be formatted.
+     * @param buffer    buffer receiving the formatted record.
+     */
+    public synchronized void format(LogRecord logRecord, StringBuilder buffer) {
+        switch (iMode) {
+        case MODE_JSON_LINES:
+            formatJson(logRecord, buffer);
+            break;
+        case MODE_CSV:
+            formatCsv(logRecord, buffer);
+            break;
+        default:
+            formatText(logRecord, buffer);
+        }
     }
 
     /**
-     * Helper method to format the content of an APDU response.
+     * Format the content of an APDU response.
      *
      * @param strMessage   optional message to be printed in a separate line
      *         before
@@ -222,65 +251,63 @@ public class ApduFormatter extends SimpleFormatter {
      */
     public String formatApduResponse(String strMessage,
                                      ApduResponse apduResponse) {
+        StringBuilder buffer = new StringBuilder(
+                64 + apduResponse.getDataLength() * 3);
+
+        appendApduResponse(buffer, strMessage, apduResponse);
+        return buffer.toString();
+    }
+
+    /**
+     * Append the content of an APDU response in human readable layout.
+     *
+     * @param buffer       buffer receiving the text.
+     * @param strMessage   optional message to be printed in a separate line
+     *         before the actual content of the APDU response.
+     * @param apduResponse APDU response object to be formatted.
+     */
+    public synchronized void appendApduResponse(StringBuilder buffer,
+                                                String strMessage,
+                                                ApduResponse apduResponse) {
         int iLength = apduResponse.getDataLength();
         String marker = isOptionEnabled(OPT_ADD_APDU_MARKER) ? RES_MARKER
                                                              : EMPTY_STRING;
 
-        // force defined message
-        if (strMessage == null)
-            strMessage = EMPTY_STRING;
-
-        // create string builder
-        StringBuilder buffer = new StringBuilder(
-                strMessage.length() + 7 + iLength * 3 +
-                (marker.length() + 1) * (iLength / iBytesPerLine + 1));
-
-        // append message first
-        buffer.append(strMessage);
-
-        // append new line if string is not empty or does not end with new line
-        if (!strMessage.isEmpty() && !strMessage.endsWith(NEW_LINE))
-            buffer.append(NEW_LINE);
+        appendMessage(buffer, strMessage);
 
         // check if special formatting
         if (isOptionEnabled(OPT_SEPARATE_SW12)) {
             // check if response data available
             if (iLength > 0)
-                buffer.append(formatByteArray(marker, apduResponse.getData()));
+                appendByteArray(buffer, marker, apduResponse.getBytes(), 0,
+                                iLength);
 
             // check if special tags shall be added
             if (isOptionEnabled(OPT_ADD_APDU_MARKER))
                 buffer.append(SW_MARKER);
 
             // print status word and additional info
-            buffer.append(
-                    String.format(STATUS_LINE,
-                                  (byte) (apduResponse.getSW() >> 8),
-                                  (byte) apduResponse.getSW(),
-                            iLength,
-                                  Float.valueOf(
-                                          "" + apduResponse.getExecutionTime() /
-                                                       1000000.0)));
+            appendStatusLine(buffer, apduResponse.getSW(), iLength,
+                             apduResponse.getExecutionTime());
         } else {
             // append complete response
-            buffer.append(formatByteArray(marker, apduResponse.toBytes()));
+            appendByteArray(buffer, marker, apduResponse.getBytes(), 0,
+                            iLength + 2);
         }
-
-        return buffer.toString();
     }
 
     /**
-     * Helper method to format an APDU command.
+     * Append an APDU command in human readable layout.
      *
+     * @param buffer      buffer receiving the text.
      * @param strMessage  optional message printed in a separate line before the
      *                    APDU data
      * @param apduCommand APDU command object to be formatted.
-     * @return String related to message and APDU command.
      */
-    private String formatApduCommand(String strMessage,
-                                     ApduCommand apduCommand) {
-        byte[] apduBytes = apduCommand.toBytes();
-        int iLength = apduBytes.length;
+    public synchronized void appendApduCommand(StringBuilder buffer,
+                                               String strMessage,
+                                               ApduCommand apduCommand) {
+        int iLength = encodeCommand(apduCommand);
         String marker1 = EMPTY_STRING;
         String marker2 = EMPTY_STRING;
 
@@ -290,86 +317,495 @@ public class ApduFormatter extends SimpleFormatter {
             marker2 = NUL_MARKER;
         }
 
-        // force defined message
-        if (strMessage == null)
-            strMessage = EMPTY_STRING;
+        appendMessage(buffer, strMessage);
 
-        // create string builder
-        StringBuilder buffer = new StringBuilder(
-                strMessage.length() + 1 + iLength * 3 +
-                (marker1.length() + 1) * (iLength / iBytesPerLine + 1));
-
-        // append message first
-        buffer.append(strMessage);
-
-        // append new line if string is not empty or does not end with new line
-        if (!strMessage.isEmpty() && !strMessage.endsWith(NEW_LINE))
-            buffer.append(NEW_LINE);
-
-        if ((apduBytes.length <= 5) || !isOptionEnabled(OPT_SEPARATE_HEADER)) {
+        if ((iLength <= 5) || !isOptionEnabled(OPT_SEPARATE_HEADER)) {
             // append command header or complete APDU
-            buffer.append(formatByteArray(marker1, apduBytes));
+            appendByteArray(buffer, marker1, commandBytes, 0, iLength);
         } else {
             // append command header
-            buffer.append(
-                    formatByteArray(marker1, Arrays.copyOf(apduBytes, 5)));
+            appendByteArray(buffer, marker1, commandBytes, 0, 5);
             // append command data
-            buffer.append(
-                    formatByteArray(marker2,
-                                    Arrays.copyOfRange(apduBytes, 5,
-                                                       apduBytes.length)));
+            appendByteArray(buffer, marker2, commandBytes, 5, iLength - 5);
         }
+    }
 
-        return buffer.toString();
+    /**
+     * Helper method to format a log record in human readable layout.
+     *
+     * @param logRecord log record to be formatted.
+     * @param buffer    buffer receiving the text.
+     */
+    private void formatText(LogRecord logRecord, StringBuilder buffer) {
+        String strMessage = logRecord.getMessage();
+        Object[] aoParams = logRecord.getParameters();
+        int iStart = buffer.length();
+
+        // check if parameter is a byte array
+        if ((aoParams != null) && (aoParams.length == 1) &&
+            (aoParams[0] instanceof byte[])) {
+            byte[] data = (byte[]) aoParams[0];
+            appendByteArray(buffer, String.valueOf(strMessage), data, 0,
+                            data.length);
+        } else if ((aoParams != null) && (aoParams.length == 1) &&
+                   (aoParams[0] instanceof ApduCommand)) {
+            appendApduCommand(buffer, strMessage, (ApduCommand) aoParams[0]);
+        } else if ((aoParams != null) && (aoParams.length == 1) &&
+                   (aoParams[0] instanceof ApduResponse)) {
+            appendApduResponse(buffer, strMessage, (ApduResponse) aoParams[0]);
+        } else if ((aoParams != null) && (aoParams.length == 1) &&
+                   (aoParams[0] instanceof ATR)) {
+            appendATR(buffer, strMessage, (ATR) aoParams[0]);
+        } else {
+            buffer.append(formatMessage(strMessage, aoParams));
+        }
+
+        if ((buffer.length() == iStart) ||
+            (buffer.charAt(buffer.length() - 1) != '\n'))
+            buffer.append('\n');
     }
 
     /**
-     * Helper method to format byte array data.
+     * Helper method to format a log record as JSON object in one line.
      *
-     * @param prefix prefix string which will be placed in front of the hex
-     *         data.
-     *               If the hex data is formatted in more than one line, the
-     *               following lines will
-     *               have a prefix of blanks of the same length as the original
-     *               prefix.
-     * @param data   byte array data to be formatted as hex string.
-     * @return String related to the byte array data.
-     */
-    private String formatByteArray(String prefix, byte[] data) {
-        int iOffset = 0, iLength = data.length;
-
-        if (iLength <= iBytesPerLine) {
-            // output single line
-            prefix = prefix + Utils.toHexString(data, iOffset, iLength, BLANK) +
-                     "\n";
+     * @param logRecord log record to be formatted.
+     * @param buffer    buffer receiving the text.
+     */
+    private void formatJson(LogRecord logRecord, StringBuilder buffer) {
+        Object param = getSingleParameter(logRecord);
+
+        buffer.append("{\"time\":").append(logRecord.getMillis());
+        buffer.append(",\"level\":\"")
+                .append(logRecord.getLevel().getName())
+                .append('"');
+        buffer.append(",\"type\":\"").append(getType(param)).append('"');
+
+        String strMessage = (param != null)
+                                    ? logRecord.getMessage()
+                                    : formatMessage(logRecord.getMessage(),
+                                                    logRecord.getParameters());
+        if ((strMessage != null) && !strMessage.isEmpty()) {
+            buffer.append(",\"message\":\"");
+            appendEscaped(buffer, strMessage, '"');
+            buffer.append('"');
+        }
+
+        if (param instanceof ApduResponse) {
+            ApduResponse apduResponse = (ApduResponse) param;
+            buffer.append(",\"data\":\"");
+            appendHex(buffer, apduResponse.getBytes(), 0,
+                      apduResponse.getDataLength(), false);
+            buffer.append("\",\"sw\":\"");
+            appendHex4(buffer, apduResponse.getSW());
+            buffer.append("\",\"exec_time_ns\":")
+                    .append(apduResponse.getExecutionTime());
+        } else if (param != null) {
+            buffer.append(",\"data\":\"");
+            appendParameterHex(buffer, param);
+            buffer.append('"');
+        }
+
+        buffer.append("}\n");
+    }
+
+    /**
+     * Helper method to format a log record as CSV line. The columns are given
+     * by CSV_HEADER.
+     *
+     * @param logRecord log record to be formatted.
+     * @param buffer    buffer receiving the text.
+     */
+    private void formatCsv(LogRecord logRecord, StringBuilder buffer) {
+        Object param = getSingleParameter(logRecord);
+
+        buffer.append(logRecord.getMillis()).append(',');
+        buffer.append(getType(param)).append(',');
+
+        String strMessage = (param != null)
+                                    ? logRecord.getMessage()
+                                    : formatMessage(logRecord.getMessage(),
+                                                    logRecord.getParameters());
+        if ((strMessage != null) && !strMessage.isEmpty()) {
+            buffer.append('"');
+            appendEscaped(buffer, strMessage, ',');
+            buffer.append('"');
+        }
+        buffer.append(',');
+
+        if (param instanceof ApduResponse) {
+            ApduResponse apduResponse = (ApduResponse) param;
+            appendHex(buffer, apduResponse.getBytes(), 0,
+                      apduResponse.getDataLength(), false);
+            buffer.append(',');
+            appendHex4(buffer, apduResponse.getSW());
+            buffer.append(',').append(apduResponse.getExecutionTime());
+        } else {
+            if (param != null)
+                appendParameterHex(buffer, param);
+            buffer.append(",,");
+        }
+
+        buffer.append('\n');
+    }
+
+    /**
+     * Helper method to get the APDU object or byte array logged by a record.
+     *
+     * @param logRecord log record.
+     * @return single parameter of record if it is an APDU object or byte
+     *         array, otherwise null.
+     */
+    private static Object getSingleParameter(LogRecord logRecord) {
+        Object[] aoParams = logRecord.getParameters();
+
+        if ((aoParams == null) || (aoParams.length != 1))
+            return null;
+
+        Object param = aoParams[0];
+        if ((param instanceof byte[]) || (param instanceof ApduCommand) ||
+            (param instanceof ApduResponse) || (param instanceof ATR))
+            return param;
+
+        return null;
+    }
+
+    /**
+     * Helper method to get the record type for structured output.
+     *
+     * @param param single parameter of record or null.
+     * @return record type.
+     */
+    private static String getType(Object param) {
+        if (param instanceof ApduCommand)
+            return "command";
+        if (param instanceof ApduResponse)
+            return "response";
+        if (param instanceof ATR)
+            return "atr";
+        if (param instanceof byte[])
+            return "bytes";
+
+        return "message";
+    }
+
+    /**
+     * Helper method to append the bytes of a parameter as plain hex string.
+     *
+     * @param buffer buffer receiving the text.
+     * @param param  command, ATR or byte array.
+     */
+    private void appendParameterHex(StringBuilder buffer, Object param) {
+        if (param instanceof ApduCommand) {
+            appendHex(buffer, commandBytes, 0,
+                      encodeCommand((ApduCommand) param), false);
         } else {
-            // first line starts with comment
-            char[] acComment = prefix.toCharArray();
+            byte[] data = (param instanceof ATR) ? ((ATR) param).toBytes()
+                                                 : (byte[]) param;
+            appendHex(buffer, data, 0, data.length, false);
+        }
+    }
 
-            // create string builder
-            StringBuilder buffer = new StringBuilder(
-                    acComment.length + iLength * 3 + (iLength >> 3) + 1);
+    /**
+     * Helper method to format a plain message with optional parameters.
+     *
+     * @param strMessage message or message pattern.
+     * @param aoParams   parameters or null.
+     * @return formatted message.
+     */
+    private static String formatMessage(String strMessage, Object[] aoParams) {
+        if (aoParams == null)
+            return strMessage;
+
+        // use standard formatting if various parameters defined
+        return new MessageFormat(strMessage)
+                .format(aoParams, new StringBuffer(), null)
+                .toString();
+    }
 
-            do {
-                // determine length for this round
-                int iTempLen = (Math.min(iLength, iBytesPerLine));
+    /**
+     * Helper method to append the content of an ATR object.
+     *
+     * @param buffer     buffer receiving the text.
+     * @param strMessage optional comment to be printed in a separate line
+     *         before the ATR bytes.
+     * @param atr        ATR object to be formatted.
+     */
+    private void appendATR(StringBuilder buffer, String strMessage, ATR atr) {
+        byte[] atrBytes = atr.toBytes();
 
-                // output command and data
-                buffer.append(acComment);
-                buffer.append(
-                        Utils.toHexString(data, iOffset, iTempLen, BLANK));
-                buffer.append('\n');
+        appendMessage(buffer, strMessage);
 
-                // next lines start with blanks
-                Arrays.fill(acComment, ' ');
+        String marker = EMPTY_STRING;
+        if (isOptionEnabled(OPT_ADD_APDU_MARKER))
+            marker = ATR_MARKER;
 
-                // decrease length and increase offset
-                iLength -= iTempLen;
-                iOffset += iTempLen;
-            } while (iLength > 0);
+        appendByteArray(buffer, marker, atrBytes, 0, atrBytes.length);
+        buffer.append(' ').append('\n');
+    }
+
+    /**
+     * Helper method to append the optional message in front of an APDU
+     * object. A non-empty message is terminated by a new line.
+     *
+     * @param buffer     buffer receiving the text.
+     * @param strMessage message or null.
+     */
+    private static void appendMessage(StringBuilder buffer, String strMessage) {
+        if ((strMessage == null) || strMessage.isEmpty())
+            return;
+
+        // append new line if message does not end with new line
+        buffer.append(strMessage);
+        if (!strMessage.endsWith(NEW_LINE))
+            buffer.append('\n');
+    }
+
+    /**
+     * Helper method to append a part of a byte array as hex data.
+     *
+     * @param buffer buffer receiving the text.
+     * @param prefix prefix string which will be placed in front of the hex
+     *         data. If the hex data is formatted in more than one line, the
+     *         following lines will have a prefix of blanks of the same length
+     *         as the original prefix.
+     * @param data   byte array containing the data to be formatted.
+     * @param offset offset of the data in the array.
+     * @param length length of the data.
+     */
+    private void appendByteArray(StringBuilder buffer, String prefix,
+                                 byte[] data, int offset, int length) {
+        int iOffset = offset, iLength = length;
+
+        // first line starts with prefix
+        buffer.append(prefix);
+
+        do {
+            // determine length for this round
+            int iTempLen = (Math.min(iLength, iBytesPerLine));
+
+            // output data
+            appendHex(buffer, data, iOffset, iTempLen, true);
+            buffer.append('\n');
+
+            // decrease length and increase offset
+            iLength -= iTempLen;
+            iOffset += iTempLen;
+
+            // next lines start with blanks
+            if (iLength > 0) {
+                for (int i = 0; i < prefix.length(); i++) {
+                    buffer.append(' ');
+                }
+            }
+        } while (iLength > 0);
+    }
+
+    /**
+     * Helper method to append the status line of a response. The line is
+     * formatted like "%02X %02X  Data:%5d Bytes  Exec Time: %8.2f ms\n \n"
+     * with the execution time converted to a float and numbers localized
+     * according to the default format locale.
+     *
+     * @param buffer    buffer receiving the text.
+     * @param sw        status word.
+     * @param iLength   length of response data.
+     * @param execTime  execution time in nanoseconds.
+     */
+    private void appendStatusLine(StringBuilder buffer, int sw, int iLength,
+                                  long execTime) {
+        updateSymbols();
+
+        appendHex(buffer, sw >> 8);
+        buffer.append(' ');
+        appendHex(buffer, sw);
+        buffer.append("  Data:");
+        appendNumber(buffer, iLength, 5);
+        buffer.append(" Bytes  Exec Time: ");
+        appendMilliseconds(buffer, execTime);
+        buffer.append(" ms\n \n");
+    }
+
+    /**
+     * Helper method to append an execution time in milliseconds with two
+     * decimals and a width of 8 characters. The value is rounded to a float
+     * first, then half up to two decimals, which gives the same result as
+     * String.format("%8.2f", Float.valueOf("" + execTime / 1000000.0)).
+     *
+     * @param buffer   buffer receiving the text.
+     * @param execTime execution time in nanoseconds.
+     */
+    private void appendMilliseconds(StringBuilder buffer, long execTime) {
+        double milliseconds = execTime / 1000000.0;
+        float value = (float) milliseconds;
+
+        // the string conversion only matters for values between two floats
+        if ((milliseconds != value) &&
+            ((milliseconds == ((double) value + Math.nextUp(value)) / 2) ||
+             (milliseconds == ((double) value + Math.nextDown(value)) / 2)))
+            value = Float.parseFloat(Double.toString(milliseconds));
+
+        // exact, a float times 100 fits into the mantissa of a double
+        double hundredths = (double) value * 100;
+        if (Double.isNaN(value) || (Math.abs(hundredths) >= 1e15)) {
+            buffer.append(String.format("%8.2f", value));
+            return;
+        }
 
-            prefix = buffer.toString();
+        long rounded = (long) Math.floor(Math.abs(hundredths) + 0.5);
+        boolean negative = (hundredths < 0) && (rounded != 0);
+        int iStart = buffer.length();
+
+        if (negative)
+            buffer.append('-');
+        appendDigits(buffer, rounded / 100);
+        buffer.append(decimalSeparator);
+        buffer.append((char) (zeroDigit + (int) (rounded % 100) / 10));
+        buffer.append((char) (zeroDigit + (int) (rounded % 10)));
+
+        // pad to width 8
+        while (buffer.length() - iStart < 8) {
+            buffer.insert(iStart, ' ');
+        }
+    }
+
+    /**
+     * Helper method to append a non-negative number right aligned.
+     *
+     * @param buffer buffer receiving the text.
+     * @param value  number to be appended.
+     * @param width  minimum width.
+     */
+    private void appendNumber(StringBuilder buffer, int value, int width) {
+        int iStart = buffer.length();
+
+        if (value < 0)
+            buffer.append('-');
+        appendDigits(buffer, Math.abs((long) value));
+
+        while (buffer.length() - iStart < width) {
+            buffer.insert(iStart, ' ');
+        }
+    }
+
+    /**
+     * Helper method to append the localized decimal digits of a number.
+     *
+     * @param buffer buffer receiving the text.
+     * @param value  non-negative number.
+     */
+    private void appendDigits(StringBuilder buffer, long value) {
+        int iStart = buffer.length();
+
+        do {
+            buffer.insert(iStart, (char) (zeroDigit + (int) (value % 10)));
+            value /= 10;
+        } while (value != 0);
+    }
+
+    /**
+     * Helper method to refresh the cached number symbols if the default
+     * format locale has changed.
+     */
+    private void updateSymbols() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+
+        if (!locale.equals(symbolLocale)) {
+            DecimalFormatSymbols symbols =
+                    DecimalFormatSymbols.getInstance(locale);
+            zeroDigit = symbols.getZeroDigit();
+            decimalSeparator = symbols.getDecimalSeparator();
+            symbolLocale = locale;
+        }
+    }
+
+    /**
+     * Helper method to encode a command into the reusable command buffer.
+     *
+     * @param apduCommand APDU command.
+     * @return length of encoded command.
+     */
+    private int encodeCommand(ApduCommand apduCommand) {
+        int iLength = apduCommand.getLength();
+
+        if (commandBytes.length < iLength)
+            commandBytes = new byte[Math.max(iLength, commandBytes.length * 2)];
+
+        apduCommand.encodeInto(commandBytes, 0);
+        return iLength;
+    }
+
+    /**
+     * Helper method to append bytes as hex string.
+     *
+     * @param buffer    buffer receiving the text.
+     * @param data      byte array containing the data.
+     * @param offset    offset of the data in the array.
+     * @param length    length of the data.
+     * @param separated if true, the bytes are separated by blanks.
+     */
+    private static void appendHex(StringBuilder buffer, byte[] data,
+                                  int offset, int length, boolean separated) {
+        for (int i = 0; i < length; i++) {
+            if (separated && (i > 0))
+                buffer.append(' ');
+            appendHex(buffer, data[offset + i]);
+        }
+    }
+
+    /**
+     * Helper method to append one byte as two hex digits.
+     *
+     * @param buffer buffer receiving the text.
+     * @param value  byte value in the lower 8 bits.
+     */
+    private static void appendHex(StringBuilder buffer, int value) {
+        buffer.append(HEX_DIGIT[(value >> 4) & 0xF])
+                .append(HEX_DIGIT[value & 0xF]);
+    }
+
+    /**
+     * Helper method to append a status word as four hex digits.
+     *
+     * @param buffer buffer receiving the text.
+     * @param sw     status word.
+     */
+    private static void appendHex4(StringBuilder buffer, int sw) {
+        appendHex(buffer, sw >> 8);
+        appendHex(buffer, sw);
+    }
+
+    /**
+     * Helper method to append a string for JSON or CSV output. For JSON
+     * (quote '"') control characters, quotes and backslashes are escaped, for
+     * CSV (separator ',') quotes are doubled and line breaks replaced by
+     * blanks, the caller encloses the text in quotes.
+     *
+     * @param buffer buffer receiving the text.
+     * @param text   text to be appended.
+     * @param mode   '"' for JSON or ',' for CSV.
+     */
+    private static void appendEscaped(StringBuilder buffer, String text,
+                                      char mode) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (mode == ',') {
+                if (c == '"')
+                    buffer.append("\"\"");
+                else if ((c == '\n') || (c == '\r'))
+                    buffer.append(' ');
+                else
+                    buffer.append(c);
+            } else if ((c == '"') || (c == '\\')) {
+                buffer.append('\\').append(c);
+            } else if (c == '\n') {
+                buffer.append("\\n");
+            } else if (c < 0x20) {
+                buffer.append("\\u00");
+                appendHex(buffer, c);
+            } else {
+                buffer.append(c);
+            }
         }
-        return prefix;
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@
 package com.infineon.hsw.apdu;
 
 import com.infineon.hsw.utils.Utils;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -29,9 +30,21 @@ public class ApduResponse {
     /** Status word indicating condition of use not satisfied */
     public static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
 
-    /** byte array containing response data and status word */
+    /**
+     * Growable buffer containing response data and status word. Only the first
+     * iLength bytes are valid.
+     */
     private byte[] abResponse;
 
+    /** Length of response data and status word in buffer */
+    private int iLength;
+
+    /**
+     * Marker if the buffer is shared with another response or with a view and
+     * has to be copied before it is modified
+     */
+    private boolean shared;
+
     /** Command execution time */
     private long lExecTime;
 
@@ -48,15 +61,43 @@ public class ApduResponse {
         }
 
         abResponse = response.clone();
+        iLength = abResponse.length;
         lExecTime = execTime;
 
         // check if valid response
-        if (abResponse.length < 2) {
+        if (iLength < 2) {
             // build dummy response
             abResponse = new byte[2];
+            iLength = 2;
         }
     }
 
+    /**
+     * Build an empty response with status word 0000 which is going to be
+     * filled by appendResponse().
+     *
+     * @param capacity initial capacity of the response buffer in bytes.
+     */
+    /* default */ ApduResponse(int capacity) {
+        abResponse = new byte[Math.max(2, capacity)];
+        iLength = 2;
+    }
+
+    /**
+     * Build a response sharing the content of another response, e.g. to wrap
+     * a response into a specialized subclass. No data is copied; the content
+     * is copied on the first modification of either response.
+     *
+     * @param response response to be wrapped.
+     */
+    protected ApduResponse(ApduResponse response) {
+        response.shared = true;
+        abResponse = response.abResponse;
+        iLength = response.iLength;
+        shared = true;
+        lExecTime = response.lExecTime;
+    }
+
     /**
      * Build a response from a byte data stream.
      *
@@ -89,7 +130,12 @@ public class ApduResponse {
      */
     public ApduResponse appendResponse(ApduResponse response, long execTime)
             throws ApduException {
-        return appendResponse(ApduUtils.toBytes(response), execTime);
+        if (response == null)
+            throw new ApduException("No response");
+
+        lExecTime += execTime;
+        append(response.abResponse, 0, response.iLength);
+        return this;
     }
 
     /**
@@ -112,9 +158,26 @@ public class ApduResponse {
      */
     public ApduResponse appendResponse(byte[] response, long execTime)
             throws ApduException {
-        // build byte array from new response and determine byte length
-        byte[] newResponse = response;
-        int length = newResponse.length;
+        // add execution time
+        lExecTime += execTime;
+        append(response, 0, response.length);
+
+        return this;
+    }
+
+    /**
+     * Append new response to existing response. The new response is taken
+     * from the remaining bytes of the buffer, the position of the buffer is
+     * advanced accordingly. Apart from that, the method behaves like
+     * {@link #appendResponse(byte[], long)}.
+     *
+     * @param response buffer containing the new response to be appended.
+     * @param execTime execution time in nanoseconds for the new response
+     *         fragment
+     * @return reference to 'this' to allow simple concatenation of operations.
+     */
+    public ApduResponse appendResponse(ByteBuffer response, long execTime) {
+        int length = response.remaining();
 
         // add execution time
         lExecTime += execTime;
@@ -122,15 +185,57 @@ public class ApduResponse {
         if (length >= 2) {
             // append response data and overwrite status word of existing
             // response
-            abResponse = Arrays.copyOf(abResponse,
-                                       abResponse.length + length - 2);
-            System.arraycopy(newResponse, 0, abResponse,
-                             abResponse.length - length, length);
+            int iOffset = reserve(length);
+            response.get(abResponse, iOffset, length);
+        } else {
+            response.position(response.limit());
         }
 
         return this;
     }
 
+    /**
+     * Helper method to append a response fragment. The status word of the
+     * existing response is overwritten. Fragments shorter than a status word
+     * are ignored.
+     *
+     * @param response array containing the response fragment.
+     * @param offset   offset of the fragment in the array.
+     * @param length   length of the fragment.
+     */
+    private void append(byte[] response, int offset, int length) {
+        if (length >= 2) {
+            int iOffset = reserve(length);
+            System.arraycopy(response, offset, abResponse, iOffset, length);
+        }
+    }
+
+    /**
+     * Helper method to make room for a response fragment replacing the
+     * current status word. The buffer grows by at least half of its size, so
+     * appending n fragments takes amortized linear time. A shared buffer is
+     * copied first.
+     *
+     * @param length length of the fragment including its status word.
+     * @return offset at which the fragment has to be stored.
+     */
+    private int reserve(int length) {
+        int iOffset = iLength - 2;
+        int iNewLength = iOffset + length;
+        int iCapacity = abResponse.length;
+
+        if (iNewLength > iCapacity)
+            iCapacity = Math.max(iNewLength, iCapacity + (iCapacity >> 1));
+
+        if (shared || (iCapacity != abResponse.length)) {
+            abResponse = Arrays.copyOf(abResponse, iCapacity);
+            shared = false;
+        }
+
+        iLength = iNewLength;
+        return iOffset;
+    }
+
     /**
      * Check if status word is SW_NO_ERROR (9000).
      *
@@ -181,10 +286,10 @@ public class ApduResponse {
      *                       value.
      */
     public ApduResponse checkDataLength(int length) throws ApduException {
-        if (length != abResponse.length - 2) {
+        if (length != iLength - 2) {
             throw new ApduException(
                     String.format("Unexpected response data length %d",
-                                  abResponse.length - 2));
+                                  iLength - 2));
         }
 
         return this;
@@ -196,7 +301,7 @@ public class ApduResponse {
      * @return status word as integer (always positive value).
      */
     public int getSW() {
-        return ApduUtils.getShort(abResponse, abResponse.length - 2);
+        return ApduUtils.getShort(abResponse, iLength - 2);
     }
 
     /**
@@ -205,7 +310,44 @@ public class ApduResponse {
      * @return array containing the response data.
      */
     public byte[] getData() {
-        return Arrays.copyOf(abResponse, abResponse.length - 2);
+        return Arrays.copyOf(abResponse, iLength - 2);
+    }
+
+    /**
+     * Get a read-only view of the response data. No data is copied.
+     *
+     * @return buffer containing the response data.
+     */
+    public ByteBuffer getDataBuffer() {
+        shared = true;
+        return ByteBuffer.wrap(abResponse, 0, iLength - 2)
+                .slice()
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * Get a read-only view of the status word. No data is copied.
+     *
+     * @return buffer containing the two bytes of the status word.
+     */
+    public ByteBuffer getSWBuffer() {
+        shared = true;
+        return ByteBuffer.wrap(abResponse, iLength - 2, 2)
+                .slice()
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * Get a read-only view of the response data and status word. No data is
+     * copied.
+     *
+     * @return buffer containing response data and status word.
+     */
+    public ByteBuffer toByteBuffer() {
+        shared = true;
+        return ByteBuffer.wrap(abResponse, 0, iLength)
+                .slice()
+                .asReadOnlyBuffer();
     }
 
     /**
@@ -214,7 +356,7 @@ public class ApduResponse {
      * @return length of response data.
      */
     public int getDataLength() {
-        return abResponse.length - 2;
+        return iLength - 2;
     }
 
     /**
@@ -223,12 +365,22 @@ public class ApduResponse {
      * @return byte array containing response and status word.
      */
     public byte[] toBytes() {
-        return abResponse.clone();
+        return Arrays.copyOf(abResponse, iLength);
+    }
+
+    /**
+     * Get response data and status word without copying. The returned array
+     * must not be modified and may be longer than the response.
+     *
+     * @return internal buffer, valid up to getDataLength() + 2 bytes.
+     */
+    /* default */ byte[] getBytes() {
+        return abResponse;
     }
 
     @Override
     public String toString() {
-        return Utils.toHexString(abResponse);
+        return Utils.toHexString(abResponse, 0, iLength, " ");
     }
 
     /**
@@ -0,0 +1,530 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import com.infineon.hsw.utils.Utils;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fixed sequence of APDU commands with expected responses. The commands are
+ * encoded once into a single buffer when they are added, so executing the
+ * script only transmits them: no service processing, no logging of the
+ * individual exchanges and no response wrapping takes place. The script is
+ * executed as one transaction on the channel and stops at the first response
+ * not matching its expectation unless configured otherwise.
+ *
+ * <p>
+ * Every step expects a status word, optionally with a mask selecting the bits
+ * to be compared, and optionally response data, again with an optional mask.
+ * Without explicit expectation a step expects status word 9000.
+ *
+ * <p>
+ * The text format contains one step per line, empty lines and lines starting
+ * with '#' are ignored:
+ *
+ * <pre>
+ * command [sw[/swmask] [data[/datamask]]]
+ * </pre>
+ *
+ * All fields are hex strings without blanks, e.g.
+ * <code>00B0000002 9000 E103/FFF0</code>.
+ */
+public class ApduScript {
+    /** Status word expected by default */
+    public static final int DEFAULT_SW = 0x9000;
+
+    /** Magic of the binary format */
+    private static final byte[] MAGIC = { 'A', 'P', 'D', 'S' };
+
+    /** Version of the binary format */
+    private static final int VERSION = 1;
+
+    /** Data length marking a step without data expectation */
+    private static final int NO_DATA = 0xFFFF;
+
+    /** Steps of the script */
+    private final List<Step> steps = new ArrayList<>();
+
+    /** Encoded commands of all steps */
+    private byte[] compiled = new byte[256];
+
+    /** Number of used bytes of compiled buffer */
+    private int compiledLength;
+
+    /** Marker if the script stops at the first mismatch */
+    private boolean abortOnMismatch = true;
+
+    /** Marker if responses are kept in the result */
+    private boolean keepResponses;
+
+    /**
+     * Add a step expecting status word 9000.
+     *
+     * @param command APDU command.
+     * @return this script.
+     */
+    public ApduScript add(ApduCommand command) {
+        return add(command, DEFAULT_SW, 0xFFFF, null, null);
+    }
+
+    /**
+     * Add a step expecting a status word.
+     *
+     * @param command    APDU command.
+     * @param expectedSW expected status word.
+     * @return this script.
+     */
+    public ApduScript add(ApduCommand command, int expectedSW) {
+        return add(command, expectedSW, 0xFFFF, null, null);
+    }
+
+    /**
+     * Add a step expecting a status word under a mask.
+     *
+     * @param command    APDU command.
+     * @param expectedSW expected status word.
+     * @param swMask     bits of status word to be compared.
+     * @return this script.
+     */
+    public ApduScript add(ApduCommand command, int expectedSW, int swMask) {
+        return add(command, expectedSW, swMask, null, null);
+    }
+
+    /**
+     * Add a step expecting a status word and response data, both under a
+     * mask. The response data must have the length of the expected data.
+     *
+     * @param command      APDU command.
+     * @param expectedSW   expected status word.
+     * @param swMask       bits of status word to be compared.
+     * @param expectedData expected response data or null if the data is not
+     *         checked.
+     * @param dataMask     bits of response data to be compared or null to
+     *         compare all bits.
+     * @return this script.
+     */
+    public ApduScript add(ApduCommand command, int expectedSW, int swMask,
+                          byte[] expectedData, byte[] dataMask) {
+        if (command == null)
+            throw new IllegalArgumentException("Command must not be null");
+
+        if ((expectedData != null) && (expectedData.length >= NO_DATA))
+            throw new IllegalArgumentException("Expected data too long");
+
+        if ((dataMask != null) && ((expectedData == null) ||
+                                   (dataMask.length != expectedData.length)))
+            throw new IllegalArgumentException(
+                    "Data mask must match length of expected data");
+
+        int iLength = command.getLength();
+        if (compiledLength + iLength > compiled.length) {
+            compiled = Arrays.copyOf(
+                    compiled,
+                    Math.max(compiledLength + iLength, compiled.length * 2));
+        }
+        command.encodeInto(compiled, compiledLength);
+
+        Step step = new Step();
+        try {
+            // private copy, the caller may modify the command afterwards
+            step.command = new ApduCommand(
+                    Arrays.copyOfRange(compiled, compiledLength,
+                                       compiledLength + iLength));
+        } catch (ApduException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        step.command.setExtendedFormat(command.isExtendedFormat());
+        step.offset = compiledLength;
+        step.length = iLength;
+        step.expectedSW = expectedSW & 0xFFFF;
+        step.swMask = swMask & 0xFFFF;
+        step.expectedData = (expectedData == null) ? null
+                                                   : expectedData.clone();
+        step.dataMask = (dataMask == null) ? null : dataMask.clone();
+
+        compiledLength += iLength;
+        steps.add(step);
+
+        return this;
+    }
+
+    /**
+     * Return the number of steps.
+     *
+     * @return number of steps.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Return the APDU command of a step.
+     *
+     * @param index index of step.
+     * @return copy of APDU command.
+     */
+    public ApduCommand getCommand(int index) {
+        Step step = steps.get(index);
+
+        try {
+            return new ApduCommand(Arrays.copyOfRange(
+                    compiled, step.offset, step.offset + step.length));
+        } catch (ApduException e) {
+            // never happens, the command has been parsed before
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Define if the script stops at the first response not matching its
+     * expectation. Enabled by default.
+     *
+     * @param abort if true, execution stops at the first mismatch.
+     */
+    public void setAbortOnMismatch(boolean abort) {
+        abortOnMismatch = abort;
+    }
+
+    /**
+     * Define if the responses are kept in the result. Disabled by default,
+     * the result then only contains the status words.
+     *
+     * @param keep if true, the responses are kept.
+     */
+    public void setKeepResponses(boolean keep) {
+        keepResponses = keep;
+    }
+
+    /**
+     * Execute the script. No other exchange on the channel is interleaved with
+     * the steps of the script.
+     *
+     * @param channel channel to be used.
+     * @return result of execution.
+     * @throws ApduException in case of communication problems.
+     */
+    public ApduScriptResult execute(ApduChannel channel) throws ApduException {
+        return execute(channel, ApduChannel.LANE_NORMAL);
+    }
+
+    /**
+     * Execute the script. No other exchange on the channel is interleaved with
+     * the steps of the script. While the channel is in use, the script waits
+     * in the given priority lane.
+     *
+     * @param channel channel to be used.
+     * @param lane    priority lane, e.g. ApduChannel.LANE_NORMAL.
+     * @return result of execution.
+     * @throws ApduException in case of communication problems.
+     */
+    public ApduScriptResult execute(ApduChannel channel, int lane)
+            throws ApduException {
+        return channel.execute(new IApduTransaction<ApduScriptResult>() {
+            @Override
+            public ApduScriptResult execute(ApduChannel channel)
+                    throws ApduException {
+                return run(channel);
+            }
+        }, lane);
+    }
+
+    /**
+     * Helper method to execute the steps while the channel is locked.
+     *
+     * @param channel channel to be used.
+     * @return result of execution.
+     * @throws ApduException in case of communication problems.
+     */
+    private ApduScriptResult run(ApduChannel channel) throws ApduException {
+        int iCount = steps.size();
+        int[] statusWords = new int[iCount];
+        ApduResponse[] responses = keepResponses ? new ApduResponse[iCount]
+                                                 : null;
+        ByteBuffer buffer = ByteBuffer.wrap(compiled, 0, compiledLength);
+        int iExecuted = 0;
+        int iFirstMismatch = -1;
+        int iMismatches = 0;
+        long lStartTime = System.nanoTime();
+
+        for (int i = 0; i < iCount; i++) {
+            Step step = steps.get(i);
+
+            buffer.limit(step.offset + step.length).position(step.offset);
+            ApduResponse response = channel.sendEncoded(step.command, buffer);
+
+            statusWords[i] = response.getSW();
+            if (responses != null)
+                responses[i] = response;
+            iExecuted++;
+
+            if (!step.matches(response)) {
+                channel.getLogger().info("Script step " + i + " failed: " +
+                                         step.command + " " + response);
+                iMismatches++;
+                if (iFirstMismatch < 0)
+                    iFirstMismatch = i;
+                if (abortOnMismatch)
+                    break;
+            }
+        }
+
+        return new ApduScriptResult(statusWords, responses, iExecuted,
+                                    iFirstMismatch, iMismatches,
+                                    System.nanoTime() - lStartTime);
+    }
+
+    /**
+     * Parse a script in text format.
+     *
+     * @param script script in text format.
+     * @return parsed script.
+     * @throws ApduException if the script is malformed.
+     */
+    public static ApduScript parse(String script) throws ApduException {
+        try {
+            return parse(new StringReader(script));
+        } catch (IOException e) {
+            // never happens for a string
+            throw new ApduException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse a script in text format.
+     *
+     * @param reader reader providing the script in text format.
+     * @return parsed script.
+     * @throws ApduException if the script is malformed.
+     * @throws IOException   if the script cannot be read.
+     */
+    public static ApduScript parse(Reader reader)
+            throws ApduException, IOException {
+        ApduScript script = new ApduScript();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int iLine = 0;
+
+        while ((line = lines.readLine()) != null) {
+            iLine++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("\\s+");
+            if (fields.length > 3)
+                throw new ApduException("Too many fields in line " + iLine);
+
+            try {
+                ApduCommand command = new ApduCommand(fields[0]);
+                int expectedSW = DEFAULT_SW;
+                int swMask = 0xFFFF;
+                byte[] expectedData = null;
+                byte[] dataMask = null;
+
+                if (fields.length > 1) {
+                    String[] sw = fields[1].split("/", 2);
+                    expectedSW = Integer.parseInt(sw[0], 16);
+                    if (sw.length > 1)
+                        swMask = Integer.parseInt(sw[1], 16);
+                }
+                if (fields.length > 2) {
+                    String[] data = fields[2].split("/", 2);
+                    expectedData = ApduUtils.toBytes(data[0]);
+                    if (data.length > 1)
+                        dataMask = ApduUtils.toBytes(data[1]);
+                }
+
+                script.add(command, expectedSW, swMask, expectedData,
+                           dataMask);
+            } catch (ApduException | IllegalArgumentException e) {
+                throw new ApduException("Invalid step in line " + iLine +
+                                                ": " + e.getMessage(),
+                                        e);
+            }
+        }
+
+        return script;
+    }
+
+    /**
+     * Return the script in text format.
+     *
+     * @return script in text format.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+
+            text.append(Utils.toHexString(compiled, step.offset, step.length,
+                                          ""));
+            text.append(String.format(Locale.ROOT, " %04X", step.expectedSW));
+            if ((step.swMask != 0xFFFF) || (step.expectedData != null))
+                text.append(String.format(Locale.ROOT, "/%04X", step.swMask));
+            if (step.expectedData != null) {
+                text.append(' ').append(Utils.toHexString(
+                        step.expectedData, 0, step.expectedData.length, ""));
+                if (step.dataMask != null)
+                    text.append('/').append(Utils.toHexString(
+                            step.dataMask, 0, step.dataMask.length, ""));
+            }
+            text.append('\n');
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Read a script in binary format.
+     *
+     * @param stream stream providing the script in binary format.
+     * @return script.
+     * @throws ApduException if the script is malformed.
+     * @throws IOException   if the script cannot be read.
+     */
+    public static ApduScript read(InputStream stream)
+            throws ApduException, IOException {
+        DataInputStream input = new DataInputStream(stream);
+        ApduScript script = new ApduScript();
+        byte[] magic = new byte[MAGIC.length];
+
+        try {
+            input.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) ||
+                (input.readUnsignedByte() != VERSION))
+                throw new ApduException("Unsupported script format");
+
+            int iCount = input.readInt();
+            for (int i = 0; i < iCount; i++) {
+                byte[] command = new byte[input.readUnsignedShort()];
+                input.readFully(command);
+
+                int expectedSW = input.readUnsignedShort();
+                int swMask = input.readUnsignedShort();
+                int iDataLength = input.readUnsignedShort();
+                byte[] expectedData = null;
+                byte[] dataMask = null;
+
+                if (iDataLength != NO_DATA) {
+                    expectedData = new byte[iDataLength];
+                    dataMask = new byte[iDataLength];
+                    input.readFully(expectedData);
+                    input.readFully(dataMask);
+                }
+
+                script.add(new ApduCommand(command), expectedSW, swMask,
+                           expectedData, dataMask);
+            }
+        } catch (EOFException e) {
+            throw new ApduException("Script truncated", e);
+        }
+
+        return script;
+    }
+
+    /**
+     * Write the script in binary format.
+     *
+     * @param stream stream receiving the script in binary format.
+     * @throws IOException if the script cannot be written.
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream output = new DataOutputStream(stream);
+
+        output.write(MAGIC);
+        output.writeByte(VERSION);
+        output.writeInt(steps.size());
+
+        for (Step step : steps) {
+            output.writeShort(step.length);
+            output.write(compiled, step.offset, step.length);
+            output.writeShort(step.expectedSW);
+            output.writeShort(step.swMask);
+
+            if (step.expectedData == null) {
+                output.writeShort(NO_DATA);
+            } else {
+                output.writeShort(step.expectedData.length);
+                output.write(step.expectedData);
+                if (step.dataMask != null) {
+                    output.write(step.dataMask);
+                } else {
+                    byte[] mask = new byte[step.expectedData.length];
+                    Arrays.fill(mask, (byte) 0xFF);
+                    output.write(mask);
+                }
+            }
+        }
+
+        output.flush();
+    }
+
+    /**
+     * One step of a script.
+     */
+    private static final class Step {
+        /** APDU command, used for protocol handling and events */
+        private ApduCommand command;
+
+        /** Offset of encoded command in compiled buffer */
+        private int offset;
+
+        /** Length of encoded command */
+        private int length;
+
+        /** Expected status word */
+        private int expectedSW;
+
+        /** Bits of status word to be compared */
+        private int swMask;
+
+        /** Expected response data or null */
+        private byte[] expectedData;
+
+        /** Bits of response data to be compared or null for all bits */
+        private byte[] dataMask;
+
+        /**
+         * Check if a response matches the expectation of the step.
+         *
+         * @param response response received from card.
+         * @return true if response matches.
+         */
+        private boolean matches(ApduResponse response) {
+            if (((response.getSW() ^ expectedSW) & swMask) != 0)
+                return false;
+
+            if (expectedData == null)
+                return true;
+
+            ByteBuffer data = response.getDataBuffer();
+            if (data.remaining() != expectedData.length)
+                return false;
+
+            int iOffset = data.position();
+            for (int i = 0; i < expectedData.length; i++) {
+                int iMask = (dataMask == null) ? 0xFF : dataMask[i];
+                if (((data.get(iOffset + i) ^ expectedData[i]) & iMask) != 0)
+                    return false;
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.util.Locale;
+
+/**
+ * Result of an ApduScript execution. The result holds the status word of each
+ * executed step and, if requested by the script, the responses.
+ */
+public final class ApduScriptResult {
+    /** Status words of all steps, zero for steps not executed */
+    private final int[] statusWords;
+
+    /** Responses of all steps or null if not kept */
+    private final ApduResponse[] responses;
+
+    /** Number of executed steps */
+    private final int executedCount;
+
+    /** Index of first step not matching its expectation or -1 */
+    private final int firstMismatch;
+
+    /** Number of steps not matching their expectation */
+    private final int mismatchCount;
+
+    /** Execution time in nanoseconds */
+    private final long executionTime;
+
+    /**
+     * Constructor.
+     *
+     * @param statusWords   status words of all steps.
+     * @param responses     responses of all steps or null.
+     * @param executedCount number of executed steps.
+     * @param firstMismatch index of first mismatching step or -1.
+     * @param mismatchCount number of mismatching steps.
+     * @param executionTime execution time in nanoseconds.
+     */
+    /* default */ ApduScriptResult(int[] statusWords, ApduResponse[] responses,
+                                   int executedCount, int firstMismatch,
+                                   int mismatchCount, long executionTime) {
+        this.statusWords = statusWords;
+        this.responses = responses;
+        this.executedCount = executedCount;
+        this.firstMismatch = firstMismatch;
+        this.mismatchCount = mismatchCount;
+        this.executionTime = executionTime;
+    }
+
+    /**
+     * Check if all steps have been executed and matched their expectation.
+     *
+     * @return true if the script succeeded.
+     */
+    public boolean isSuccess() {
+        return (firstMismatch < 0) && (executedCount == statusWords.length);
+    }
+
+    /**
+     * Return the number of steps of the script.
+     *
+     * @return number of steps.
+     */
+    public int getStepCount() {
+        return statusWords.length;
+    }
+
+    /**
+     * Return the number of executed steps. If the script aborted, the last
+     * executed step is the mismatching one.
+     *
+     * @return number of executed steps.
+     */
+    public int getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     * Return the index of the first step not matching its expectation.
+     *
+     * @return index of step or -1 if all executed steps matched.
+     */
+    public int getFirstMismatch() {
+        return firstMismatch;
+    }
+
+    /**
+     * Return the number of steps not matching their expectation.
+     *
+     * @return number of mismatching steps.
+     */
+    public int getMismatchCount() {
+        return mismatchCount;
+    }
+
+    /**
+     * Return the status word of a step.
+     *
+     * @param index index of step.
+     * @return status word or zero if the step has not been executed.
+     */
+    public int getSW(int index) {
+        return statusWords[index];
+    }
+
+    /**
+     * Return the status words of all steps.
+     *
+     * @return copy of status words, zero for steps not executed.
+     */
+    public int[] getStatusWords() {
+        return statusWords.clone();
+    }
+
+    /**
+     * Return the response of a step.
+     *
+     * @param index index of step.
+     * @return response or null if the step has not been executed or the
+     *         script does not keep responses.
+     */
+    public ApduResponse getResponse(int index) {
+        return (responses == null) ? null : responses[index];
+    }
+
+    /**
+     * Return the execution time of the script.
+     *
+     * @return execution time in nanoseconds.
+     */
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format(
+                Locale.ROOT, "%s: %d/%d steps executed in %.3f ms",
+                isSuccess() ? "OK" : "FAILED", executedCount,
+                statusWords.length, executionTime / 1e6));
+
+        if (firstMismatch >= 0) {
+            text.append(String.format(Locale.ROOT,
+                                      ", step %d returned %04X", firstMismatch,
+                                      statusWords[firstMismatch]));
+        }
+
+        return text.toString();
+    }
+}
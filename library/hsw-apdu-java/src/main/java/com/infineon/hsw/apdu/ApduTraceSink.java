@@ -0,0 +1,513 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import com.infineon.hsw.channel.ChannelTranscript;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Asynchronous trace of the APDUs exchanged by one or more ApduChannels. The
+ * exchanging thread only copies the raw command and response bytes with their
+ * timestamps into a preallocated ring buffer; a background thread drains the
+ * buffer and writes the trace either as binary channel transcript (see
+ * ChannelTranscript, readable by the ReplayChannel) or as text formatted like
+ * the ApduLogger output.
+ *
+ * <p>
+ * If the ring buffer is full, the trace entry is either dropped
+ * (OVERFLOW_DROP) or the exchanging thread waits until the background thread
+ * has made room (OVERFLOW_BLOCK).
+ */
+public class ApduTraceSink {
+    /** Write the trace as binary channel transcript */
+    public static final int FORMAT_BINARY = 0;
+
+    /** Write the trace as text */
+    public static final int FORMAT_TEXT = 1;
+
+    /** Drop trace entries if the ring buffer is full */
+    public static final int OVERFLOW_DROP = 0;
+
+    /** Wait for free space if the ring buffer is full */
+    public static final int OVERFLOW_BLOCK = 1;
+
+    /** Default capacity of the ring buffer in bytes */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /** Length of the entry header: type, lengths, timestamp, duration */
+    private static final int ENTRY_HEADER_LENGTH = 1 + 4 + 4 + 8 + 8;
+
+    /** Format of the trace */
+    private final int format;
+
+    /** Overflow policy */
+    private final int overflowPolicy;
+
+    /** Stream receiving the trace */
+    private final OutputStream out;
+
+    /** Ring buffer */
+    private final byte[] ring;
+
+    /** Start of trace in nanoseconds */
+    private final long startTime;
+
+    /** Background thread writing the trace */
+    private final Thread writer;
+
+    /** Number of bytes ever put into the ring buffer */
+    private long head;
+
+    /** Number of bytes ever taken from the ring buffer */
+    private long tail;
+
+    /** Number of bytes ever written to the stream */
+    private long written;
+
+    /** Number of dropped trace entries */
+    private long droppedCount;
+
+    /** Marker if the sink has been closed */
+    private boolean closed;
+
+    /** Error which stopped the background thread or null */
+    private IOException error;
+
+    /**
+     * Create a sink with a ring buffer of the default capacity, dropping
+     * entries on overflow.
+     *
+     * @param out    stream receiving the trace.
+     * @param format FORMAT_BINARY or FORMAT_TEXT.
+     * @throws IOException if the trace header cannot be written.
+     */
+    public ApduTraceSink(OutputStream out, int format) throws IOException {
+        this(out, format, DEFAULT_CAPACITY, OVERFLOW_DROP);
+    }
+
+    /**
+     * Create a sink. The trace header is written immediately, the trace
+     * entries by a background daemon thread.
+     *
+     * @param out            stream receiving the trace.
+     * @param format         FORMAT_BINARY or FORMAT_TEXT.
+     * @param capacity       capacity of the ring buffer in bytes.
+     * @param overflowPolicy OVERFLOW_DROP or OVERFLOW_BLOCK.
+     * @throws IOException if the trace header cannot be written.
+     */
+    public ApduTraceSink(OutputStream out, int format, int capacity,
+                         int overflowPolicy) throws IOException {
+        if (out == null)
+            throw new IllegalArgumentException("Stream must not be null");
+
+        if ((format != FORMAT_BINARY) && (format != FORMAT_TEXT))
+            throw new IllegalArgumentException("Unknown trace format");
+
+        if ((overflowPolicy != OVERFLOW_DROP) &&
+            (overflowPolicy != OVERFLOW_BLOCK))
+            throw new IllegalArgumentException("Unknown overflow policy");
+
+        if (capacity <= ENTRY_HEADER_LENGTH)
+            throw new IllegalArgumentException("Capacity too small");
+
+        this.out = out;
+        this.format = format;
+        this.overflowPolicy = overflowPolicy;
+        this.ring = new byte[capacity];
+        this.startTime = System.nanoTime();
+
+        if (format == FORMAT_BINARY)
+            ChannelTranscript.writeHeader(out, System.currentTimeMillis());
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "hsw-apdu-trace");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Trace an exchange. The remaining bytes of the buffers are copied, the
+     * buffers themselves are not modified.
+     *
+     * @param command   transmitted command.
+     * @param response  received response or null.
+     * @param timestamp start of exchange, as given by System.nanoTime().
+     * @param duration  duration of exchange in nanoseconds.
+     */
+    public void trace(ByteBuffer command, ByteBuffer response, long timestamp,
+                      long duration) {
+        put(ChannelTranscript.TYPE_TRANSMIT, command, response, timestamp,
+            duration);
+    }
+
+    /**
+     * Trace a failed exchange.
+     *
+     * @param command   transmitted command.
+     * @param message   error message.
+     * @param timestamp start of exchange, as given by System.nanoTime().
+     * @param duration  duration of exchange in nanoseconds.
+     */
+    public void traceError(ByteBuffer command, String message, long timestamp,
+                           long duration) {
+        byte[] abMessage = (message == null)
+                                   ? new byte[0]
+                                   : message.getBytes(StandardCharsets.UTF_8);
+
+        put(ChannelTranscript.TYPE_TRANSMIT | ChannelTranscript.FLAG_ERROR,
+            command, ByteBuffer.wrap(abMessage), timestamp, duration);
+    }
+
+    /**
+     * Return the number of trace entries dropped because the ring buffer was
+     * full or the sink was closed.
+     *
+     * @return number of dropped entries.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Wait until all entries traced so far have been written and flushed.
+     *
+     * @throws IOException if writing the trace failed.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            long position = head;
+            boolean interrupted = false;
+
+            while ((written < position) && (error == null) &&
+                   writer.isAlive()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            if (error != null)
+                throw error;
+        }
+    }
+
+    /**
+     * Close the sink. The pending entries are written, later entries are
+     * dropped. The stream is flushed but not closed.
+     *
+     * @throws IOException if writing the trace failed.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (error != null)
+                throw error;
+        }
+    }
+
+    /**
+     * Helper method to copy an entry into the ring buffer.
+     *
+     * @param type      record type of entry.
+     * @param command   transmitted command.
+     * @param response  received response or null.
+     * @param timestamp start of exchange in nanoseconds.
+     * @param duration  duration of exchange in nanoseconds.
+     */
+    private synchronized void put(int type, ByteBuffer command,
+                                  ByteBuffer response, long timestamp,
+                                  long duration) {
+        int iCommandLength = command.remaining();
+        int iResponseLength = (response == null) ? -1 : response.remaining();
+        int iLength = ENTRY_HEADER_LENGTH + iCommandLength +
+                      Math.max(0, iResponseLength);
+        boolean interrupted = false;
+
+        while (!closed && (error == null) && (iLength <= ring.length) &&
+               (ring.length - (head - tail) < iLength) &&
+               (overflowPolicy == OVERFLOW_BLOCK)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (closed || (error != null) ||
+            (ring.length - (head - tail) < iLength)) {
+            droppedCount++;
+            return;
+        }
+
+        boolean wasEmpty = (head == tail);
+
+        putByte(type);
+        putLong(((long) iCommandLength << 32) |
+                (iResponseLength & 0xFFFFFFFFL));
+        putLong(timestamp - startTime);
+        putLong(duration);
+        putBytes(command);
+        if (response != null)
+            putBytes(response);
+
+        if (wasEmpty)
+            notifyAll();
+    }
+
+    /**
+     * Helper method to put one byte into the ring buffer.
+     *
+     * @param value byte to be put.
+     */
+    private void putByte(int value) {
+        ring[(int) (head++ % ring.length)] = (byte) value;
+    }
+
+    /**
+     * Helper method to put a long value into the ring buffer.
+     *
+     * @param value value to be put.
+     */
+    private void putLong(long value) {
+        for (int i = 56; i >= 0; i -= 8) {
+            putByte((int) (value >>> i));
+        }
+    }
+
+    /**
+     * Helper method to copy the remaining bytes of a buffer into the ring
+     * buffer.
+     *
+     * @param buffer buffer to be copied.
+     */
+    private void putBytes(ByteBuffer buffer) {
+        int iOffset = buffer.position();
+        int iLength = buffer.remaining();
+
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int iSource = buffer.arrayOffset() + iOffset;
+            int iIndex = (int) (head % ring.length);
+            int iFirst = Math.min(iLength, ring.length - iIndex);
+
+            System.arraycopy(array, iSource, ring, iIndex, iFirst);
+            System.arraycopy(array, iSource + iFirst, ring, 0,
+                             iLength - iFirst);
+            head += iLength;
+        } else {
+            for (int i = 0; i < iLength; i++) {
+                putByte(buffer.get(iOffset + i));
+            }
+        }
+    }
+
+    /**
+     * Body of the background thread. Takes all pending bytes out of the ring
+     * buffer at once and writes the contained entries without holding the
+     * lock.
+     */
+    private void drain() {
+        byte[] chunk = new byte[0];
+        Writer text = (format == FORMAT_TEXT)
+                              ? new OutputStreamWriter(out,
+                                                       StandardCharsets.UTF_8)
+                              : null;
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        ApduFormatter formatter = new ApduFormatter();
+        long lastTimestamp = 0;
+
+        while (true) {
+            int iLength;
+            long position;
+
+            synchronized (this) {
+                while ((head == tail) && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only terminated by close
+                    }
+                }
+
+                if (head == tail)
+                    break;
+
+                iLength = (int) (head - tail);
+                if (chunk.length < iLength)
+                    chunk = new byte[ring.length];
+
+                int iIndex = (int) (tail % ring.length);
+                int iFirst = Math.min(iLength, ring.length - iIndex);
+                System.arraycopy(ring, iIndex, chunk, 0, iFirst);
+                System.arraycopy(ring, 0, chunk, iFirst, iLength - iFirst);
+
+                tail = head;
+                position = head;
+                notifyAll();
+            }
+
+            try {
+                int iOffset = 0;
+                while (iOffset < iLength) {
+                    int type = chunk[iOffset] & 0xFF;
+                    long lengths = getLong(chunk, iOffset + 1);
+                    long timestamp = getLong(chunk, iOffset + 9) / 1000;
+                    long duration = getLong(chunk, iOffset + 17);
+                    int iCommandLength = (int) (lengths >>> 32);
+                    int iResponseLength = (int) lengths;
+                    int iCommand = iOffset + ENTRY_HEADER_LENGTH;
+                    int iResponse = iCommand + iCommandLength;
+
+                    if (text != null) {
+                        writeText(text, formatter, type, chunk, iCommand,
+                                  iCommandLength, iResponse, iResponseLength,
+                                  duration);
+                    } else {
+                        record.reset();
+                        record.write((iResponseLength < 0)
+                                             ? type | ChannelTranscript
+                                                              .FLAG_NO_RESPONSE
+                                             : type);
+                        ChannelTranscript.writeVarint(
+                                record, Math.max(0, timestamp - lastTimestamp));
+                        ChannelTranscript.writeVarint(record, duration / 1000);
+                        ChannelTranscript.writeVarint(record, iCommandLength);
+                        record.write(chunk, iCommand, iCommandLength);
+                        ChannelTranscript.writeVarint(
+                                record, Math.max(0, iResponseLength));
+                        record.write(chunk, iResponse,
+                                     Math.max(0, iResponseLength));
+                        record.writeTo(out);
+                        lastTimestamp = Math.max(lastTimestamp, timestamp);
+                    }
+
+                    iOffset = iResponse + Math.max(0, iResponseLength);
+                }
+
+                if (text != null)
+                    text.flush();
+                else
+                    out.flush();
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                written = position;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Helper method to write an entry as text. The text is formatted by an
+     * ApduFormatter like the output of the ApduLogger.
+     *
+     * @param text            writer receiving the text.
+     * @param formatter       formatter to be used.
+     * @param type            record type of entry.
+     * @param data            buffer holding the entry.
+     * @param iCommand        offset of command.
+     * @param iCommandLength  length of command.
+     * @param iResponse       offset of response.
+     * @param iResponseLength length of response or -1 if no response.
+     * @param duration        duration of exchange in nanoseconds.
+     * @throws IOException if writing fails.
+     */
+    private static void writeText(Writer text, ApduFormatter formatter,
+                                  int type, byte[] data, int iCommand,
+                                  int iCommandLength, int iResponse,
+                                  int iResponseLength, long duration)
+            throws IOException {
+        byte[] abCommand = Arrays.copyOfRange(data, iCommand,
+                                              iCommand + iCommandLength);
+        Object command;
+        try {
+            command = new ApduCommand(abCommand);
+        } catch (ApduException e) {
+            command = abCommand;
+        }
+        text.write(formatter.format(record(command)));
+
+        if ((type & ChannelTranscript.FLAG_ERROR) != 0) {
+            text.write("ERR: " + new String(data, iResponse, iResponseLength,
+                                            StandardCharsets.UTF_8) + "\n");
+        } else if (iResponseLength >= 0) {
+            byte[] abResponse = Arrays.copyOfRange(data, iResponse,
+                                                   iResponse + iResponseLength);
+            Object response;
+            try {
+                response = new ApduResponse(abResponse, duration);
+            } catch (ApduException e) {
+                response = abResponse;
+            }
+            text.write(formatter.format(record(response)));
+        }
+    }
+
+    /**
+     * Helper method to build a log record for the formatter.
+     *
+     * @param param parameter of log record.
+     * @return log record.
+     */
+    private static LogRecord record(Object param) {
+        LogRecord logRecord = new LogRecord(Level.INFO, "");
+
+        logRecord.setParameters(new Object[] { param });
+        return logRecord;
+    }
+
+    /**
+     * Helper method to read a long value from a buffer.
+     *
+     * @param data    buffer.
+     * @param iOffset offset of value.
+     * @return value.
+     */
+    private static long getLong(byte[] data, int iOffset) {
+        long value = 0;
+
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[iOffset + i] & 0xFF);
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,214 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lock serializing the exchanges of an ApduChannel. Waiting requests are
+ * granted by lane (lower lane first) and in arrival order within a lane. The
+ * lock is reentrant for the owning thread. It can also be acquired
+ * asynchronously: the returned future is completed when the lock is granted,
+ * the lock is then owned by the asynchronous exchange and can be released by
+ * any thread.
+ */
+final class ExchangeLock {
+    /** Future of a lock granted immediately */
+    private static final CompletableFuture<Void> GRANTED =
+            CompletableFuture.completedFuture(null);
+
+    /** Waiting requests ordered by lane and arrival */
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+
+    /** Marker if the lock is held */
+    private boolean locked;
+
+    /** Owning thread or null if held by an asynchronous exchange */
+    private Thread owner;
+
+    /** Number of nested acquisitions */
+    private int holdCount;
+
+    /** Arrival counter of waiting requests */
+    private long sequence;
+
+    /**
+     * Acquire the lock, waiting until it is granted. Interrupts are deferred
+     * until the lock has been acquired.
+     *
+     * @param lane priority lane, lower lanes are served first.
+     */
+    synchronized void acquire(int lane) {
+        Thread current = Thread.currentThread();
+
+        if (locked && (owner == current)) {
+            holdCount++;
+            return;
+        }
+
+        if (!locked && waiters.isEmpty()) {
+            grant(current);
+            return;
+        }
+
+        Waiter waiter = new Waiter(lane, sequence++, current, null);
+        boolean interrupted = false;
+
+        waiters.add(waiter);
+        while (!waiter.granted) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            current.interrupt();
+    }
+
+    /**
+     * Acquire the lock asynchronously. If the calling thread owns the lock,
+     * the acquisition is nested and granted immediately.
+     *
+     * @param lane priority lane, lower lanes are served first.
+     * @return future completed when the lock is granted.
+     */
+    synchronized CompletableFuture<Void> acquireAsync(int lane) {
+        if (locked && (owner == Thread.currentThread())) {
+            holdCount++;
+            return GRANTED;
+        }
+
+        if (!locked && waiters.isEmpty()) {
+            grant(null);
+            return GRANTED;
+        }
+
+        Waiter waiter = new Waiter(lane, sequence++, null,
+                                   new CompletableFuture<Void>());
+        waiters.add(waiter);
+        return waiter.future;
+    }
+
+    /**
+     * Acquire the lock again for a nested exchange of the current holder,
+     * which may be an asynchronous exchange owned by no thread.
+     *
+     * @throws IllegalStateException if the lock is not held.
+     */
+    synchronized void acquireHeld() {
+        if (!locked)
+            throw new IllegalStateException("Exchange lock not held");
+
+        holdCount++;
+    }
+
+    /**
+     * Release the lock. If the lock is released completely, it is handed to
+     * the next waiting request.
+     */
+    void release() {
+        Waiter next;
+
+        synchronized (this) {
+            if (!locked)
+                throw new IllegalStateException("Exchange lock not held");
+
+            if (--holdCount > 0)
+                return;
+
+            next = waiters.poll();
+            if (next == null) {
+                locked = false;
+                owner = null;
+                return;
+            }
+
+            grant(next.thread);
+            next.granted = true;
+            if (next.thread != null)
+                notifyAll();
+        }
+
+        // complete outside of the monitor as dependent stages run inline
+        if (next.future != null)
+            next.future.complete(null);
+    }
+
+    /**
+     * Check if the calling thread owns the lock.
+     *
+     * @return true if the lock is held by the calling thread.
+     */
+    synchronized boolean isHeldByCurrentThread() {
+        return locked && (owner == Thread.currentThread());
+    }
+
+    /**
+     * Return the number of waiting requests.
+     *
+     * @return number of queued requests.
+     */
+    synchronized int getQueueLength() {
+        return waiters.size();
+    }
+
+    /**
+     * Helper method to hand the lock to a new owner.
+     *
+     * @param thread owning thread or null for an asynchronous exchange.
+     */
+    private void grant(Thread thread) {
+        locked = true;
+        owner = thread;
+        holdCount = 1;
+    }
+
+    /**
+     * Waiting lock request.
+     */
+    private static final class Waiter implements Comparable<Waiter> {
+        /** Priority lane */
+        private final int lane;
+
+        /** Arrival number */
+        private final long sequence;
+
+        /** Waiting thread or null for an asynchronous request */
+        private final Thread thread;
+
+        /** Future of an asynchronous request or null */
+        private final CompletableFuture<Void> future;
+
+        /** Marker if the lock has been granted to a waiting thread */
+        private boolean granted;
+
+        /**
+         * Constructor.
+         *
+         * @param lane     priority lane.
+         * @param sequence arrival number.
+         * @param thread   waiting thread or null.
+         * @param future   future of asynchronous request or null.
+         */
+        private Waiter(int lane, long sequence, Thread thread,
+                       CompletableFuture<Void> future) {
+            this.lane = lane;
+            this.sequence = sequence;
+            this.thread = thread;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            if (lane != other.lane)
+                return (lane < other.lane) ? -1 : 1;
+
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+/**
+ * Service which may answer commands without sending them to the card, e.g.
+ * from a cache. Before the service processes a command, it is asked for a
+ * response. If it returns one, the command is neither processed by this
+ * service and the services called after it nor sent to the card. The response
+ * is then processed only by the services which already processed the command.
+ * Otherwise the response is passed to the service together with the command
+ * of the exchange.
+ */
+public interface IApduResponseSource extends IApduService {
+    /**
+     * Return the response to a command without sending it to the card.
+     *
+     * @param apdu command APDU as processed by the services called before.
+     * @return response APDU or null if the command has to be sent.
+     */
+    ApduResponse getResponse(ApduCommand apdu);
+
+    /**
+     * Process the response to a command which the service did not answer.
+     * The method is called instead of processResponse(ApduResponse) with the
+     * same command object that was passed to getResponse() for this exchange,
+     * so a service can relate the response to its command even if several
+     * exchanges are outstanding, e.g. when commands are sent asynchronously.
+     * A service which is also an IAsyncApduService processes its responses
+     * asynchronously instead.
+     *
+     * @param apdu     command APDU as passed to getResponse().
+     * @param response response APDU as processed by the services called
+     *                 before.
+     * @return processed response APDU.
+     * @throws ApduException in case of error.
+     */
+    ApduResponse processResponse(ApduCommand apdu, ApduResponse response)
+            throws ApduException;
+}
@@ -34,6 +34,9 @@ public interface IApduService {
     /** Bit mask for a secure channel logger */
     int SVC_SEC_CHN_LOGGER = 0x0009;
 
+    /** Bit mask for a response cache service */
+    int SVC_CACHE = 0x0010;
+
     /** Bit mask for a user service level 1 */
     int SVC_USER_1 = 0x0100;
 
@@ -0,0 +1,23 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+/**
+ * Sequence of APDU exchanges executed atomically on an ApduChannel. While the
+ * transaction is executed, no other thread can exchange APDUs on the channel.
+ *
+ * @param <T> type of transaction result.
+ */
+public interface IApduTransaction<T> {
+    /**
+     * Execute the transaction. The commands have to be sent with the
+     * synchronous send methods of the channel or of command sets using it.
+     *
+     * @param channel channel exclusively owned by the transaction.
+     * @return result of transaction.
+     * @throws ApduException in case of communication problems.
+     */
+    T execute(ApduChannel channel) throws ApduException;
+}
@@ -0,0 +1,72 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Service processing APDUs without blocking. When a command is sent with
+ * ApduCommandSet.sendAsync(), the pipeline continues when the future returned
+ * by the service completes, so a service waiting for e.g. a key store or a
+ * remote cache does not block any thread. When a command is sent
+ * synchronously, the default implementations of processCommand() and
+ * processResponse() wait for the futures.
+ */
+public interface IAsyncApduService extends IApduService {
+    /**
+     * Do processing of command APDU before being sent to card.
+     *
+     * @param apdu command APDU
+     * @return future which is completed with the processed command APDU or
+     *         completed exceptionally with an ApduException.
+     */
+    CompletableFuture<ApduCommand> processCommandAsync(ApduCommand apdu);
+
+    /**
+     * Do processing of response APDU before being presented to the higher
+     * layers.
+     *
+     * @param apdu response APDU
+     * @return future which is completed with the processed response APDU or
+     *         completed exceptionally with an ApduException.
+     */
+    CompletableFuture<ApduResponse> processResponseAsync(ApduResponse apdu);
+
+    @Override
+    default ApduCommand processCommand(ApduCommand apdu) throws ApduException {
+        return await(processCommandAsync(apdu));
+    }
+
+    @Override
+    default ApduResponse processResponse(ApduResponse apdu)
+            throws ApduException {
+        return await(processResponseAsync(apdu));
+    }
+
+    /**
+     * Helper method to wait for the result of a service stage.
+     *
+     * @param <T>    type of result.
+     * @param future future of service stage.
+     * @return result of service stage.
+     * @throws ApduException if the service stage failed.
+     */
+    static <T> T await(CompletableFuture<T> future) throws ApduException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+            if (cause instanceof ApduException)
+                throw (ApduException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new ApduException(cause.getMessage(),
+                                    (cause instanceof Exception)
+                                            ? (Exception) cause
+                                            : e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. The buckets have a
+ * log-linear layout: every power of two is divided into 16 linear sub-buckets,
+ * so each recorded value is kept with a relative error below 6.25 percent
+ * while the full range of a long fits into less than 1000 buckets. Recording
+ * is wait-free apart from the maximum update and may be performed by any
+ * number of threads while other threads take snapshots.
+ */
+public class LatencyHistogram {
+    /** Number of bits selecting the linear sub-bucket */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Number of linear sub-buckets per power of two */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Number of buckets covering all positive long values */
+    /* default */ static final int BUCKET_COUNT =
+            (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    /** Number of recorded values per bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** Sum of all recorded values */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** Largest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency. Negative values are recorded as zero.
+     *
+     * @param nanos latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        counts.incrementAndGet(bucketOf(value));
+        sum.addAndGet(value);
+
+        long current = max.get();
+        while ((value > current) && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Take a snapshot of the histogram. Values recorded concurrently may or
+     * may not be included.
+     *
+     * @return snapshot of the recorded values.
+     */
+    public LatencySnapshot getSnapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+        }
+
+        return new LatencySnapshot(snapshot, sum.get(), max.get());
+    }
+
+    /**
+     * Take a snapshot of the histogram and reset it. Each value recorded
+     * concurrently is either part of the snapshot or remains in the
+     * histogram.
+     *
+     * @return snapshot of the values recorded since the last reset.
+     */
+    public LatencySnapshot getSnapshotAndReset() {
+        long[] snapshot = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+        }
+
+        return new LatencySnapshot(snapshot, sum.getAndSet(0),
+                                   max.getAndSet(0));
+    }
+
+    /**
+     * Reset the histogram.
+     */
+    public void reset() {
+        getSnapshotAndReset();
+    }
+
+    /**
+     * Helper method to get the bucket index of a value.
+     *
+     * @param value non-negative value.
+     * @return index of bucket.
+     */
+    /* default */ static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) &
+                        (SUB_BUCKET_COUNT - 1);
+
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) +
+               subBucket;
+    }
+
+    /**
+     * Helper method to get the smallest value of a bucket.
+     *
+     * @param bucket index of bucket.
+     * @return smallest value mapped to the bucket.
+     */
+    /* default */ static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT)
+            return bucket;
+
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        int subBucket = bucket & (SUB_BUCKET_COUNT - 1);
+
+        return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    /**
+     * Helper method to get the largest value of a bucket.
+     *
+     * @param bucket index of bucket.
+     * @return largest value mapped to the bucket.
+     */
+    /* default */ static long upperBoundOf(int bucket) {
+        if (bucket + 1 >= BUCKET_COUNT)
+            return Long.MAX_VALUE;
+
+        return lowerBoundOf(bucket + 1) - 1;
+    }
+}
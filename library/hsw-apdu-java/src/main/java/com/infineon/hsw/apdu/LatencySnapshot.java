@@ -0,0 +1,151 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.util.Locale;
+
+/**
+ * Immutable snapshot of a LatencyHistogram. All values are given in
+ * nanoseconds. Percentiles are reported as the upper bound of the bucket
+ * containing the requested rank, limited to the largest recorded value.
+ */
+public final class LatencySnapshot {
+    /** Number of recorded values per bucket */
+    private final long[] counts;
+
+    /** Number of recorded values */
+    private final long count;
+
+    /** Sum of recorded values */
+    private final long sum;
+
+    /** Largest recorded value */
+    private final long max;
+
+    /**
+     * Constructor.
+     *
+     * @param counts number of recorded values per bucket.
+     * @param sum    sum of recorded values.
+     * @param max    largest recorded value.
+     */
+    /* default */ LatencySnapshot(long[] counts, long sum, long max) {
+        long total = 0;
+
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+
+        this.counts = counts;
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * Return the number of recorded values.
+     *
+     * @return number of values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Return the mean of the recorded values.
+     *
+     * @return mean latency or zero if no value has been recorded.
+     */
+    public long getMean() {
+        return (count == 0) ? 0 : sum / count;
+    }
+
+    /**
+     * Return the smallest recorded value.
+     *
+     * @return minimum latency with bucket resolution or zero if no value has
+     *         been recorded.
+     */
+    public long getMin() {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0)
+                return LatencyHistogram.lowerBoundOf(i);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Return the largest recorded value.
+     *
+     * @return maximum latency or zero if no value has been recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Return the value below or equal to which the given percentage of the
+     * recorded values fall.
+     *
+     * @param percentile percentile between 0 and 100.
+     * @return latency at percentile or zero if no value has been recorded.
+     */
+    public long getPercentile(double percentile) {
+        if ((percentile < 0) || (percentile > 100))
+            throw new IllegalArgumentException(
+                    "Percentile must be between 0 and 100");
+
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(LatencyHistogram.upperBoundOf(i), max);
+        }
+
+        return max;
+    }
+
+    /**
+     * Return the median.
+     *
+     * @return 50th percentile of latency.
+     */
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    /**
+     * Return the 99th percentile.
+     *
+     * @return 99th percentile of latency.
+     */
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    /**
+     * Return the 99.9th percentile.
+     *
+     * @return 99.9th percentile of latency.
+     */
+    public long getP999() {
+        return getPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                             "count=%d mean=%.3f ms p50=%.3f ms p99=%.3f ms "
+                                     + "p999=%.3f ms max=%.3f ms",
+                             count, getMean() / 1e6, getP50() / 1e6,
+                             getP99() / 1e6, getP999() / 1e6, max / 1e6);
+    }
+}
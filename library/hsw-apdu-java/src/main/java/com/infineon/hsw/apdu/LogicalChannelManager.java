@@ -0,0 +1,460 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Manager of the supplementary logical channels of a card. Command sets are
+ * bound to a logical channel of their own, which is opened with MANAGE
+ * CHANNEL on demand and on which the application of the command set is
+ * selected. Command sets bound to different channels can be used interleaved
+ * without selecting their applications again.
+ * <p>
+ * A released channel is kept open with its application selected and reused
+ * by the next command set bound, preferably one with the same AID. When the
+ * card is connected, disconnected or reset, all channels are lost and the
+ * command sets are set back to the basic logical channel, so they have to be
+ * bound again.
+ * <p>
+ * The number of channels opened is limited by the card capabilities in the
+ * ATR, if indicated, or by {@link #setMaxChannels(int)}. Command sets with
+ * proprietary class bytes which cannot carry logical channel bits cannot be
+ * bound.
+ */
+public class LogicalChannelManager implements IStateListener {
+    /** Highest number of a logical channel */
+    public static final int MAX_CHANNEL_NUMBER = 19;
+
+    /** Reference of APDU channel */
+    private final ApduChannel apduChannel;
+
+    /** Lock of channel states, never held while exchanging APDUs */
+    private final Object lock = new Object();
+
+    /** Command sets by bound logical channel */
+    private final ApduCommandSet[] bound =
+            new ApduCommandSet[MAX_CHANNEL_NUMBER + 1];
+
+    /** Markers of opened logical channels */
+    private final boolean[] opened = new boolean[MAX_CHANNEL_NUMBER + 1];
+
+    /** AIDs selected on the opened logical channels */
+    private final byte[][] selectedAid = new byte[MAX_CHANNEL_NUMBER + 1][];
+
+    /** Opened channels without binding, most recently released first */
+    private final Deque<Integer> idle = new ArrayDeque<>();
+
+    /** Maximum number of channels opened by the manager, 0 to use the ATR */
+    private int maxChannels;
+
+    /** Number of channels opened or being opened by the manager */
+    private int openCount;
+
+    /**
+     * Constructor.
+     *
+     * @param channel channel of the card.
+     */
+    public LogicalChannelManager(ApduChannel channel) {
+        apduChannel = channel;
+
+        // register for connects, resets, selects and closed channels
+        channel.addStateListener(this, false);
+    }
+
+    /**
+     * Set the maximum number of logical channels opened by the manager. By
+     * default the number is derived from the card capabilities in the ATR,
+     * or 19 if the ATR does not indicate them. Channels which are already
+     * open are not closed.
+     *
+     * @param maxChannels maximum number of open channels.
+     * @throws ApduException if the number is out of range.
+     */
+    public void setMaxChannels(int maxChannels) throws ApduException {
+        if ((maxChannels < 1) || (maxChannels > MAX_CHANNEL_NUMBER))
+            throw new ApduException(String.format(
+                    "Invalid number of logical channels %d", maxChannels));
+
+        synchronized (lock) {
+            this.maxChannels = maxChannels;
+        }
+    }
+
+    /**
+     * Return the number of logical channels opened by the manager.
+     *
+     * @return number of open channels.
+     */
+    public int getOpenChannelCount() {
+        synchronized (lock) {
+            return openCount;
+        }
+    }
+
+    /**
+     * Return the logical channel a command set is bound to.
+     *
+     * @param commandSet command set.
+     * @return number of logical channel or 0 if the command set is not bound.
+     */
+    public int getChannelNumber(ApduCommandSet commandSet) {
+        synchronized (lock) {
+            return indexOf(commandSet);
+        }
+    }
+
+    /**
+     * Bind a command set to a logical channel of its own. If the command set
+     * is not bound yet, an idle channel with its application selected is
+     * reused. Otherwise a new channel is opened if possible or any idle
+     * channel is reused, and the application of the command set is selected
+     * on it. The command set sends all further commands on that channel.
+     *
+     * @param commandSet command set to be bound.
+     * @return number of logical channel.
+     * @throws ApduException if no channel can be opened or the application
+     *         cannot be selected.
+     */
+    public int bind(ApduCommandSet commandSet) throws ApduException {
+        byte[] aid = commandSet.getAID().toBytes();
+        int number;
+        boolean reselect;
+
+        synchronized (lock) {
+            number = indexOf(commandSet);
+            if (number != 0)
+                return number;
+
+            number = takeIdle(aid, openCount >= getLimit());
+        }
+
+        if (number == 0)
+            number = openChannel();
+
+        synchronized (lock) {
+            // the command set may have been bound concurrently
+            int current = indexOf(commandSet);
+            if (current != 0) {
+                idle.push(number);
+                return current;
+            }
+
+            bound[number] = commandSet;
+            reselect = !Arrays.equals(aid, selectedAid[number]);
+        }
+
+        commandSet.setLogChannelNumber(number);
+        commandSet.setSelected(!reselect);
+        if (reselect) {
+            ApduResponse response;
+
+            try {
+                response = commandSet.select();
+            } catch (ApduException e) {
+                unbind(number);
+                throw e;
+            }
+
+            if (response.getSW() != ApduResponse.SW_NO_ERROR) {
+                unbind(number);
+                throw new ApduException(String.format(
+                        "Selecting %s on logical channel %d failed with "
+                                + "status word %04X",
+                        commandSet.getAID(), number, response.getSW()));
+            }
+        }
+
+        return number;
+    }
+
+    /**
+     * Release the logical channel of a command set. The channel is kept open
+     * with the application selected for reuse, the command set is set back to
+     * the basic logical channel.
+     *
+     * @param commandSet command set to be released.
+     */
+    public void release(ApduCommandSet commandSet) {
+        synchronized (lock) {
+            int number = indexOf(commandSet);
+            if (number == 0)
+                return;
+
+            bound[number] = null;
+            idle.push(number);
+        }
+
+        commandSet.setLogChannelNumber(0);
+        commandSet.setSelected(false);
+    }
+
+    /**
+     * Close all idle logical channels.
+     *
+     * @throws ApduException if closing a channel fails.
+     */
+    public void closeIdle() throws ApduException {
+        Integer number;
+
+        while (true) {
+            synchronized (lock) {
+                number = idle.poll();
+            }
+            if (number == null)
+                break;
+
+            closeChannel(number);
+        }
+    }
+
+    /**
+     * Release all command sets and close all logical channels opened by the
+     * manager.
+     *
+     * @throws ApduException if closing a channel fails.
+     */
+    public void closeAll() throws ApduException {
+        for (int number = 1; number <= MAX_CHANNEL_NUMBER; number++) {
+            ApduCommandSet commandSet;
+
+            synchronized (lock) {
+                commandSet = bound[number];
+            }
+            if (commandSet != null)
+                release(commandSet);
+        }
+
+        closeIdle();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.infineon.hsw.apdu.IStateListener#notify(StateChangeEvent)
+     */
+    @Override
+    public void notify(StateChangeEvent event) {
+        switch (event.getEventID()) {
+        case StateChangeEvent.EV_CONNECT:
+        case StateChangeEvent.EV_DISCONNECT:
+            // all logical channels are closed by the card
+            for (int number = 1; number <= MAX_CHANNEL_NUMBER; number++)
+                lost(number);
+            break;
+
+        case ApduEvent.EV_MANAGE_CHANNEL: {
+            ApduCommand cmd = ((ApduEvent) event).getCommand();
+
+            // MANAGE CHANNEL close
+            if ((cmd.getP1() & 0xFF) == 0x80)
+                lost((cmd.getP2() != 0) ? (cmd.getP2() & 0xFF)
+                                        : cmd.getLogChannel());
+        } break;
+
+        case ApduEvent.EV_SELECT: {
+            ApduEvent apduEvent = (ApduEvent) event;
+            ApduCommand cmd = apduEvent.getCommand();
+            int number = apduEvent.getLogChannel();
+
+            // track application selected by AID on opened channels
+            if (cmd.getP1() == 0x04) {
+                synchronized (lock) {
+                    if ((number > 0) && opened[number])
+                        selectedAid[number] = cmd.getData();
+                }
+            }
+        } break;
+
+        default: {
+            break;
+        }
+        }
+    }
+
+    /**
+     * Helper method to open a new logical channel.
+     *
+     * @return number of logical channel.
+     * @throws ApduException if the card does not open a channel.
+     */
+    private int openChannel() throws ApduException {
+        boolean success = false;
+
+        // reserve the channel, so concurrent binds respect the limit
+        synchronized (lock) {
+            if (openCount >= getLimit())
+                throw new ApduException("No free logical channel");
+            openCount++;
+        }
+
+        try {
+            // MANAGE CHANNEL open, card assigns the channel number
+            ApduResponse response = apduChannel.send(
+                    new ApduCommand(0x00, 0x70, 0x00, 0x00, 1));
+
+            if ((response.getSW() != ApduResponse.SW_NO_ERROR) ||
+                (response.getDataLength() != 1))
+                throw new ApduException(String.format(
+                        "Opening logical channel failed with status word %04X",
+                        response.getSW()));
+
+            int number = response.getData()[0] & 0xFF;
+            if ((number < 1) || (number > MAX_CHANNEL_NUMBER))
+                throw new ApduException(String.format(
+                        "Invalid logical channel number %d", number));
+
+            synchronized (lock) {
+                opened[number] = true;
+                selectedAid[number] = null;
+            }
+
+            success = true;
+            return number;
+        } finally {
+            if (!success) {
+                synchronized (lock) {
+                    openCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to close a logical channel.
+     *
+     * @param number number of logical channel.
+     * @throws ApduException if closing the channel fails.
+     */
+    private void closeChannel(int number) throws ApduException {
+        // MANAGE CHANNEL close from basic channel
+        ApduResponse response = apduChannel.send(
+                new ApduCommand(0x00, 0x70, 0x80, number, 0));
+
+        // the channel is lost in any case
+        lost(number);
+
+        if (response.getSW() != ApduResponse.SW_NO_ERROR)
+            throw new ApduException(String.format(
+                    "Closing logical channel %d failed with status word %04X",
+                    number, response.getSW()));
+    }
+
+    /**
+     * Helper method to unbind a command set after a failed selection. The
+     * channel is kept open for reuse.
+     *
+     * @param number number of logical channel.
+     */
+    private void unbind(int number) {
+        ApduCommandSet commandSet;
+
+        synchronized (lock) {
+            commandSet = bound[number];
+            bound[number] = null;
+            if (opened[number]) {
+                selectedAid[number] = null;
+                idle.push(number);
+            }
+        }
+
+        if (commandSet != null) {
+            commandSet.setLogChannelNumber(0);
+            commandSet.setSelected(false);
+        }
+    }
+
+    /**
+     * Helper method to forget a logical channel which was closed.
+     *
+     * @param number number of logical channel.
+     */
+    private void lost(int number) {
+        ApduCommandSet commandSet;
+
+        synchronized (lock) {
+            if ((number < 1) || (number > MAX_CHANNEL_NUMBER) ||
+                !opened[number])
+                return;
+
+            commandSet = bound[number];
+            bound[number] = null;
+            opened[number] = false;
+            selectedAid[number] = null;
+            idle.remove(number);
+            openCount--;
+        }
+
+        if (commandSet != null) {
+            commandSet.setLogChannelNumber(0);
+            commandSet.setSelected(false);
+        }
+    }
+
+    /**
+     * Helper method to get the maximum number of channels opened by the
+     * manager. Must be called with the lock held.
+     *
+     * @return number set by setMaxChannels() or derived from the ATR.
+     */
+    private int getLimit() {
+        if (maxChannels > 0)
+            return maxChannels;
+
+        ATR atr = apduChannel.getATR();
+        if ((atr == null) || !atr.hasCardCapabilities())
+            return MAX_CHANNEL_NUMBER;
+
+        // 8 indicates 8 or more channels, the basic channel is not managed
+        int count = atr.getMaxLogicalChannels();
+        return (count >= 8) ? MAX_CHANNEL_NUMBER : count - 1;
+    }
+
+    /**
+     * Helper method to take an idle channel, preferably one with an AID
+     * selected. Must be called with the lock held.
+     *
+     * @param aid AID to be selected.
+     * @param any if true any idle channel is taken if none has the AID
+     *            selected.
+     * @return number of logical channel or 0 if no channel is taken.
+     */
+    private int takeIdle(byte[] aid, boolean any) {
+        Iterator<Integer> iterator = idle.iterator();
+
+        while (iterator.hasNext()) {
+            int number = iterator.next();
+            if (Arrays.equals(aid, selectedAid[number])) {
+                iterator.remove();
+                return number;
+            }
+        }
+
+        if (any && !idle.isEmpty())
+            return idle.pop();
+
+        return 0;
+    }
+
+    /**
+     * Helper method to find the logical channel of a command set. Must be
+     * called with the lock held.
+     *
+     * @param commandSet command set.
+     * @return number of logical channel or 0 if the command set is not bound.
+     */
+    private int indexOf(ApduCommandSet commandSet) {
+        for (int number = 1; number <= MAX_CHANNEL_NUMBER; number++) {
+            if (bound[number] == commandSet)
+                return number;
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,424 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * APDU service answering commands which return the same data for the lifetime
+ * of a card session from a cache. Successful responses (status word 9000) of
+ * commands matching one of the cacheable patterns are stored, keyed by the
+ * encoded command without logical channel bits. The cache is invalidated when
+ * the card is connected, disconnected or reset, when the content of the card
+ * changes and before a command matching one of the invalidating patterns is
+ * sent.
+ * <p>
+ * As the card state depends on the selection, a cached SELECT response is
+ * only returned if the previous SELECT on the logical channel was the same
+ * command, and any other cached response only if the application selected
+ * when it was stored is still selected.
+ * <p>
+ * Several exchanges may be outstanding at once, e.g. when commands are sent
+ * asynchronously. The application selected when a cacheable command is
+ * passed to the service is kept per command object until its response
+ * arrives, so each response is stored under the key of its own command.
+ */
+public class ResponseCacheService
+        implements IApduResponseSource, IStateListener {
+    /** Wildcard matching any INS, P1 or P2 */
+    public static final int ANY = -1;
+
+    /** Logical channel of the command set using the service */
+    private final int logChannel;
+
+    /** Header patterns of cacheable commands, value and mask in turn */
+    private final List<int[]> cacheable = new ArrayList<>();
+
+    /** Header patterns of commands invalidating the cache */
+    private final List<int[]> invalidating = new ArrayList<>();
+
+    /** Cached responses by command */
+    private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+
+    /** Last successful SELECT command on the logical channel */
+    private ByteBuffer lastSelect;
+
+    /** Last successful SELECT by AID command on the logical channel */
+    private ByteBuffer lastApplication;
+
+    /** Keys and selected applications of outstanding cacheable commands */
+    private final Map<ApduCommand, Pending> pending = new IdentityHashMap<>();
+
+    /** Number of commands answered from the cache */
+    private long hits;
+
+    /** Number of cacheable commands sent to the card */
+    private long misses;
+
+    /**
+     * Create a cache for commands sent on the basic logical channel.
+     *
+     * @param channel channel the commands are sent on.
+     */
+    public ResponseCacheService(ApduChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * Create a cache for commands sent on a logical channel.
+     *
+     * @param channel    channel the commands are sent on.
+     * @param logChannel number of logical channel (0 = basic logical
+     *         channel).
+     */
+    public ResponseCacheService(ApduChannel channel, int logChannel) {
+        this.logChannel = logChannel;
+
+        // register for connects, resets and selects
+        if (channel != null)
+            channel.addStateListener(this, false);
+    }
+
+    /**
+     * Add a pattern of commands to be cached. The method returns a reference
+     * to 'this' to allow simple concatenation of operations.
+     *
+     * @param ins instruction byte or ANY.
+     * @param p1  parameter byte P1 or ANY.
+     * @param p2  parameter byte P2 or ANY.
+     * @return this
+     */
+    public synchronized ResponseCacheService addCacheable(int ins, int p1,
+                                                          int p2) {
+        cacheable.add(pattern(ins, p1, p2));
+        return this;
+    }
+
+    /**
+     * Add a pattern of commands invalidating the cache, e.g. commands
+     * updating data or configuration. The method returns a reference to
+     * 'this' to allow simple concatenation of operations.
+     *
+     * @param ins instruction byte or ANY.
+     * @param p1  parameter byte P1 or ANY.
+     * @param p2  parameter byte P2 or ANY.
+     * @return this
+     */
+    public synchronized ResponseCacheService addInvalidating(int ins, int p1,
+                                                             int p2) {
+        invalidating.add(pattern(ins, p1, p2));
+        return this;
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        pending.clear();
+    }
+
+    /**
+     * Return the number of commands answered from the cache.
+     *
+     * @return number of cache hits.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Return the number of cacheable commands which were sent to the card.
+     *
+     * @return number of cache misses.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Reset the hit and miss counters.
+     */
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.infineon.hsw.apdu.IApduResponseSource#getResponse(ApduCommand)
+     */
+    @Override
+    public synchronized ApduResponse getResponse(ApduCommand apdu) {
+        int header = ((apdu.getINS() & 0xFF) << 16) |
+                     ((apdu.getP1() & 0xFF) << 8) | (apdu.getP2() & 0xFF);
+
+        if (matches(invalidating, header)) {
+            // responses of outstanding commands may predate the change
+            invalidate();
+            return null;
+        }
+
+        if (!matches(cacheable, header))
+            return null;
+
+        ByteBuffer key = key(apdu);
+        Entry entry = entries.get(key);
+
+        if (entry != null) {
+            boolean valid;
+
+            if (isSelect(apdu))
+                valid = key.equals(lastSelect);
+            else
+                valid = (entry.context != null) &&
+                        entry.context.equals(lastApplication);
+
+            if (valid) {
+                hits++;
+                return new ApduResponse(entry.response);
+            }
+        }
+
+        misses++;
+        pending.put(apdu, new Pending(key, lastApplication));
+        return null;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.infineon.hsw.apdu.IApduService#processCommand(ApduCommand)
+     */
+    @Override
+    public ApduCommand processCommand(ApduCommand apdu) throws ApduException {
+        return apdu;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.infineon.hsw.apdu.IApduService#processResponse(ApduResponse)
+     */
+    @Override
+    public ApduResponse processResponse(ApduResponse apdu)
+            throws ApduException {
+        return apdu;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.infineon.hsw.apdu.IApduResponseSource#processResponse(
+     * ApduCommand, ApduResponse)
+     */
+    @Override
+    public synchronized ApduResponse processResponse(ApduCommand apdu,
+                                                     ApduResponse response)
+            throws ApduException {
+        // missing if the command is not cacheable or the cache was invalidated
+        Pending exchange = pending.remove(apdu);
+
+        if ((exchange != null) &&
+            (response.getSW() == ApduResponse.SW_NO_ERROR))
+            entries.put(exchange.key, new Entry(new ApduResponse(response),
+                                                exchange.context));
+
+        return response;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.infineon.hsw.apdu.IApduService#getServiceType()
+     */
+    @Override
+    public int getServiceType() {
+        return IApduService.SVC_CACHE;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.infineon.hsw.apdu.IStateListener#notify(StateChangeEvent)
+     */
+    @Override
+    public synchronized void notify(StateChangeEvent event) {
+        switch (event.getEventID()) {
+        case StateChangeEvent.EV_CONNECT:
+        case StateChangeEvent.EV_DISCONNECT:
+        case StateChangeEvent.EV_CONTENT_CHANGE:
+            invalidate();
+            lastSelect = null;
+            lastApplication = null;
+            break;
+
+        case ApduEvent.EV_MANAGE_CHANNEL: {
+            ApduEvent apduEvent = (ApduEvent) event;
+
+            if (apduEvent.getLogChannel() == logChannel) {
+                lastSelect = null;
+                lastApplication = null;
+            }
+        } break;
+
+        case ApduEvent.EV_SELECT: {
+            ApduEvent apduEvent = (ApduEvent) event;
+
+            if (apduEvent.getLogChannel() == logChannel) {
+                ApduCommand cmd = apduEvent.getCommand();
+
+                lastSelect = key(cmd);
+                if (cmd.getP1() == 0x04)
+                    lastApplication = lastSelect;
+            }
+        } break;
+
+        default: {
+            break;
+        }
+        }
+    }
+
+    /**
+     * Helper method to build a header pattern.
+     *
+     * @param ins instruction byte or ANY.
+     * @param p1  parameter byte P1 or ANY.
+     * @param p2  parameter byte P2 or ANY.
+     * @return pattern value and mask.
+     */
+    private static int[] pattern(int ins, int p1, int p2) {
+        int[] pattern = new int[2];
+        int[] bytes = { ins, p1, p2 };
+
+        for (int b : bytes) {
+            pattern[0] <<= 8;
+            pattern[1] <<= 8;
+            if (b != ANY) {
+                pattern[0] |= b & 0xFF;
+                pattern[1] |= 0xFF;
+            }
+        }
+
+        return pattern;
+    }
+
+    /**
+     * Helper method to match a command header against patterns.
+     *
+     * @param patterns patterns to be checked.
+     * @param header   INS, P1 and P2 of command.
+     * @return true if any pattern matches.
+     */
+    private static boolean matches(List<int[]> patterns, int header) {
+        for (int[] pattern : patterns) {
+            if ((header & pattern[1]) == pattern[0])
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Helper method to check if a command is a SELECT command.
+     *
+     * @param apdu command to be checked.
+     * @return true if command is a SELECT command.
+     */
+    private static boolean isSelect(ApduCommand apdu) {
+        return apdu.getINS() == (byte) 0xA4;
+    }
+
+    /**
+     * Helper method to build the cache key of a command. The logical channel
+     * bits are removed from the interindustry class bytes and from the
+     * proprietary class bytes 80 to BF, so the key does not depend on whether
+     * the logical channel service processed the command before. Other
+     * proprietary class bytes are kept.
+     *
+     * @param apdu command.
+     * @return key of command.
+     */
+    private static ByteBuffer key(ApduCommand apdu) {
+        byte[] command = apdu.toBytes();
+        int cla = command[0];
+
+        switch (cla & 0xF0) {
+        case 0x00:
+        case 0x10:
+        case 0x80:
+        case 0x90:
+        case 0xA0:
+        case 0xB0:
+            command[0] = (byte) (cla & 0xFC);
+            break;
+
+        case 0x40:
+        case 0x50:
+        case 0x60:
+        case 0x70:
+            command[0] = (byte) (cla & 0xF0);
+            break;
+
+        default: {
+            break;
+        }
+        }
+
+        return ByteBuffer.wrap(command);
+    }
+
+    /**
+     * Cached response with the application selected when it was received.
+     */
+    private static final class Entry {
+        /** Response shared with the returned copies */
+        private final ApduResponse response;
+
+        /** Last SELECT by AID command when the response was received */
+        private final ByteBuffer context;
+
+        /**
+         * Constructor.
+         *
+         * @param response cached response.
+         * @param context  last SELECT by AID command.
+         */
+        private Entry(ApduResponse response, ByteBuffer context) {
+            this.response = response;
+            this.context = context;
+        }
+    }
+
+    /**
+     * Outstanding cacheable command with the application selected when it was
+     * passed to the service.
+     */
+    private static final class Pending {
+        /** Key of command */
+        private final ByteBuffer key;
+
+        /** Last SELECT by AID command when the command was passed */
+        private final ByteBuffer context;
+
+        /**
+         * Constructor.
+         *
+         * @param key     key of command.
+         * @param context last SELECT by AID command.
+         */
+        private Pending(ByteBuffer key, ByteBuffer context) {
+            this.key = key;
+            this.context = context;
+        }
+    }
+}
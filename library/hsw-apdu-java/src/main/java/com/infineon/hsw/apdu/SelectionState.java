@@ -0,0 +1,204 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Selection state of the logical channels of an ApduChannel. For each
+ * logical channel the last SELECT by AID and the last SELECT of an elementary
+ * file including its command data (e.g. passwords) are tracked together with
+ * their responses, so a command set can skip a SELECT which would not change
+ * the state.
+ * <p>
+ * The state of a logical channel is invalidated by a failing SELECT, by any
+ * other command failing with a status word other than 9000, by MANAGE CHANNEL
+ * and by SELECT commands which may leave the application. The state of all
+ * channels is invalidated when the card is connected, disconnected or reset.
+ */
+public final class SelectionState {
+    /** Number of logical channels */
+    private static final int CHANNEL_COUNT = 20;
+
+    /** AIDs of selected applications by logical channel */
+    private final byte[][] application = new byte[CHANNEL_COUNT][];
+
+    /** SELECT by AID commands without class byte by logical channel */
+    private final ByteBuffer[] applicationSelect =
+            new ByteBuffer[CHANNEL_COUNT];
+
+    /** Responses of SELECT by AID commands by logical channel */
+    private final ApduResponse[] applicationResponse =
+            new ApduResponse[CHANNEL_COUNT];
+
+    /** SELECT file commands without class byte by logical channel */
+    private final ByteBuffer[] fileSelect = new ByteBuffer[CHANNEL_COUNT];
+
+    /** Responses of SELECT file commands by logical channel */
+    private final ApduResponse[] fileResponse =
+            new ApduResponse[CHANNEL_COUNT];
+
+    /**
+     * Package-private constructor, the state is owned by an ApduChannel.
+     */
+    /* default */ SelectionState() {
+    }
+
+    /**
+     * Return the AID of the application selected on a logical channel.
+     *
+     * @param logChannel number of logical channel.
+     * @return AID or null if unknown.
+     */
+    public synchronized byte[] getApplication(int logChannel) {
+        byte[] aid = application[logChannel];
+        return (aid == null) ? null : aid.clone();
+    }
+
+    /**
+     * Return the response of a SELECT command if the command would not change
+     * the selection state of a logical channel, i.e. if the same command was
+     * the last successful SELECT of its kind and the state has not been
+     * invalidated since. The class byte of the command is ignored.
+     *
+     * @param logChannel number of logical channel.
+     * @param select     SELECT command.
+     * @return copy of the last response to the command or null if the command
+     *         has to be sent.
+     */
+    public synchronized ApduResponse getSelectResponse(int logChannel,
+                                                       ApduCommand select) {
+        ApduResponse response = null;
+        ByteBuffer key = key(select);
+
+        if (isApplicationSelect(select)) {
+            if (key.equals(applicationSelect[logChannel]))
+                response = applicationResponse[logChannel];
+        } else if (key.equals(fileSelect[logChannel])) {
+            response = fileResponse[logChannel];
+        }
+
+        return (response == null) ? null : new ApduResponse(response);
+    }
+
+    /**
+     * Invalidate the selection state of a logical channel.
+     *
+     * @param logChannel number of logical channel.
+     */
+    public synchronized void invalidate(int logChannel) {
+        application[logChannel] = null;
+        applicationSelect[logChannel] = null;
+        applicationResponse[logChannel] = null;
+        invalidateFile(logChannel);
+    }
+
+    /**
+     * Invalidate the selected file of a logical channel, e.g. after a command
+     * changed access conditions or passwords.
+     *
+     * @param logChannel number of logical channel.
+     */
+    public synchronized void invalidateFile(int logChannel) {
+        fileSelect[logChannel] = null;
+        fileResponse[logChannel] = null;
+    }
+
+    /**
+     * Invalidate the selection state of all logical channels.
+     */
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < CHANNEL_COUNT; i++)
+            invalidate(i);
+    }
+
+    /**
+     * Update the state with a completed exchange.
+     *
+     * @param command  APDU command.
+     * @param response final APDU response.
+     */
+    /* default */ synchronized void update(ApduCommand command,
+                                          ApduResponse response) {
+        int logChannel = command.getLogChannel();
+        boolean success = (response.getSW() == ApduResponse.SW_NO_ERROR);
+
+        switch (command.getINS()) {
+        case (byte) 0xA4: {
+            if (!success) {
+                invalidate(logChannel);
+            } else if (isApplicationSelect(command)) {
+                invalidateFile(logChannel);
+                application[logChannel] = command.getData();
+                applicationSelect[logChannel] = key(command);
+                applicationResponse[logChannel] = new ApduResponse(response);
+            } else {
+                if (!isElementarySelect(command)) {
+                    application[logChannel] = null;
+                    applicationSelect[logChannel] = null;
+                    applicationResponse[logChannel] = null;
+                }
+                fileSelect[logChannel] = key(command);
+                fileResponse[logChannel] = new ApduResponse(response);
+            }
+        } break;
+
+        case (byte) 0x70: {
+            // channel opened or closed by MANAGE CHANNEL
+            int other = command.getP2() & 0xFF;
+
+            if ((other == 0) && success && (response.getDataLength() == 1))
+                other = response.getDataBuffer().get() & 0xFF;
+
+            invalidate(logChannel);
+            if (other < CHANNEL_COUNT)
+                invalidate(other);
+        } break;
+
+        default: {
+            if (!success && ((response.getSW() & 0xFF00) != 0x6100))
+                invalidate(logChannel);
+        } break;
+        }
+    }
+
+    /**
+     * Helper method to check if a SELECT command selects the first occurrence
+     * of an application by AID.
+     *
+     * @param select SELECT command.
+     * @return true if the command is a SELECT by AID.
+     */
+    private static boolean isApplicationSelect(ApduCommand select) {
+        return (select.getP1() == 0x04) && ((select.getP2() & 0x03) == 0);
+    }
+
+    /**
+     * Helper method to check if a SELECT command selects an elementary file by
+     * file identifier within the current application.
+     *
+     * @param select SELECT command.
+     * @return true if the application stays selected.
+     */
+    private static boolean isElementarySelect(ApduCommand select) {
+        byte[] data = select.getDataBytes();
+
+        return ((select.getP1() == 0x00) || (select.getP1() == 0x02)) &&
+               (data != null) && (data.length >= 2) &&
+               !((data[0] == 0x3F) && (data[1] == 0x00));
+    }
+
+    /**
+     * Helper method to build the key of a SELECT command without class byte.
+     *
+     * @param select SELECT command.
+     * @return key of command.
+     */
+    private static ByteBuffer key(ApduCommand select) {
+        byte[] command = select.toBytes();
+
+        return ByteBuffer.wrap(command, 1, command.length - 1).slice();
+    }
+}
@@ -0,0 +1,401 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Immutable sequence of the services applied for one service mask. Commands
+ * are processed by the stages in reverse order of registration, responses in
+ * order of registration. A stage which is an IApduResponseSource may answer a
+ * command without it being sent. The processing time of each stage is
+ * recorded in the latency histograms of the stage.
+ */
+/* default */ final class ServicePipeline {
+    /** Stages in order of registration */
+    private final Stage[] stages;
+
+    /** Marker if any stage is a response source */
+    private final boolean hasSource;
+
+    /**
+     * Compile the pipeline for a service mask.
+     *
+     * @param services    registered services in order of registration.
+     * @param stages      stages of the registered services.
+     * @param serviceMask bit mask of service types to be applied.
+     */
+    /* default */ ServicePipeline(List<IApduService> services,
+                                  Map<IApduService, Stage> stages,
+                                  int serviceMask) {
+        Stage[] selected = new Stage[services.size()];
+        int iCount = 0;
+
+        for (IApduService service : services) {
+            // check that service is not masked
+            if ((service.getServiceType() | serviceMask) == serviceMask) {
+                Stage stage = stages.get(service);
+                if (stage == null) {
+                    stage = new Stage(service);
+                    stages.put(service, stage);
+                }
+
+                selected[iCount++] = stage;
+            }
+        }
+
+        this.stages = Arrays.copyOf(selected, iCount);
+
+        boolean source = false;
+        for (Stage stage : this.stages)
+            source |= (stage.source != null);
+        this.hasSource = source;
+    }
+
+    /**
+     * Let all stages process a command, send it and let all stages process
+     * the response. If a stage is an IApduResponseSource which supplies the
+     * response, the command is not sent and the response is processed only by
+     * the stages which processed the command.
+     *
+     * @param channel channel for sending the processed command.
+     * @param command command to be processed.
+     * @return processed response.
+     * @throws ApduException if a service fails to process the command or
+     *         response or the command cannot be sent.
+     */
+    /* default */ ApduResponse send(ApduChannel channel, ApduCommand command)
+            throws ApduException {
+        ApduCommand apduCommand = command;
+        ApduCommand[] sourced = newSourced();
+
+        // run through all stages in reverse order (last is called first)
+        for (int i = stages.length - 1; i >= 0; i--) {
+            Stage stage = stages[i];
+            long lStartTime = System.nanoTime();
+
+            if (stage.source != null) {
+                ApduResponse apduResponse =
+                        stage.source.getResponse(apduCommand);
+                if (apduResponse != null) {
+                    stage.commandLatency.record(System.nanoTime() - lStartTime);
+                    return processResponse(i + 1, apduResponse, sourced);
+                }
+                sourced[i] = apduCommand;
+            }
+
+            apduCommand = stage.service.processCommand(apduCommand);
+            stage.commandLatency.record(System.nanoTime() - lStartTime);
+        }
+
+        return processResponse(0, channel.send(apduCommand), sourced);
+    }
+
+    /**
+     * Let all stages process a command, send it and let all stages process
+     * the response without blocking on the channel or on asynchronous stages.
+     * The caller has to hold the exchange of the channel until the returned
+     * future is completed.
+     *
+     * @param channel channel for sending the processed command.
+     * @param command command to be processed.
+     * @return future which is completed with the processed response.
+     */
+    /* default */ CompletableFuture<ApduResponse> sendAsync(
+            ApduChannel channel, ApduCommand command) {
+        return processCommandAsync(stages.length - 1, channel, command,
+                                   newSourced());
+    }
+
+    /**
+     * Helper method to create the commands passed to the response sources in
+     * one exchange. The commands are kept per exchange, so the response of an
+     * exchange is related to its own command even if several exchanges are
+     * outstanding.
+     *
+     * @return array indexed by stage, null if the pipeline has no source.
+     */
+    private ApduCommand[] newSourced() {
+        return hasSource ? new ApduCommand[stages.length] : null;
+    }
+
+    /**
+     * Helper method to let the stages process a received response.
+     *
+     * @param index    index of first stage.
+     * @param response response to be processed.
+     * @param sourced  commands passed to the response sources.
+     * @return processed response.
+     * @throws ApduException if a service fails to process the response.
+     */
+    private ApduResponse processResponse(int index, ApduResponse response,
+                                         ApduCommand[] sourced)
+            throws ApduException {
+        ApduResponse apduResponse = response;
+
+        // run through the stages in normal order
+        for (int i = index; i < stages.length; i++) {
+            Stage stage = stages[i];
+            long lStartTime = System.nanoTime();
+
+            apduResponse = stage.processResponse(apduResponse,
+                                                 sourced(sourced, i));
+            stage.responseLatency.record(System.nanoTime() - lStartTime);
+        }
+
+        return apduResponse;
+    }
+
+    /**
+     * Helper method to let the stages process a command and send it. The
+     * synchronous stages are run in place, the remaining stages continue
+     * when an asynchronous stage completes.
+     *
+     * @param index   index of first stage in reverse order.
+     * @param channel channel for sending the processed command.
+     * @param command command to be processed.
+     * @param sourced commands passed to the response sources.
+     * @return future which is completed with the processed response.
+     */
+    private CompletableFuture<ApduResponse> processCommandAsync(
+            int index, final ApduChannel channel, ApduCommand command,
+            final ApduCommand[] sourced) {
+        ApduCommand apduCommand = command;
+
+        for (int i = index; i >= 0; i--) {
+            final Stage stage = stages[i];
+            final int next = i - 1;
+            long lStartTime = System.nanoTime();
+            CompletableFuture<ApduCommand> processing;
+
+            try {
+                if (stage.source != null) {
+                    ApduResponse apduResponse =
+                            stage.source.getResponse(apduCommand);
+                    if (apduResponse != null) {
+                        stage.commandLatency.record(System.nanoTime() -
+                                                    lStartTime);
+                        return processResponseAsync(i + 1, apduResponse,
+                                                    sourced);
+                    }
+                    sourced[i] = apduCommand;
+                }
+
+                if (stage.async == null) {
+                    apduCommand = stage.service.processCommand(apduCommand);
+                    stage.commandLatency.record(System.nanoTime() -
+                                                lStartTime);
+                    continue;
+                }
+
+                processing = stage.async.processCommandAsync(apduCommand);
+            } catch (ApduException | RuntimeException e) {
+                return failed(e);
+            }
+
+            return stage.timed(processing, stage.commandLatency)
+                    .thenCompose(new Function<ApduCommand,
+                            CompletableFuture<ApduResponse>>() {
+                        @Override
+                        public CompletableFuture<ApduResponse> apply(
+                                ApduCommand processed) {
+                            return processCommandAsync(next, channel,
+                                                       processed, sourced);
+                        }
+                    });
+        }
+
+        return channel.sendAsyncHeld(apduCommand)
+                .thenCompose(new Function<ApduResponse,
+                        CompletableFuture<ApduResponse>>() {
+                    @Override
+                    public CompletableFuture<ApduResponse> apply(
+                            ApduResponse apduResponse) {
+                        return processResponseAsync(0, apduResponse,
+                                                    sourced);
+                    }
+                });
+    }
+
+    /**
+     * Helper method to let the stages process a received response. The
+     * synchronous stages are run in place, the remaining stages continue
+     * when an asynchronous stage completes.
+     *
+     * @param index    index of first stage.
+     * @param response response to be processed.
+     * @param sourced  commands passed to the response sources.
+     * @return future which is completed with the processed response.
+     */
+    private CompletableFuture<ApduResponse> processResponseAsync(
+            int index, ApduResponse response, final ApduCommand[] sourced) {
+        ApduResponse apduResponse = response;
+
+        for (int i = index; i < stages.length; i++) {
+            final Stage stage = stages[i];
+            final int next = i + 1;
+
+            if (stage.async == null) {
+                long lStartTime = System.nanoTime();
+
+                try {
+                    apduResponse = stage.processResponse(apduResponse,
+                                                         sourced(sourced, i));
+                } catch (ApduException | RuntimeException e) {
+                    return failed(e);
+                } finally {
+                    stage.responseLatency.record(System.nanoTime() -
+                                                 lStartTime);
+                }
+                continue;
+            }
+
+            CompletableFuture<ApduResponse> processing;
+            try {
+                processing = stage.async.processResponseAsync(apduResponse);
+            } catch (RuntimeException e) {
+                return failed(e);
+            }
+
+            return stage.timed(processing, stage.responseLatency)
+                    .thenCompose(new Function<ApduResponse,
+                            CompletableFuture<ApduResponse>>() {
+                        @Override
+                        public CompletableFuture<ApduResponse> apply(
+                                ApduResponse processed) {
+                            return processResponseAsync(next, processed,
+                                                        sourced);
+                        }
+                    });
+        }
+
+        return CompletableFuture.completedFuture(apduResponse);
+    }
+
+    /**
+     * Helper method to get the command passed to the response source of a
+     * stage.
+     *
+     * @param sourced commands passed to the response sources or null.
+     * @param index   index of stage.
+     * @return command or null if the stage is no source or answered nothing.
+     */
+    private static ApduCommand sourced(ApduCommand[] sourced, int index) {
+        return (sourced != null) ? sourced[index] : null;
+    }
+
+    /**
+     * Helper method to create a failed future, so that all errors of a stage
+     * are reported by the returned future.
+     *
+     * @param e exception of failure.
+     * @return future completed exceptionally.
+     */
+    private static CompletableFuture<ApduResponse> failed(Exception e) {
+        CompletableFuture<ApduResponse> result = new CompletableFuture<>();
+        result.completeExceptionally(e);
+        return result;
+    }
+
+    /**
+     * Registered service with the processing times of its stages. The stage
+     * is kept while the service is registered, so the times are accumulated
+     * over all pipelines containing the service.
+     */
+    /* default */ static final class Stage {
+        /** Service of stage */
+        private final IApduService service;
+
+        /** Service of stage if it is asynchronous, null otherwise */
+        private final IAsyncApduService async;
+
+        /** Service of stage if it is a response source, null otherwise */
+        private final IApduResponseSource source;
+
+        /** Processing times of commands */
+        private final LatencyHistogram commandLatency = new LatencyHistogram();
+
+        /** Processing times of responses */
+        private final LatencyHistogram responseLatency =
+                new LatencyHistogram();
+
+        /**
+         * Constructor.
+         *
+         * @param service service of stage.
+         */
+        /* default */ Stage(IApduService service) {
+            this.service = service;
+            this.async = (service instanceof IAsyncApduService)
+                                 ? (IAsyncApduService) service
+                                 : null;
+            this.source = (service instanceof IApduResponseSource)
+                                  ? (IApduResponseSource) service
+                                  : null;
+        }
+
+        /**
+         * Return the processing times of commands.
+         *
+         * @return histogram of command processing times.
+         */
+        /* default */ LatencyHistogram getCommandLatency() {
+            return commandLatency;
+        }
+
+        /**
+         * Return the processing times of responses.
+         *
+         * @return histogram of response processing times.
+         */
+        /* default */ LatencyHistogram getResponseLatency() {
+            return responseLatency;
+        }
+
+        /**
+         * Let the service of the stage process a response. A response source
+         * receives the command of the exchange as passed to getResponse().
+         *
+         * @param response response to be processed.
+         * @param sourced  command passed to getResponse() or null.
+         * @return processed response.
+         * @throws ApduException if the service fails to process the response.
+         */
+        private ApduResponse processResponse(ApduResponse response,
+                                             ApduCommand sourced)
+                throws ApduException {
+            if (sourced != null)
+                return source.processResponse(sourced, response);
+
+            return service.processResponse(response);
+        }
+
+        /**
+         * Helper method to record the time until an asynchronous stage
+         * completes.
+         *
+         * @param <T>       type of stage result.
+         * @param future    future of stage.
+         * @param histogram histogram receiving the processing time.
+         * @return future of stage.
+         */
+        private <T> CompletableFuture<T> timed(
+                CompletableFuture<T> future, final LatencyHistogram histogram) {
+            final long lStartTime = System.nanoTime();
+
+            return future.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable error) {
+                    histogram.record(System.nanoTime() - lStartTime);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,24 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.utils.annotation.NotNull;
+
+/**
+ * Job executed by a ReaderFarm on the NBT of one reader.
+ *
+ * @param <T> type of job result.
+ */
+public interface INbtJob<T> {
+    /**
+     * Execute the job. The command set is connected and used exclusively by
+     * this job while it is executed.
+     *
+     * @param commandSet NBT command set of the reader.
+     * @return result of job.
+     * @throws Exception if the job fails.
+     */
+    T execute(@NotNull NbtCommandSet commandSet) throws Exception;
+}
@@ -218,7 +218,7 @@ public class NbtApduResponse extends ApduResponse {
      */
     public NbtApduResponse(@NotNull ApduResponse response,
                            @NotNull final byte ins) throws ApduException {
-        super(response.toBytes(), response.getExecutionTime());
+        super(response);
         checkSwError(ins);
     }
 
@@ -16,9 +16,14 @@ import com.infineon.hsw.apdu.nbt.model.AvailableMemory;
 import com.infineon.hsw.apdu.nbt.model.FileAccessPolicy;
 import com.infineon.hsw.apdu.nbt.model.FileAccessPolicyException;
 import com.infineon.hsw.apdu.nbt.model.NbtException;
+import com.infineon.hsw.apdu.nbt.model.NdefUpdateResult;
 import com.infineon.hsw.utils.UtilException;
 import com.infineon.hsw.utils.Utils;
 import com.infineon.hsw.utils.annotation.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -132,7 +137,7 @@ public class NbtCommandSet extends ApduCommandSet {
      */
     public NbtApduResponse selectApplication() throws ApduException {
         logger.info(LOG_MESSAGE_SELECT_AID);
-        return sendCommand(commandBuilder.selectApplication());
+        return sendSelectCommand(commandBuilder.selectApplication());
     }
 
     /**
@@ -146,7 +151,7 @@ public class NbtCommandSet extends ApduCommandSet {
     public NbtApduResponse selectFile(@NotNull short fileId)
             throws ApduException {
         logger.info(LOG_MESSAGE_SELECT_FID);
-        return sendCommand(commandBuilder.selectFile(fileId));
+        return sendSelectCommand(commandBuilder.selectFile(fileId));
     }
 
     /**
@@ -167,7 +172,7 @@ public class NbtCommandSet extends ApduCommandSet {
                                       byte[] readPassword, byte[] writePassword)
             throws ApduException {
         logger.info(LOG_MESSAGE_SELECT_FILE);
-        return sendCommand(
+        return sendSelectCommand(
                 commandBuilder.selectFile(fileId, readPassword, writePassword));
     }
 
@@ -281,6 +286,21 @@ public class NbtCommandSet extends ApduCommandSet {
         return sendCommand(commandBuilder.updateBinary(offset, data));
     }
 
+    /**
+     * Sends an update binary command built before, e.g. a command reused for
+     * a sequence of updates.
+     *
+     * @param command Update binary command.
+     * @return Returns the response with status word.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems.
+     */
+    /* default */ NbtApduResponse updateBinary(@NotNull ApduCommand command)
+            throws ApduException {
+        logger.info(LOG_MESSAGE_UPDATE_BINARY);
+        return sendCommand(command);
+    }
+
     /**
      * Deletes an existing password, where FAP file is password-protected.
      *
@@ -642,8 +662,141 @@ public class NbtCommandSet extends ApduCommandSet {
         if (apduResponse.isSwError()) {
             return apduResponse;
         }
-        return recursiveReadNdefMessage(NbtConstants.FILE_START_OFFSET,
-                                        NbtConstants.MAX_LE);
+
+        NdefFileReader reader = new NdefFileReader(this);
+        apduResponse = reader.start();
+        if (apduResponse != null) {
+            return apduResponse;
+        }
+
+        // Reads the message directly behind its position in the response.
+        int length = reader.getLength();
+        byte[] data = new byte[length + 2];
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        apduResponse = readNdefMessage(reader, buffer);
+        if (apduResponse.isSwError()) {
+            return apduResponse;
+        }
+
+        data[length] = (byte) 0x90;
+        data[length + 1] = 0x00;
+        return new NbtApduResponse(
+                new ApduResponse(data, reader.getExecutionTime()), (byte) 0);
+    }
+
+    /**
+     * Reads the NDEF file with password and writes the NDEF message byte data
+     * into a buffer. The file is read iteratively, each chunk is copied
+     * directly into the buffer.
+     *
+     * @param ndefFileId   2-byte FileID of the NDEF file to be selected.
+     * @param readPassword 4-byte password for read operation (Optional - Null
+     *         if not required)
+     * @param target       Buffer receiving the NDEF message at its position.
+     * @return Returns the response with status word and without data.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or build command failure, or if the NDEF message does
+     *         not fit into the remaining space of the buffer.
+     * @throws UtilException Throws an utility exception, in case of issues in
+     *         parsing the select response.
+     */
+    public NbtApduResponse readNdefMessage(@NotNull short ndefFileId,
+                                           byte[] readPassword,
+                                           @NotNull ByteBuffer target)
+            throws ApduException, UtilException {
+        NbtApduResponse apduResponse = selectFile(ndefFileId, readPassword,
+                                                  null);
+        if (apduResponse.isSwError()) {
+            return apduResponse;
+        }
+
+        NdefFileReader reader = new NdefFileReader(this);
+        apduResponse = reader.start();
+        if (apduResponse != null) {
+            return apduResponse;
+        }
+        if (reader.getLength() > target.remaining()) {
+            throw new ApduException(String.format(
+                    "NDEF message of %d bytes exceeds buffer of %d bytes",
+                    reader.getLength(), target.remaining()));
+        }
+
+        return readNdefMessage(reader, target);
+    }
+
+    /**
+     * Reads the NDEF file with password and writes the NDEF message byte data
+     * to a stream. The file is read iteratively, each chunk is written
+     * directly to the stream.
+     *
+     * @param ndefFileId   2-byte FileID of the NDEF file to be selected.
+     * @param readPassword 4-byte password for read operation (Optional - Null
+     *         if not required)
+     * @param target       Stream receiving the NDEF message.
+     * @return Returns the response with status word and without data.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or build command failure.
+     * @throws UtilException Throws an utility exception, in case of issues in
+     *         parsing the select response.
+     * @throws IOException   Throws an I/O exception, if writing to the stream
+     *         fails.
+     */
+    public NbtApduResponse readNdefMessage(@NotNull short ndefFileId,
+                                           byte[] readPassword,
+                                           @NotNull OutputStream target)
+            throws ApduException, UtilException, IOException {
+        NbtApduResponse apduResponse = selectFile(ndefFileId, readPassword,
+                                                  null);
+        if (apduResponse.isSwError()) {
+            return apduResponse;
+        }
+
+        NdefFileReader reader = new NdefFileReader(this);
+        ByteBuffer chunk = reader.next();
+        while ((chunk != null) && chunk.hasRemaining()) {
+            if (chunk.hasArray()) {
+                target.write(chunk.array(),
+                             chunk.arrayOffset() + chunk.position(),
+                             chunk.remaining());
+            } else {
+                byte[] data = new byte[chunk.remaining()];
+                chunk.get(data);
+                target.write(data);
+            }
+            chunk = reader.next();
+        }
+
+        return (chunk == null) ? reader.getError() : reader.toResponse();
+    }
+
+    /**
+     * Selects the NDEF file with password and returns a stream of the NDEF
+     * message. The file is read lazily with READ BINARY commands while the
+     * stream is consumed, so the NDEF file has to stay selected until the
+     * stream is read completely. Errors reported by the card are thrown as
+     * IOException by the stream.
+     *
+     * @param ndefFileId   2-byte FileID of the NDEF file to be selected.
+     * @param readPassword 4-byte password for read operation (Optional - Null
+     *         if not required)
+     * @return Returns the stream of the NDEF message.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or if selecting the NDEF file fails.
+     * @throws UtilException Throws an utility exception, in case of issues in
+     *         parsing the select response.
+     */
+    public InputStream openNdefMessage(@NotNull short ndefFileId,
+                                       byte[] readPassword)
+            throws ApduException, UtilException {
+        NbtApduResponse apduResponse = selectFile(ndefFileId, readPassword,
+                                                  null);
+        if (apduResponse.isSwError()) {
+            throw new ApduException(String.format(
+                    "Selecting NDEF file %04X failed with status word %04X",
+                    ndefFileId, apduResponse.getSW()));
+        }
+
+        return new NdefInputStream(new NdefFileReader(this));
     }
 
     /**
@@ -714,12 +867,204 @@ public class NbtCommandSet extends ApduCommandSet {
         if (dataBytes == null) {
             throw new ApduException(NbtErrorCodes.ERR_DATA_NULL);
         }
+        return updateNdefMessage(ndefFileId, writePassword,
+                                 ByteBuffer.wrap(dataBytes));
+    }
+
+    /**
+     * Updates the NDEF file with password from the remaining bytes of a
+     * buffer. The message is written iteratively with a reused UPDATE BINARY
+     * command. NLEN is written as 0000 with the first chunk and set to the
+     * message length after the last chunk, unless the message fits into one
+     * command.
+     *
+     * @param ndefFileId    2-byte FileID of the NDEF file to be selected.
+     * @param writePassword 4-byte password for write operation (Optional - Null
+     *         if not required)
+     * @param data          Buffer with the NDEF message, its position is
+     *         advanced.
+     * @return Returns the response with status word and without data.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or build command failure, or if the message exceeds the
+     *         file size.
+     * @throws UtilException Throws an utility exception, in case of issues in
+     *         parsing the select response.
+     */
+    public NbtApduResponse updateNdefMessage(@NotNull short ndefFileId,
+                                             byte[] writePassword,
+                                             @NotNull ByteBuffer data)
+            throws ApduException, UtilException {
+        if (data == null) {
+            throw new ApduException(NbtErrorCodes.ERR_DATA_NULL);
+        }
+        NbtApduResponse apduResponse = selectFile(ndefFileId, null,
+                                                  writePassword);
+        if (apduResponse.isSwError()) {
+            return apduResponse;
+        }
+
+        NdefFileWriter writer = createNdefFileWriter();
+        apduResponse = writer.write(data);
+        return (apduResponse != null) ? apduResponse : writer.finish();
+    }
+
+    /**
+     * Updates the NDEF file with password from a stream. The stream is read
+     * until its end in chunks of the maximum command length, each chunk is
+     * written with a reused UPDATE BINARY command. NLEN is written as 0000
+     * with the first chunk and set to the message length after the last
+     * chunk, unless the message fits into one command.
+     *
+     * @param ndefFileId    2-byte FileID of the NDEF file to be selected.
+     * @param writePassword 4-byte password for write operation (Optional - Null
+     *         if not required)
+     * @param data          Stream with the NDEF message.
+     * @return Returns the response with status word and without data.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or build command failure, or if the message exceeds the
+     *         file size.
+     * @throws UtilException Throws an utility exception, in case of issues in
+     *         parsing the select response.
+     * @throws IOException   Throws an I/O exception, if reading the stream
+     *         fails.
+     */
+    public NbtApduResponse updateNdefMessage(@NotNull short ndefFileId,
+                                             byte[] writePassword,
+                                             @NotNull InputStream data)
+            throws ApduException, UtilException, IOException {
+        if (data == null) {
+            throw new ApduException(NbtErrorCodes.ERR_DATA_NULL);
+        }
         NbtApduResponse apduResponse = selectFile(ndefFileId, null,
                                                   writePassword);
         if (apduResponse.isSwError()) {
             return apduResponse;
         }
-        return recursiveUpdateBinary(NbtConstants.FILE_START_OFFSET, dataBytes);
+
+        NdefFileWriter writer = createNdefFileWriter();
+        apduResponse = writer.write(data);
+        return (apduResponse != null) ? apduResponse : writer.finish();
+    }
+
+    /**
+     * Updates the NDEF file with passwords differentially. Only the byte
+     * ranges of the file which differ from the current NDEF message are
+     * written, including NLEN if the message length changes. Changed bytes
+     * within the maximum command length are written with one UPDATE BINARY
+     * command; the range containing NLEN is written last. The current message
+     * is read from the card unless it is supplied, e.g. as cached image of
+     * tags provisioned before. A supplied message has to match the content of
+     * the card, otherwise the file is corrupted.
+     * <p>
+     * Unlike the complete update, the file may contain a mix of the old and
+     * new message if the update is interrupted.
+     *
+     * @param ndefFileId     2-byte FileID of the NDEF file to be selected.
+     * @param readPassword   4-byte password for read operation (Optional -
+     *         Null if not required)
+     * @param writePassword  4-byte password for write operation (Optional -
+     *         Null if not required)
+     * @param dataBytes      NDEF message to be written.
+     * @param currentMessage Current NDEF message of the file (Optional - Null
+     *         if it has to be read)
+     * @return Returns the result with the response and the number of commands
+     *         sent and saved.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or build command failure, or if the message exceeds the
+     *         file size.
+     * @throws UtilException Throws an utility exception, in case of issues in
+     *         parsing the select response.
+     */
+    public NdefUpdateResult updateNdefMessageDifferential(
+            @NotNull short ndefFileId, byte[] readPassword,
+            byte[] writePassword, @NotNull byte[] dataBytes,
+            byte[] currentMessage) throws ApduException, UtilException {
+        if (dataBytes == null) {
+            throw new ApduException(NbtErrorCodes.ERR_DATA_NULL);
+        }
+        NbtApduResponse apduResponse = selectFile(ndefFileId, readPassword,
+                                                  writePassword);
+        if (apduResponse.isSwError()) {
+            return new NdefUpdateResult(apduResponse, 0, 0, 0, 0);
+        }
+
+        // Builds the current and target file images with NLEN.
+        byte[] current;
+        int readCount = 0;
+        if (currentMessage == null) {
+            NdefFileReader reader = new NdefFileReader(this);
+            apduResponse = reader.start();
+            ByteBuffer image = null;
+            if (apduResponse == null) {
+                image = ByteBuffer.allocate(reader.getLength() + 2);
+                image.putShort((short) reader.getLength());
+                apduResponse = readNdefMessage(reader, image);
+            }
+            readCount = reader.getCommandCount();
+            if (apduResponse.isSwError()) {
+                return new NdefUpdateResult(apduResponse, readCount, 0, 0, 0);
+            }
+            current = image.array();
+        } else {
+            current = toNdefFileImage(currentMessage);
+        }
+        byte[] target = toNdefFileImage(dataBytes);
+
+        int maxWriteLength = getMaxWriteLength();
+        int fullWriteCount = NdefFileWriter.getCommandCount(dataBytes.length,
+                                                            maxWriteLength);
+        NdefFileDiff diff = new NdefFileDiff(current, target, maxWriteLength);
+        NdefFileWriter writer = createNdefFileWriter();
+
+        // Writes the range containing NLEN after all other ranges.
+        int count = diff.getCount();
+        int first = ((count > 0) && (diff.getStart(0) <
+                                     NbtConstants.T4T_NDEF_MSG_START_OFFSET))
+                            ? 1
+                            : 0;
+        int writeCount = 0;
+        int bytesWritten = 0;
+        apduResponse = null;
+        for (int i = first; (i < count + first) && (apduResponse == null);
+             i++) {
+            int range = i % count;
+            apduResponse = writer.writeAt(diff.getStart(range), target,
+                                          diff.getStart(range),
+                                          diff.getLength(range));
+            writeCount++;
+            if (apduResponse == null) {
+                bytesWritten += diff.getLength(range);
+            }
+        }
+
+        return new NdefUpdateResult((apduResponse != null)
+                                            ? apduResponse
+                                            : writer.toResponse(),
+                                    readCount, writeCount, fullWriteCount,
+                                    bytesWritten);
+    }
+
+    /**
+     * Updates the NDEF file with default NDEF FileID differentially, see
+     * {@link #updateNdefMessageDifferential(short, byte[], byte[], byte[],
+     * byte[])}.
+     *
+     * @param dataBytes      NDEF message to be written.
+     * @param currentMessage Current NDEF message of the file (Optional - Null
+     *         if it has to be read)
+     * @return Returns the result with the response and the number of commands
+     *         sent and saved.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or build command failure, or if the message exceeds the
+     *         file size.
+     * @throws UtilException Throws an utility exception, in case of issues in
+     *         parsing the select response.
+     */
+    public NdefUpdateResult updateNdefMessageDifferential(
+            @NotNull byte[] dataBytes, byte[] currentMessage)
+            throws ApduException, UtilException {
+        return updateNdefMessageDifferential(NbtConstants.NDEF_FILE_ID, null,
+                                             null, dataBytes, currentMessage);
     }
 
     /**
@@ -777,116 +1122,83 @@ public class NbtCommandSet extends ApduCommandSet {
     }
 
     /**
-     * Reads the NDEF binary file in recursive pattern.
+     * Copies the remaining chunks of the NDEF message into a buffer.
      *
-     * @param offset           Offset position for the read binary file.
-     * @param totalBytesToRead Size of data to be read in bytes.
-     * @return Returns the response with status word.
+     * @param reader Reader of the selected NDEF file.
+     * @param target Buffer receiving the NDEF message at its position.
+     * @return Returns the response with status word and without data.
      * @throws ApduException Throws an APDU exception.
      * @throws UtilException Throws an utility exception, in case of issues in
-     *         parsing the select response.
+     *         building the command.
      */
-    private NbtApduResponse recursiveReadNdefMessage(@NotNull short offset,
-                                                     @NotNull
-                                                     short totalBytesToRead)
+    private NbtApduResponse readNdefMessage(@NotNull NdefFileReader reader,
+                                            @NotNull ByteBuffer target)
             throws ApduException, UtilException {
-        short totalBytesRemainsToRead = (short) (totalBytesToRead - offset);
-        NbtApduResponse apduResponse =
-                readBinary(offset,
-                           (totalBytesRemainsToRead > NbtConstants.MAX_LE)
-                                   ? NbtConstants.MAX_LE
-                                   : totalBytesRemainsToRead);
-
-        if (apduResponse.isSwError()) {
-            return apduResponse;
+        ByteBuffer chunk = reader.next();
+        while ((chunk != null) && chunk.hasRemaining()) {
+            target.put(chunk);
+            chunk = reader.next();
         }
 
-        // Calculates the total bytes to be read from fist two bytes of NDEF
-        // file.
-        if (offset == 0) {
-            // Updates the total_bytes_to_read with first 2 bytes from file.
-            totalBytesToRead =
-                    (short) Utils.getUINT16(apduResponse.getData(),
-                                            NbtConstants.FILE_START_OFFSET);
-            int dataLength = apduResponse.getDataLength() - 2;
-            // If NDEF message size is less than the response length.
-            if (totalBytesToRead < (apduResponse.getDataLength())) {
-                dataLength = (totalBytesToRead);
-            }
-            // Shifts all data by 2-byte left in response data.
-            byte[] data =
-                    Utils.extractBytes(apduResponse.getData(),
-                                       NbtConstants.T4T_NDEF_MSG_START_OFFSET,
-                                       dataLength);
-            data = Utils.concat(data, new byte[] { (byte) 0x90, 0x00 });
-            ApduResponse apduResponse2 =
-                    new ApduResponse(data, apduResponse.getExecutionTime());
-
-            apduResponse = new NbtApduResponse(apduResponse2, (byte) 0);
-            // Calculates the next iteration expected length and offset.
-            offset = (short) (offset + dataLength + 2);
-            // +2 for adding 2 bytes of length.
-            totalBytesToRead += 2;
-        } else {
-            // Calculates next iteration expected length and offset.
-            offset = (short) (offset + apduResponse.getDataLength());
-        }
+        return (chunk == null) ? reader.getError() : reader.toResponse();
+    }
 
-        if (totalBytesToRead > offset) {
-            NbtApduResponse newApduResponse =
-                    recursiveReadNdefMessage(offset, totalBytesToRead);
-            apduResponse.appendResponse(newApduResponse, 0);
-        }
+    /**
+     * Builds the image of the NDEF file with NLEN and the NDEF message.
+     *
+     * @param message NDEF message.
+     * @return Returns the file image.
+     */
+    private static byte[] toNdefFileImage(@NotNull byte[] message) {
+        byte[] image = new byte[message.length + 2];
 
-        return apduResponse;
+        image[0] = (byte) (message.length >> 8);
+        image[1] = (byte) message.length;
+        System.arraycopy(message, 0, image, 2, message.length);
+        return image;
     }
 
     /**
-     * Updates the binary file in a loop.
+     * Creates a writer of the NDEF message into the selected NDEF file.
      *
-     * @param offset    Offset for write the binary file.
-     * @param dataBytes Bytes to be written in the binary file.
-     * @return Returns the response with status word.
-     * @throws ApduException Throws an APDU exception.
-     * @throws UtilException Throws an utility exception, in case of issues in
-     *         parsing the select response.
+     * @return Returns the writer.
+     * @throws ApduException Throws an APDU exception, if building the command
+     *         fails.
+     * @throws UtilException Throws an utility exception, if building the
+     *         command fails.
      */
-    private NbtApduResponse recursiveUpdateBinary(@NotNull short offset,
-                                                  @NotNull byte[] dataBytes)
+    private NdefFileWriter createNdefFileWriter()
             throws ApduException, UtilException {
-        // Adding file size at the beginning of file data.
-        if (offset == 0) {
-            byte[] ndefFileSize = Utils.toBytes(((short) dataBytes.length));
-            dataBytes = Utils.concat(ndefFileSize, dataBytes);
-        }
-
-        // Extracting block of data to be written.
-        int totalRemainingDataSize = dataBytes.length - offset;
-        byte[] dataBlock = Utils.extractBytes(dataBytes, offset,
-                                              (totalRemainingDataSize >
-                                               NbtConstants.MAX_LC)
-                                                      ? NbtConstants.MAX_LC
-                                                      : totalRemainingDataSize);
-
-        // Updates the sub set of data.
-        NbtApduResponse apduResponse = updateBinary(offset, dataBlock);
-
-        if (apduResponse.isSwError()) {
-            return apduResponse;
-        }
+        return new NdefFileWriter(this,
+                                  commandBuilder.updateBinary(
+                                          NbtConstants.FILE_START_OFFSET,
+                                          new byte[0]),
+                                  getMaxWriteLength());
+    }
 
-        // Calculates the next iteration expected offset and total remaining
-        // data size.
-        offset = (short) (offset + dataBlock.length);
-        totalRemainingDataSize = dataBytes.length - offset;
-        // Next iteration is required or not.
-        if (totalRemainingDataSize > 0) {
-            NbtApduResponse newApduResponse = recursiveUpdateBinary(offset,
-                                                                    dataBytes);
-            apduResponse.appendResponse(newApduResponse, 0);
-        }
+    /**
+     * Returns the maximum length of data read by one read binary command. The
+     * length is taken from the channel, so extended length APDUs are used if
+     * indicated by the ATR of the card.
+     *
+     * @return Returns the maximum expected length.
+     */
+    /* default */ short getMaxReadLength() {
+        // at least the 2-byte NDEF message length is read at once
+        return (short) Math.max(NbtConstants.T4T_NDEF_MSG_START_OFFSET,
+                                Math.min(apduChannel.getMaxLe(),
+                                         Short.MAX_VALUE));
+    }
 
-        return apduResponse;
+    /**
+     * Returns the maximum length of data written by one update binary command.
+     * The length is taken from the channel, so extended length APDUs are used
+     * if indicated by the ATR of the card.
+     *
+     * @return Returns the maximum data length.
+     */
+    private int getMaxWriteLength() {
+        return Math.max(1, Math.min(apduChannel.getMaxLc(), Short.MAX_VALUE));
     }
 
     /**
@@ -901,7 +1213,37 @@ public class NbtCommandSet extends ApduCommandSet {
      */
     private NbtApduResponse sendCommand(@NotNull ApduCommand command)
             throws ApduException {
+        switch ((byte) command.getINS()) {
+        case NbtConstants.INS_UPDATE_BINARY:
+        case NbtConstants.INS_CREATE_PWD:
+        case NbtConstants.INS_DELETE_PWD:
+        case NbtConstants.INS_CHANGE_PASSWORD:
+            // file access policies or passwords may change
+            invalidateFileSelection();
+            break;
+
+        default:
+            break;
+        }
+
         ApduResponse apduResponse = super.send(command);
         return new NbtApduResponse(apduResponse, (byte) command.getINS());
     }
-}
\ No newline at end of file
+
+    /**
+     * Sends a SELECT command unless the application or file is already
+     * selected with the same parameters, see
+     * {@link ApduCommandSet#sendSelect(ApduCommand)}.
+     *
+     * @param command SELECT command.
+     * @return Returns the response with status word.
+     * @throws ApduException Throws an APDU exception, in case of communication
+     *         problems or if command object cannot be converted into a byte
+     *         stream.
+     */
+    private NbtApduResponse sendSelectCommand(@NotNull ApduCommand command)
+            throws ApduException {
+        ApduResponse apduResponse = sendSelect(command);
+        return new NbtApduResponse(apduResponse, (byte) command.getINS());
+    }
+}
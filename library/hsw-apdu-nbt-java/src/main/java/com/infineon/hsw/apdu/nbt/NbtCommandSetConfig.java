@@ -71,7 +71,9 @@ public class NbtCommandSetConfig extends ApduCommandSet {
     public NbtApduResponse selectConfiguratorApplication()
             throws ApduException {
         logger.info(LOG_MESSAGE_SELECT_AID_CONFIGURATOR);
-        return sendCommand(commandBuilder.selectConfiguratorApplication());
+        ApduCommand command = commandBuilder.selectConfiguratorApplication();
+        return new NbtApduResponse(sendSelect(command),
+                                   (byte) command.getINS());
     }
 
     /**
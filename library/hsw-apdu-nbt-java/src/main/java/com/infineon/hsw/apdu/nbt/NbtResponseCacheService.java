@@ -0,0 +1,51 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.apdu.ApduChannel;
+import com.infineon.hsw.apdu.ResponseCacheService;
+
+/**
+ * Response cache preconfigured for the NBT command sets. SELECT by AID, GET
+ * DATA (e.g. applet version and available memory) and GET CONFIGURATION
+ * responses are cached. UPDATE BINARY, SET CONFIGURATION, PERSONALIZE DATA
+ * and the password management commands invalidate the cache.
+ * <p>
+ * The service is registered at the command set, e.g.
+ * {@code commandSet.registerService(new NbtResponseCacheService(channel))}.
+ */
+public class NbtResponseCacheService extends ResponseCacheService {
+    /**
+     * Create a cache for commands sent on the basic logical channel.
+     *
+     * @param channel channel the commands are sent on.
+     */
+    public NbtResponseCacheService(ApduChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * Create a cache for commands sent on a logical channel.
+     *
+     * @param channel    channel the commands are sent on.
+     * @param logChannel number of logical channel (0 = basic logical
+     *         channel).
+     */
+    public NbtResponseCacheService(ApduChannel channel, int logChannel) {
+        super(channel, logChannel);
+
+        addCacheable(NbtConstants.INS_SELECT,
+                     NbtConstants.P1_SELECT_APPLICATION, ANY);
+        // GET DATA and GET CONFIGURATION share the instruction byte
+        addCacheable(NbtConstants.INS_GET_DATA, ANY, ANY);
+
+        addInvalidating(NbtConstants.INS_UPDATE_BINARY, ANY, ANY);
+        addInvalidating(NbtConstants.INS_SET_CONFIGURATION, ANY, ANY);
+        addInvalidating(NbtConstants.INS_PERSONALIZE_DATA, ANY, ANY);
+        addInvalidating(NbtConstants.INS_CREATE_PWD, ANY, ANY);
+        addInvalidating(NbtConstants.INS_DELETE_PWD, ANY, ANY);
+        addInvalidating(NbtConstants.INS_CHANGE_PASSWORD, ANY, ANY);
+    }
+}
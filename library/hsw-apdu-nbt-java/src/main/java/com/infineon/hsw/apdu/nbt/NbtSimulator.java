@@ -0,0 +1,943 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.apdu.ApduCommand;
+import com.infineon.hsw.apdu.ApduException;
+import com.infineon.hsw.apdu.ApduResponse;
+import com.infineon.hsw.utils.Tlv;
+import com.infineon.hsw.utils.TlvParser;
+import com.infineon.hsw.utils.UtilException;
+import com.infineon.hsw.utils.Utils;
+import com.infineon.hsw.utils.annotation.NotNull;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory model of the OPTIGA Authenticate NBT applet and its configurator
+ * application. The simulator processes command APDUs and returns response
+ * APDUs like the applet does, without any reader or secure element attached.
+ * It covers application selection, file selection with read and write
+ * passwords, READ BINARY and UPDATE BINARY on the NDEF, proprietary and FAP
+ * files, password management, GET DATA, personalization and the configurator
+ * commands. The simulator is deterministic: the same command sequence always
+ * results in the same responses. All methods are thread-safe.
+ */
+public class NbtSimulator {
+    /** Size of the NDEF file in bytes */
+    public static final int NDEF_FILE_SIZE = 4096;
+
+    /** Size of a proprietary file in bytes */
+    public static final int PROPRIETARY_FILE_SIZE = 1024;
+
+    /** Status word if the retry limit of a password is exhausted */
+    private static final int SW_AUTHENTICATION_BLOCKED = 0x6983;
+
+    /** Status word if the offset is outside of the file */
+    private static final int SW_WRONG_OFFSET = 0x6B00;
+
+    /** DGI finalizing the personalization */
+    private static final short DGI_FINALIZE = (short) 0xBF63;
+
+    /** Answer to reset of the simulated secure element (T=1) */
+    private static final byte[] ATR = { (byte) 0x3B, (byte) 0x80, (byte) 0x80,
+                                        (byte) 0x01, (byte) 0x01 };
+
+    /** Tag of the FCI template in GET DATA responses */
+    private static final int TAG_FCI = 0x6F;
+
+    /** Tags of the available memory information */
+    private static final int TAG_NVM_MEMORY = 0xC6;
+    private static final int TAG_COR_MEMORY = 0xC7;
+    private static final int TAG_COD_MEMORY = 0xC8;
+
+    /** Length of a FAP record (file ID and four access bytes) */
+    private static final int FAP_RECORD_LENGTH = 6;
+
+    /** Default access byte granting access always */
+    private static final byte ACCESS_ALWAYS = (byte) 0x40;
+
+    /** Flag of a password protected access byte */
+    private static final byte ACCESS_PASSWORD = (byte) 0x80;
+
+    /** Offsets of the access bytes within a FAP entry */
+    private static final int ACCESS_I2C_READ = 0;
+    private static final int ACCESS_I2C_WRITE = 1;
+    private static final int ACCESS_NFC_READ = 2;
+    private static final int ACCESS_NFC_WRITE = 3;
+
+    /** Selectable applications */
+    private enum Application { NONE, NBT, CONFIGURATOR }
+
+    /** Contents of the binary files by file ID (FAP file excluded) */
+    private final Map<Short, byte[]> files = new TreeMap<>();
+
+    /** Access bytes of the files by file ID */
+    private final Map<Short, byte[]> policies = new TreeMap<>();
+
+    /** Passwords by password ID */
+    private final Map<Byte, Password> passwords = new HashMap<>();
+
+    /** Configuration values by configuration tag */
+    private final Map<Short, byte[]> configuration = new TreeMap<>();
+
+    /** Opaque personalization data (keys and certificates) by DGI */
+    private final Map<Short, byte[]> personalization = new HashMap<>();
+
+    /** Marker if the access conditions of the I2C interface apply */
+    private boolean i2cInterface;
+
+    /** Applet version returned by GET DATA */
+    private byte[] appletVersion = { 0x01, 0x00, 0x00, 0x01 };
+
+    /** Available memory returned by GET DATA (NVM, COR, COD) */
+    private int[] availableMemory = { 0x2000, 0x0200, 0x0200 };
+
+    /** Currently selected application */
+    private Application selectedApplication = Application.NONE;
+
+    /** Currently selected file or null if no file is selected */
+    private Short selectedFile;
+
+    /** Marker if the read password of the selected file has been verified */
+    private boolean readGranted;
+
+    /** Marker if the write password of the selected file has been verified */
+    private boolean writeGranted;
+
+    /**
+     * Create a simulator in operational state. All files grant read and write
+     * access always, no passwords exist and the NDEF file contains an empty
+     * NDEF message.
+     */
+    public NbtSimulator() {
+        byte[] always = { ACCESS_ALWAYS, ACCESS_ALWAYS, ACCESS_ALWAYS,
+                          ACCESS_ALWAYS };
+
+        files.put(NbtConstants.NDEF_FILE_ID, new byte[NDEF_FILE_SIZE]);
+        for (short fileId = (short) 0xE1A1; fileId <= (short) 0xE1A4;
+             fileId++) {
+            files.put(fileId, new byte[PROPRIETARY_FILE_SIZE]);
+        }
+
+        for (Short fileId : files.keySet()) {
+            policies.put(fileId, always.clone());
+        }
+        policies.put(NbtConstants.FAP_FILE_ID, always.clone());
+
+        for (NbtConstants.ConfigurationTags tag :
+             NbtConstants.ConfigurationTags.values()) {
+            configuration.put(tag.getTag(), new byte[tag.getLength()]);
+        }
+        configuration.put(NbtConstants.ConfigurationTags.TAG_PRODUCT_LIFE_CYCLE
+                                  .getTag(),
+                          Utils.toBytes(NbtConstants.ConfigProductLifeCycleState
+                                                .PRODUCT_LIFE_CYCLE_OPERATIONAL
+                                                .getValue(),
+                                        2));
+        configuration.put(
+                NbtConstants.ConfigurationTags.TAG_PRODUCT_SHORT_NAME.getTag(),
+                Arrays.copyOf("NBT2000".getBytes(),
+                              NbtConstants.ConfigurationTags
+                                      .TAG_PRODUCT_SHORT_NAME.getLength()));
+    }
+
+    /**
+     * Return the answer to reset of the simulated secure element.
+     *
+     * @return byte array with ATR.
+     */
+    public byte[] getAtr() {
+        return ATR.clone();
+    }
+
+    /**
+     * Reset the volatile state as done by a power cycle: the application and
+     * file selection and all verified passwords are cleared. Persistent data
+     * like files, passwords and configuration is kept.
+     */
+    public synchronized void reset() {
+        selectedApplication = Application.NONE;
+        selectFile(null);
+    }
+
+    /**
+     * Select whether the I2C or the NFC access conditions of the file access
+     * policy are enforced. By default the NFC access conditions apply.
+     *
+     * @param i2c true to enforce the I2C access conditions.
+     */
+    public synchronized void setI2cInterface(boolean i2c) {
+        this.i2cInterface = i2c;
+    }
+
+    /**
+     * Set the applet version returned by GET DATA.
+     *
+     * @param major major version.
+     * @param minor minor version.
+     * @param build build number.
+     */
+    public synchronized void setAppletVersion(int major, int minor,
+                                              int build) {
+        appletVersion = new byte[] { (byte) major, (byte) minor,
+                                     (byte) (build >> 8), (byte) build };
+    }
+
+    /**
+     * Set the available memory returned by GET DATA.
+     *
+     * @param nvm available non-volatile memory.
+     * @param cor available transient memory cleared on reset.
+     * @param cod available transient memory cleared on deselect.
+     */
+    public synchronized void setAvailableMemory(int nvm, int cor, int cod) {
+        availableMemory = new int[] { nvm, cor, cod };
+    }
+
+    /**
+     * Return a copy of the content of a binary file.
+     *
+     * @param fileId file ID of NDEF, proprietary or FAP file.
+     * @return copy of file content or null if file does not exist.
+     */
+    public synchronized byte[] getFileContent(short fileId) {
+        if (fileId == NbtConstants.FAP_FILE_ID)
+            return encodeFap();
+
+        byte[] content = files.get(fileId);
+        return (content == null) ? null : content.clone();
+    }
+
+    /**
+     * Overwrite the content of a binary file starting at offset zero without
+     * checking any access condition.
+     *
+     * @param fileId  file ID of NDEF or proprietary file.
+     * @param content new content, must not exceed the file size.
+     * @throws IllegalArgumentException if the file does not exist or the
+     *         content is too large.
+     */
+    public synchronized void setFileContent(short fileId,
+                                            @NotNull byte[] content) {
+        byte[] file = files.get(fileId);
+        if ((file == null) || (content.length > file.length))
+            throw new IllegalArgumentException(
+                    "Unknown file or content too large");
+
+        Arrays.fill(file, (byte) 0);
+        System.arraycopy(content, 0, file, 0, content.length);
+    }
+
+    /**
+     * Return a copy of a configuration value.
+     *
+     * @param tag configuration tag.
+     * @return copy of configuration value or null if tag is unknown.
+     */
+    public synchronized byte[] getConfigValue(short tag) {
+        byte[] value = configuration.get(tag);
+        return (value == null) ? null : value.clone();
+    }
+
+    /**
+     * Process a command APDU and return the response APDU.
+     *
+     * @param command byte array with command APDU.
+     * @return byte array with response data and status word.
+     */
+    public synchronized byte[] process(@NotNull byte[] command) {
+        ApduCommand apdu;
+
+        try {
+            apdu = new ApduCommand(command);
+        } catch (ApduException e) {
+            return status(NbtErrorCodes.INCORRECT_LC_LE);
+        }
+
+        try {
+            if ((apdu.getINS() & 0xFF) == (NbtConstants.INS_SELECT & 0xFF)) {
+                if ((apdu.getCLA() & 0xFC) != NbtConstants.CLA)
+                    return status(NbtErrorCodes.CLA_NOT_SUPPORTED);
+                return processSelect(apdu);
+            }
+
+            switch (selectedApplication) {
+            case NBT:
+                return processNbt(apdu);
+
+            case CONFIGURATOR:
+                return processConfigurator(apdu);
+
+            default:
+                return status(NbtErrorCodes.INS_NOT_SUPPORTED);
+            }
+        } catch (UtilException e) {
+            return status(NbtErrorCodes.INCORRECT_DATA);
+        }
+    }
+
+    /**
+     * Helper method processing SELECT by AID and SELECT FILE.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processSelect(ApduCommand apdu) {
+        byte[] data = apdu.getData();
+
+        if ((byte) apdu.getP1() == NbtConstants.P1_SELECT_APPLICATION) {
+            selectFile(null);
+            if (Arrays.equals(data, NbtConstants.AID)) {
+                selectedApplication = Application.NBT;
+            } else if (Arrays.equals(data, NbtConstants.CONFIGURATOR_AID)) {
+                selectedApplication = Application.CONFIGURATOR;
+            } else {
+                selectedApplication = Application.NONE;
+                return status(NbtErrorCodes.APPLICATION_OR_FILE_NOT_FOUND);
+            }
+            return status(ApduResponse.SW_NO_ERROR);
+        }
+
+        if (selectedApplication != Application.NBT)
+            return status(NbtErrorCodes.APPLICATION_OR_FILE_NOT_FOUND);
+
+        if (((byte) apdu.getP1() != NbtConstants.P1_DEFAULT) ||
+            ((byte) apdu.getP2() != NbtConstants.P2_SELECT_FIRST))
+            return status(NbtErrorCodes.WRONG_P1_P2);
+
+        if (data.length < NbtConstants.FILE_ID_LENGTH)
+            return status(NbtErrorCodes.INCORRECT_LC_LE);
+
+        short fileId = (short) Utils.getUINT16(data, 0);
+        if (!policies.containsKey(fileId)) {
+            selectFile(null);
+            return status(NbtErrorCodes.APPLICATION_OR_FILE_NOT_FOUND);
+        }
+
+        // parse optional password TLVs
+        byte[] readPassword = null;
+        byte[] writePassword = null;
+        int offset = NbtConstants.FILE_ID_LENGTH;
+        while (offset < data.length) {
+            if ((offset + 2 + NbtConstants.PWD_LENGTH > data.length) ||
+                (data[offset + 1] != NbtConstants.PWD_LENGTH))
+                return status(NbtErrorCodes.SELECT_FILE_WRONG_TLV);
+
+            byte[] value = Arrays.copyOfRange(data, offset + 2,
+                                              offset + 2 +
+                                                      NbtConstants.PWD_LENGTH);
+            if (data[offset] == NbtConstants.TAG_PWD_READ) {
+                readPassword = value;
+            } else if (data[offset] == NbtConstants.TAG_PWD_WRITE) {
+                writePassword = value;
+            } else {
+                return status(NbtErrorCodes.SELECT_FILE_WRONG_TLV);
+            }
+            offset += 2 + NbtConstants.PWD_LENGTH;
+        }
+
+        selectFile(fileId);
+
+        // verify passwords and collect the password responses
+        byte[] response = new byte[0];
+        if (readPassword != null) {
+            byte access = getAccess(fileId, false);
+            if (isPasswordProtected(access)) {
+                int sw = verify(access, readPassword);
+                if (sw != ApduResponse.SW_NO_ERROR)
+                    return status(sw);
+                readGranted = true;
+                response = Utils.concat(response,
+                                        passwords.get(passwordId(access))
+                                                .response);
+            }
+        }
+        if (writePassword != null) {
+            byte access = getAccess(fileId, true);
+            if (isPasswordProtected(access)) {
+                int sw = verify(access, writePassword);
+                if (sw != ApduResponse.SW_NO_ERROR)
+                    return status(sw);
+                writeGranted = true;
+                response = Utils.concat(response,
+                                        passwords.get(passwordId(access))
+                                                .response);
+            }
+        }
+
+        return response(response, ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method processing the commands of the NBT application.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     * @throws UtilException if command data cannot be parsed.
+     */
+    private byte[] processNbt(ApduCommand apdu) throws UtilException {
+        if ((apdu.getCLA() & 0xFC) != NbtConstants.CLA)
+            return status(NbtErrorCodes.CLA_NOT_SUPPORTED);
+
+        switch ((byte) apdu.getINS()) {
+        case NbtConstants.INS_READ_BINARY:
+            return processReadBinary(apdu);
+
+        case NbtConstants.INS_UPDATE_BINARY:
+            return processUpdateBinary(apdu);
+
+        case NbtConstants.INS_CREATE_PWD:
+            return processCreatePassword(apdu);
+
+        case NbtConstants.INS_DELETE_PWD:
+            return processDeletePassword(apdu);
+
+        case NbtConstants.INS_CHANGE_PASSWORD:
+            return processChangeOrUnblockPassword(apdu);
+
+        case NbtConstants.INS_GET_DATA:
+            return processGetData(apdu);
+
+        case NbtConstants.INS_AUTHENTICATE_TAG:
+            return processAuthenticateTag(apdu);
+
+        case NbtConstants.INS_PERSONALIZE_DATA:
+            return processPersonalizeData(apdu);
+
+        default:
+            return status(NbtErrorCodes.INS_NOT_SUPPORTED);
+        }
+    }
+
+    /**
+     * Helper method processing READ BINARY.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processReadBinary(ApduCommand apdu) {
+        if (selectedFile == null)
+            return status(NbtErrorCodes.COMMAND_NOT_ALLOWED);
+
+        int sw = checkAccess(false);
+        if (sw != ApduResponse.SW_NO_ERROR)
+            return status(sw);
+
+        byte[] content = (selectedFile == NbtConstants.FAP_FILE_ID)
+                                 ? encodeFap()
+                                 : files.get(selectedFile);
+        int offset = ((apdu.getP1() & 0xFF) << 8) | (apdu.getP2() & 0xFF);
+        if (offset > content.length)
+            return status(SW_WRONG_OFFSET);
+
+        int length = Math.min(apdu.getLe(), content.length - offset);
+        return response(Arrays.copyOfRange(content, offset, offset + length),
+                        ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method processing UPDATE BINARY. Updates of the FAP file replace
+     * the access conditions of the files given by the written records.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processUpdateBinary(ApduCommand apdu) {
+        if (selectedFile == null)
+            return status(NbtErrorCodes.COMMAND_NOT_ALLOWED);
+
+        int sw = checkAccess(true);
+        if (sw != ApduResponse.SW_NO_ERROR)
+            return status(sw);
+
+        byte[] data = apdu.getData();
+        int offset = ((apdu.getP1() & 0xFF) << 8) | (apdu.getP2() & 0xFF);
+
+        if (selectedFile == NbtConstants.FAP_FILE_ID)
+            return updatePolicies(data);
+
+        byte[] content = files.get(selectedFile);
+        if (offset + data.length > content.length)
+            return status(SW_WRONG_OFFSET);
+
+        System.arraycopy(data, 0, content, offset, data.length);
+        return status(ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method processing CREATE PASSWORD.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processCreatePassword(ApduCommand apdu) {
+        byte[] data = apdu.getData();
+        int length = 1 + NbtConstants.PWD_LENGTH + 4;
+
+        if ((data.length != length) &&
+            (data.length != length + NbtConstants.PWD_LENGTH))
+            return status(NbtErrorCodes.INCORRECT_LC_LE);
+
+        int offset = data.length - length;
+        int sw = checkMasterPassword(Arrays.copyOf(data, offset));
+        if (sw != ApduResponse.SW_NO_ERROR)
+            return status(sw);
+
+        byte id = data[offset];
+        if ((id <= 0) || (id > NbtConstants.PASSWORD_ID_MASK))
+            return status(NbtErrorCodes.INCORRECT_DATA);
+        if (passwords.containsKey(id))
+            return status(
+                    NbtErrorCodes.CONDITIONS_NOT_SATISFIED_CREATE_PASSWORD);
+
+        offset++;
+        Password password = new Password(
+                Arrays.copyOfRange(data, offset,
+                                   offset + NbtConstants.PWD_LENGTH),
+                Arrays.copyOfRange(data, offset + NbtConstants.PWD_LENGTH,
+                                   offset + NbtConstants.PWD_LENGTH + 2),
+                Utils.getUINT16(data, offset + NbtConstants.PWD_LENGTH + 2));
+        passwords.put(id, password);
+
+        return status(ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method processing DELETE PASSWORD.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processDeletePassword(ApduCommand apdu) {
+        int sw = checkMasterPassword(apdu.getData());
+        if (sw != ApduResponse.SW_NO_ERROR)
+            return status(sw);
+
+        byte id = (byte) (apdu.getP2() & NbtConstants.PASSWORD_ID_MASK);
+        if (passwords.remove(id) == null)
+            return status(NbtErrorCodes.DATA_NOT_FOUND);
+
+        return status(ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method processing CHANGE PASSWORD and UNBLOCK PASSWORD which
+     * share the instruction byte and differ in P2.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processChangeOrUnblockPassword(ApduCommand apdu) {
+        byte[] data = apdu.getData();
+        boolean change = (apdu.getP2() & NbtConstants.P2_CHANGE_PWD) != 0;
+        int newLength = change ? NbtConstants.PWD_LENGTH : 0;
+
+        if ((data.length != newLength) &&
+            (data.length != newLength + NbtConstants.PWD_LENGTH))
+            return status(NbtErrorCodes.INCORRECT_LC_LE);
+
+        int sw = checkMasterPassword(
+                Arrays.copyOf(data, data.length - newLength));
+        if (sw != ApduResponse.SW_NO_ERROR)
+            return status(sw);
+
+        Password password = passwords.get(
+                (byte) (apdu.getP2() & NbtConstants.PASSWORD_ID_MASK));
+        if (password == null)
+            return status(NbtErrorCodes.DATA_NOT_FOUND);
+
+        if (change) {
+            password.value = Arrays.copyOfRange(data, data.length - newLength,
+                                                data.length);
+        }
+        password.remaining = password.limit;
+
+        return status(ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method processing GET DATA for applet version and available
+     * memory.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     * @throws UtilException if response TLVs cannot be built.
+     */
+    private byte[] processGetData(ApduCommand apdu) throws UtilException {
+        short tag = (short) (((apdu.getP1() & 0xFF) << 8) |
+                             (apdu.getP2() & 0xFF));
+        byte[] value;
+
+        if (tag == NbtConstants.TAG_APPLET_VERSION) {
+            value = appletVersion;
+        } else if (tag == NbtConstants.TAG_AVAILABLE_MEMORY) {
+            value = Utils.concat(
+                    Tlv.buildTlv(TAG_NVM_MEMORY,
+                                 Utils.toBytes(availableMemory[0], 2), false),
+                    Utils.concat(Tlv.buildTlv(TAG_COR_MEMORY,
+                                              Utils.toBytes(availableMemory[1],
+                                                            2),
+                                              false),
+                                 Tlv.buildTlv(TAG_COD_MEMORY,
+                                              Utils.toBytes(availableMemory[2],
+                                                            2),
+                                              false)));
+        } else {
+            return status(NbtErrorCodes.DATA_NOT_FOUND);
+        }
+
+        return response(Tlv.buildTlv(TAG_FCI,
+                                     Tlv.buildTlv(tag & 0xFFFF, value, false),
+                                     false),
+                        ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method processing AUTHENTICATE TAG. The simulator has no key
+     * material, the response is a deterministic digest of the challenge and
+     * not a verifiable signature.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processAuthenticateTag(ApduCommand apdu) {
+        if (apdu.getData().length == 0)
+            return status(NbtErrorCodes.INCORRECT_LC_LE);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return response(digest.digest(apdu.getData()),
+                            ApduResponse.SW_NO_ERROR);
+        } catch (NoSuchAlgorithmException e) {
+            return status(NbtErrorCodes.CONDITIONS_NOT_SATISFIED);
+        }
+    }
+
+    /**
+     * Helper method processing PERSONALIZE DATA. Personalization is only
+     * possible while the product life cycle is in personalization state. The
+     * file DGIs replace the file content, the FAP DGI replaces the access
+     * conditions and the finalize DGI switches to operational state.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     */
+    private byte[] processPersonalizeData(ApduCommand apdu) {
+        byte[] data = apdu.getData();
+        short lifeCycle = (short) Utils.getUINT16(
+                configuration.get(NbtConstants.ConfigurationTags
+                                          .TAG_PRODUCT_LIFE_CYCLE.getTag()),
+                0);
+
+        if (lifeCycle != NbtConstants.ConfigProductLifeCycleState
+                                 .PRODUCT_LIFE_CYCLE_PERSONALIZATION
+                                 .getValue())
+            return status(NbtErrorCodes.CONDITIONS_USE_UNSATISFIED);
+
+        if ((data.length < 3) || ((data[2] & 0xFF) != data.length - 3))
+            return status(NbtErrorCodes.INVALID_LC_PERSONALIZE_DATA);
+
+        short dgi = (short) Utils.getUINT16(data, 0);
+        byte[] value = Arrays.copyOfRange(data, 3, data.length);
+
+        if (dgi == DGI_FINALIZE) {
+            int operational = NbtConstants.ConfigProductLifeCycleState
+                                      .PRODUCT_LIFE_CYCLE_OPERATIONAL
+                                      .getValue();
+
+            configuration.put(NbtConstants.ConfigurationTags
+                                      .TAG_PRODUCT_LIFE_CYCLE.getTag(),
+                              Utils.toBytes(operational, 2));
+            return status(ApduResponse.SW_NO_ERROR);
+        }
+
+        if (dgi == NbtConstants.FAP_FILE_ID)
+            return updatePolicies(value);
+
+        byte[] content = files.get(dgi);
+        if (content != null) {
+            if (value.length > content.length)
+                return status(NbtErrorCodes.INCORRECT_DATA);
+            System.arraycopy(value, 0, content, 0, value.length);
+            return status(ApduResponse.SW_NO_ERROR);
+        }
+
+        for (NbtCommandBuilderPerso.Personalize_Data_Dgi known :
+             NbtCommandBuilderPerso.Personalize_Data_Dgi.values()) {
+            if (known.getDgi() == dgi) {
+                personalization.put(dgi, value);
+                return status(ApduResponse.SW_NO_ERROR);
+            }
+        }
+
+        return status(NbtErrorCodes.UNSUPPORTED_DATA);
+    }
+
+    /**
+     * Helper method processing the commands of the configurator application.
+     *
+     * @param apdu command APDU.
+     * @return response APDU.
+     * @throws UtilException if command data cannot be parsed.
+     */
+    private byte[] processConfigurator(ApduCommand apdu) throws UtilException {
+        if ((byte) apdu.getCLA() != NbtConstants.CLA_CONFIGURATION)
+            return status(NbtErrorCodes.CLA_NOT_SUPPORTED);
+
+        byte[] data = apdu.getData();
+        switch ((byte) apdu.getINS()) {
+        case NbtConstants.INS_SET_CONFIGURATION: {
+            List<Object> tlvs = new TlvParser(data).parseDgiTlvStructure();
+            if (tlvs.size() != 1)
+                return status(NbtErrorCodes.INCORRECT_DATA);
+
+            Tlv tlv = (Tlv) tlvs.get(0);
+            byte[] current = configuration.get((short) tlv.getTag());
+            if (current == null)
+                return status(NbtErrorCodes.DATA_NOT_FOUND);
+            if (current.length != tlv.getValue().length)
+                return status(NbtErrorCodes.INCORRECT_DATA);
+
+            configuration.put((short) tlv.getTag(), tlv.getValue());
+            return status(ApduResponse.SW_NO_ERROR);
+        }
+
+        case NbtConstants.INS_GET_CONFIGURATION: {
+            if (data.length != 2)
+                return status(NbtErrorCodes.INCORRECT_LC_LE);
+
+            short tag = (short) Utils.getUINT16(data, 0);
+            byte[] value = configuration.get(tag);
+            if (value == null)
+                return status(NbtErrorCodes.DATA_NOT_FOUND);
+
+            return response(Tlv.buildDgiTlv(tag, value),
+                            ApduResponse.SW_NO_ERROR);
+        }
+
+        default:
+            return status(NbtErrorCodes.INS_NOT_SUPPORTED);
+        }
+    }
+
+    /**
+     * Helper method to change the file selection and to clear the verified
+     * passwords.
+     *
+     * @param fileId file ID of selected file or null.
+     */
+    private void selectFile(Short fileId) {
+        selectedFile = fileId;
+        readGranted = false;
+        writeGranted = false;
+    }
+
+    /**
+     * Helper method to get the access byte of a file for the active interface.
+     *
+     * @param fileId file ID.
+     * @param write  true for write access, false for read access.
+     * @return access byte.
+     */
+    private byte getAccess(short fileId, boolean write) {
+        byte[] access = policies.get(fileId);
+
+        if (i2cInterface)
+            return access[write ? ACCESS_I2C_WRITE : ACCESS_I2C_READ];
+        return access[write ? ACCESS_NFC_WRITE : ACCESS_NFC_READ];
+    }
+
+    /**
+     * Helper method to check the access condition of the selected file.
+     *
+     * @param write true for write access, false for read access.
+     * @return SW_NO_ERROR if access is granted or error status word.
+     */
+    private int checkAccess(boolean write) {
+        byte access = getAccess(selectedFile, write);
+
+        if (access == ACCESS_ALWAYS)
+            return ApduResponse.SW_NO_ERROR;
+        if (isPasswordProtected(access) && (write ? writeGranted : readGranted))
+            return ApduResponse.SW_NO_ERROR;
+
+        return NbtErrorCodes.SECURITY_NOT_SATISFIED;
+    }
+
+    /**
+     * Helper method to check the master password, i.e. the password
+     * protecting write access to the FAP file.
+     *
+     * @param masterPassword given master password, empty if none is given.
+     * @return SW_NO_ERROR if the master password is valid or not required or
+     *         error status word.
+     */
+    private int checkMasterPassword(byte[] masterPassword) {
+        byte access = getAccess(NbtConstants.FAP_FILE_ID, true);
+
+        if (access == ACCESS_ALWAYS)
+            return ApduResponse.SW_NO_ERROR;
+        if (!isPasswordProtected(access) || (masterPassword.length == 0))
+            return NbtErrorCodes.SECURITY_NOT_SATISFIED;
+
+        return verify(access, masterPassword);
+    }
+
+    /**
+     * Helper method to verify a password against a password protected access
+     * condition. Failed verifications decrement the retry counter.
+     *
+     * @param access   password protected access byte.
+     * @param password given password.
+     * @return SW_NO_ERROR if the password matches or error status word.
+     */
+    private int verify(byte access, byte[] password) {
+        Password expected = passwords.get(passwordId(access));
+
+        if (expected == null)
+            return NbtErrorCodes.SECURITY_NOT_SATISFIED;
+        if (expected.remaining == 0)
+            return SW_AUTHENTICATION_BLOCKED;
+
+        if (!MessageDigest.isEqual(expected.value, password)) {
+            expected.remaining--;
+            return NbtErrorCodes.SECURITY_NOT_SATISFIED;
+        }
+
+        expected.remaining = expected.limit;
+        return ApduResponse.SW_NO_ERROR;
+    }
+
+    /**
+     * Helper method to replace access conditions by FAP records.
+     *
+     * @param records concatenated FAP records.
+     * @return response APDU.
+     */
+    private byte[] updatePolicies(byte[] records) {
+        if ((records.length == 0) || (records.length % FAP_RECORD_LENGTH != 0))
+            return status(NbtErrorCodes.INCORRECT_LC_LE);
+
+        // validate all records before applying any of them
+        for (int offset = 0; offset < records.length;
+             offset += FAP_RECORD_LENGTH) {
+            if (!policies.containsKey((short) Utils.getUINT16(records, offset)))
+                return status(NbtErrorCodes.INCORRECT_DATA);
+        }
+
+        for (int offset = 0; offset < records.length;
+             offset += FAP_RECORD_LENGTH) {
+            int start = offset + NbtConstants.FILE_ID_LENGTH;
+
+            policies.put((short) Utils.getUINT16(records, offset),
+                         Arrays.copyOfRange(records, start,
+                                            offset + FAP_RECORD_LENGTH));
+        }
+
+        return status(ApduResponse.SW_NO_ERROR);
+    }
+
+    /**
+     * Helper method to encode the FAP file content.
+     *
+     * @return concatenated FAP records of all files.
+     */
+    private byte[] encodeFap() {
+        byte[] fap = new byte[policies.size() * FAP_RECORD_LENGTH];
+        int offset = 0;
+
+        for (Map.Entry<Short, byte[]> policy : policies.entrySet()) {
+            fap[offset] = (byte) (policy.getKey() >> 8);
+            fap[offset + 1] = (byte) (short) policy.getKey();
+            System.arraycopy(policy.getValue(), 0, fap,
+                             offset + NbtConstants.FILE_ID_LENGTH,
+                             policy.getValue().length);
+            offset += FAP_RECORD_LENGTH;
+        }
+
+        return fap;
+    }
+
+    /**
+     * Helper method checking for a password protected access byte.
+     *
+     * @param access access byte.
+     * @return true if access is password protected.
+     */
+    private static boolean isPasswordProtected(byte access) {
+        return (access & ACCESS_PASSWORD) != 0;
+    }
+
+    /**
+     * Helper method to extract the password ID from an access byte.
+     *
+     * @param access password protected access byte.
+     * @return password ID.
+     */
+    private static byte passwordId(byte access) {
+        return (byte) (access & NbtConstants.PASSWORD_ID_MASK);
+    }
+
+    /**
+     * Helper method to build a response without data.
+     *
+     * @param sw status word.
+     * @return response APDU.
+     */
+    private static byte[] status(int sw) {
+        return response(new byte[0], sw);
+    }
+
+    /**
+     * Helper method to build a response.
+     *
+     * @param data response data.
+     * @param sw   status word.
+     * @return response APDU.
+     */
+    private static byte[] response(byte[] data, int sw) {
+        byte[] response = Arrays.copyOf(data, data.length + 2);
+        response[data.length] = (byte) (sw >> 8);
+        response[data.length + 1] = (byte) sw;
+        return response;
+    }
+
+    /**
+     * Password created with CREATE PASSWORD.
+     */
+    private static final class Password {
+        /** Password value */
+        private byte[] value;
+
+        /** Password response returned after successful verification */
+        private final byte[] response;
+
+        /** Maximum number of consecutive failed verifications */
+        private final int limit;
+
+        /** Remaining number of failed verifications */
+        private int remaining;
+
+        /**
+         * Constructor.
+         *
+         * @param value    password value.
+         * @param response password response.
+         * @param limit    retry limit.
+         */
+        private Password(byte[] value, byte[] response, int limit) {
+            this.value = value;
+            this.response = response;
+            this.limit = limit;
+            this.remaining = limit;
+        }
+    }
+}
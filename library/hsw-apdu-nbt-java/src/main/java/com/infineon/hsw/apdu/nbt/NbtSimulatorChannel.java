@@ -0,0 +1,238 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.channel.ChannelException;
+import com.infineon.hsw.channel.IChannel;
+import com.infineon.hsw.utils.annotation.NotNull;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Communication channel connected to an in-memory NBT simulator. The channel
+ * needs no reader and can be used to benchmark and regression test the NBT
+ * command sets. Exchange latency, jitter and communication errors can be
+ * injected. All random decisions are taken from a seeded random generator, so
+ * a test run is reproducible.
+ */
+public class NbtSimulatorChannel implements IChannel {
+    /** Friendly name of channel */
+    private final String name;
+
+    /** Simulated secure element */
+    private final NbtSimulator simulator;
+
+    /** Status words returned instead of processing the next commands */
+    private final Queue<Integer> injectedStatusWords = new ArrayDeque<>();
+
+    /** Random generator for jitter and error injection */
+    private Random random = new Random(0);
+
+    /** Fixed latency of each exchange in nanoseconds */
+    private long latency;
+
+    /** Maximum additional random latency of each exchange in nanoseconds */
+    private long jitter;
+
+    /** Probability of a communication error for each exchange */
+    private double errorRate;
+
+    /** Number of processed exchanges */
+    private long exchangeCount;
+
+    /** Marker if channel is opened */
+    private boolean open;
+
+    /** Marker if channel is connected */
+    private boolean connected;
+
+    /**
+     * Create a channel connected to a new simulator.
+     *
+     * @param name friendly name of channel.
+     */
+    public NbtSimulatorChannel(@NotNull String name) {
+        this(name, new NbtSimulator());
+    }
+
+    /**
+     * Create a channel connected to the given simulator.
+     *
+     * @param name      friendly name of channel.
+     * @param simulator simulated secure element.
+     */
+    public NbtSimulatorChannel(@NotNull String name,
+                               @NotNull NbtSimulator simulator) {
+        this.name = name;
+        this.simulator = simulator;
+    }
+
+    /**
+     * Get the simulated secure element, e.g. to prepare or inspect the file
+     * contents.
+     *
+     * @return reference of simulator.
+     */
+    public NbtSimulator getSimulator() {
+        return simulator;
+    }
+
+    /**
+     * Set the seed of the random generator used for jitter and error
+     * injection.
+     *
+     * @param seed seed of random generator.
+     */
+    public synchronized void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Set the latency added to each exchange.
+     *
+     * @param latency fixed latency of each exchange.
+     * @param jitter  maximum random latency added to the fixed latency.
+     * @param unit    time unit of latency and jitter.
+     */
+    public synchronized void setLatency(long latency, long jitter,
+                                        @NotNull TimeUnit unit) {
+        if ((latency < 0) || (jitter < 0))
+            throw new IllegalArgumentException("Latency must not be negative");
+
+        this.latency = unit.toNanos(latency);
+        this.jitter = unit.toNanos(jitter);
+    }
+
+    /**
+     * Set the probability of a communication error. A failing exchange throws
+     * a ChannelException and the command is not processed by the simulator.
+     *
+     * @param errorRate probability between 0.0 (never) and 1.0 (always).
+     */
+    public synchronized void setErrorRate(double errorRate) {
+        if ((errorRate < 0.0) || (errorRate > 1.0))
+            throw new IllegalArgumentException(
+                    "Error rate must be between 0.0 and 1.0");
+
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Queue a status word which is returned for the next exchange instead of
+     * processing the command. Multiple status words are returned in the order
+     * they have been queued.
+     *
+     * @param sw status word to be returned.
+     */
+    public synchronized void injectStatusWord(int sw) {
+        injectedStatusWords.add(sw & 0xFFFF);
+    }
+
+    /**
+     * Return the number of exchanges processed since the channel has been
+     * created.
+     *
+     * @return number of exchanges.
+     */
+    public synchronized long getExchangeCount() {
+        return exchangeCount;
+    }
+
+    @Override
+    public synchronized void open(boolean exclusive) throws ChannelException {
+        open = true;
+    }
+
+    @Override
+    public synchronized void close() throws ChannelException {
+        connected = false;
+        open = false;
+    }
+
+    @Override
+    public synchronized byte[] connect(byte[] request)
+            throws ChannelException {
+        if (!open)
+            throw new ChannelException("Channel not opened");
+
+        connected = true;
+        simulator.reset();
+        return simulator.getAtr();
+    }
+
+    @Override
+    public synchronized byte[] disconnect(byte[] request)
+            throws ChannelException {
+        connected = false;
+        return null;
+    }
+
+    @Override
+    public synchronized byte[] reset(byte[] request) throws ChannelException {
+        if (!connected)
+            throw new ChannelException("Channel not connected");
+
+        simulator.reset();
+        return simulator.getAtr();
+    }
+
+    @Override
+    public byte[] transmit(byte[] stream) throws ChannelException {
+        long delay;
+        Integer sw;
+
+        synchronized (this) {
+            if (!connected)
+                throw new ChannelException("Channel not connected");
+
+            exchangeCount++;
+            delay = latency;
+            if (jitter > 0)
+                delay += (long) (random.nextDouble() * jitter);
+
+            if ((errorRate > 0.0) && (random.nextDouble() < errorRate))
+                throw new ChannelException("Simulated communication error");
+
+            sw = injectedStatusWords.poll();
+        }
+
+        // wait outside of the lock, so concurrent channels are not serialized
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChannelException("Exchange interrupted", e);
+            }
+        }
+
+        if (sw != null)
+            return new byte[] { (byte) (sw >> 8), (byte) (int) sw };
+
+        return simulator.process(stream);
+    }
+
+    @Override
+    public byte[] control(byte[] stream) throws ChannelException {
+        throw new ChannelException("Control not supported by simulator");
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,84 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.channel.IChannel;
+import com.infineon.hsw.channel.IChannelProvider;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Channel provider offering a fixed number of simulated NBT channels. Each
+ * channel name is backed by its own simulator instance which lives as long as
+ * the provider, so data written via one channel object can be read via
+ * another channel object of the same name. The provider can be registered at
+ * the ChannelFactory to run applications without any reader attached.
+ */
+public class NbtSimulatorChannelProvider implements IChannelProvider {
+    /** Friendly name of this provider */
+    public static final String PROVIDER_NAME = "NBT Simulator";
+
+    /** Friendly names of the simulated channels */
+    private final String[] channelNames;
+
+    /** Simulators by channel name */
+    private final Map<String, NbtSimulator> simulators =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Create a provider with a single simulated channel.
+     */
+    public NbtSimulatorChannelProvider() {
+        this(1);
+    }
+
+    /**
+     * Create a provider with the given number of simulated channels. The
+     * channels are named "NBT Simulator 0", "NBT Simulator 1" and so on.
+     *
+     * @param count number of simulated channels.
+     */
+    public NbtSimulatorChannelProvider(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException(
+                    "Number of channels must not be negative");
+
+        channelNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            channelNames[i] = PROVIDER_NAME + " " + i;
+            simulators.put(channelNames[i], new NbtSimulator());
+        }
+    }
+
+    /**
+     * Get the simulator backing a channel name.
+     *
+     * @param channelName friendly name of channel.
+     * @return reference of simulator or null if name is unknown.
+     */
+    public NbtSimulator getSimulator(String channelName) {
+        return (channelName == null) ? null : simulators.get(channelName);
+    }
+
+    @Override
+    public String getProviderName() {
+        return PROVIDER_NAME;
+    }
+
+    @Override
+    public String[] getChannelNames() {
+        return channelNames.clone();
+    }
+
+    @Override
+    public IChannel getChannel(String channelName, String channelProperties) {
+        NbtSimulator simulator = getSimulator(channelName);
+
+        if (simulator == null)
+            return null;
+
+        return new NbtSimulatorChannel(channelName, simulator);
+    }
+}
@@ -0,0 +1,133 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import java.util.Arrays;
+
+/**
+ * Byte ranges in which the target image of an NDEF file differs from its
+ * current image. Each image consists of NLEN and the NDEF message. Changed
+ * bytes are grouped greedily into windows of the maximum command length, so
+ * the number of UPDATE BINARY commands is minimal; each range spans from the
+ * first to the last changed byte of its window. Bytes beyond the current
+ * image are considered changed.
+ */
+/* default */ final class NdefFileDiff {
+    /** Start offsets and end offsets (exclusive) of the ranges */
+    private final int[] ranges;
+
+    /** Number of ranges */
+    private final int count;
+
+    /**
+     * Compare two file images.
+     *
+     * @param current        current image of the file.
+     * @param target         target image of the file.
+     * @param maxWriteLength maximum data length of one command.
+     */
+    /* default */ NdefFileDiff(byte[] current, byte[] target,
+                               int maxWriteLength) {
+        int[] found = new int[8];
+        int iCount = 0;
+        int iStart = nextChange(current, target, 0);
+
+        while (iStart < target.length) {
+            int iWindowEnd = Math.min(iStart + maxWriteLength, target.length);
+            int iEnd = iStart + 1;
+
+            // last changed byte within the window
+            for (int i = iStart + 1; i < iWindowEnd; i++) {
+                if (isChanged(current, target, i))
+                    iEnd = i + 1;
+            }
+
+            if (2 * iCount + 2 > found.length)
+                found = Arrays.copyOf(found, 2 * found.length);
+            found[2 * iCount] = iStart;
+            found[2 * iCount + 1] = iEnd;
+            iCount++;
+
+            iStart = nextChange(current, target, iWindowEnd);
+        }
+
+        this.ranges = found;
+        this.count = iCount;
+    }
+
+    /**
+     * Return the number of ranges.
+     *
+     * @return number of ranges, 0 if the images are equal.
+     */
+    /* default */ int getCount() {
+        return count;
+    }
+
+    /**
+     * Return the start offset of a range.
+     *
+     * @param index index of range.
+     * @return offset of first changed byte.
+     */
+    /* default */ int getStart(int index) {
+        return ranges[2 * index];
+    }
+
+    /**
+     * Return the length of a range.
+     *
+     * @param index index of range.
+     * @return number of bytes from first to last changed byte.
+     */
+    /* default */ int getLength(int index) {
+        return ranges[2 * index + 1] - ranges[2 * index];
+    }
+
+    /**
+     * Return the total number of bytes in all ranges.
+     *
+     * @return number of bytes to be written.
+     */
+    /* default */ int getTotalLength() {
+        int iTotal = 0;
+
+        for (int i = 0; i < count; i++)
+            iTotal += getLength(i);
+
+        return iTotal;
+    }
+
+    /**
+     * Helper method to find the next changed byte.
+     *
+     * @param current current image.
+     * @param target  target image.
+     * @param from    offset to start at.
+     * @return offset of changed byte or length of target if none is found.
+     */
+    private static int nextChange(byte[] current, byte[] target, int from) {
+        int i = from;
+
+        while ((i < target.length) && !isChanged(current, target, i))
+            i++;
+
+        return i;
+    }
+
+    /**
+     * Helper method to check if a byte is changed.
+     *
+     * @param current current image.
+     * @param target  target image.
+     * @param offset  offset of byte.
+     * @return true if the byte differs or is beyond the current image.
+     */
+    private static boolean isChanged(byte[] current, byte[] target,
+                                     int offset) {
+        return (offset >= current.length) ||
+               (current[offset] != target[offset]);
+    }
+}
@@ -0,0 +1,197 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.apdu.ApduException;
+import com.infineon.hsw.apdu.ApduResponse;
+import com.infineon.hsw.utils.UtilException;
+import java.nio.ByteBuffer;
+
+/**
+ * Iterative reader of the NDEF message in the selected NDEF file. The file
+ * is read chunk by chunk with READ BINARY; the first chunk contains the 2-byte
+ * message length NLEN. Each chunk is handed out as a view of its response, so
+ * no data is copied by the reader. The NDEF file has to stay selected until
+ * the message is read completely.
+ */
+/* default */ final class NdefFileReader {
+    /** Size of the NLEN field at the beginning of the NDEF file */
+    private static final int NLEN_SIZE = NbtConstants.T4T_NDEF_MSG_START_OFFSET;
+
+    /** Command set reading the file */
+    private final NbtCommandSet commandSet;
+
+    /** Length of NDEF message, -1 until the first chunk is read */
+    private int length = -1;
+
+    /** File offset of the next chunk */
+    private int offset;
+
+    /** Message data of the last chunk not handed out yet */
+    private ByteBuffer pending;
+
+    /** Response of the failed READ BINARY command, null if no error */
+    private NbtApduResponse error;
+
+    /** Accumulated execution time of all READ BINARY commands */
+    private long execTime;
+
+    /** Number of READ BINARY commands sent */
+    private int commandCount;
+
+    /**
+     * Constructor.
+     *
+     * @param commandSet command set with the NDEF file selected.
+     */
+    /* default */ NdefFileReader(NbtCommandSet commandSet) {
+        this.commandSet = commandSet;
+    }
+
+    /**
+     * Read the first chunk of the file containing the message length.
+     *
+     * @return null if the length was read, the error response otherwise.
+     * @throws ApduException if the command fails or the file is too short.
+     * @throws UtilException if building the command fails.
+     */
+    /* default */ NbtApduResponse start() throws ApduException, UtilException {
+        if (length < 0)
+            pending = readChunk();
+
+        return error;
+    }
+
+    /**
+     * Return the length of the NDEF message.
+     *
+     * @return message length in bytes, -1 if not read yet.
+     */
+    /* default */ int getLength() {
+        return length;
+    }
+
+    /**
+     * Check if all data of the message has been handed out.
+     *
+     * @return true if the message has been read completely.
+     */
+    /* default */ boolean isComplete() {
+        return (length >= 0) && (offset >= length + NLEN_SIZE) &&
+               ((pending == null) || !pending.hasRemaining());
+    }
+
+    /**
+     * Return the next chunk of message data, reading it from the card if
+     * required.
+     *
+     * @return read-only buffer with message data, empty if the message has
+     *         been read completely, null if the card returned an error.
+     * @throws ApduException if the command fails or the file ends before the
+     *         end of the message.
+     * @throws UtilException if building the command fails.
+     */
+    /* default */ ByteBuffer next() throws ApduException, UtilException {
+        ByteBuffer chunk = pending;
+
+        pending = null;
+        if ((chunk != null) && chunk.hasRemaining())
+            return chunk;
+
+        if (error != null)
+            return null;
+
+        return readChunk();
+    }
+
+    /**
+     * Return the response of the failed READ BINARY command.
+     *
+     * @return error response or null if no error occurred.
+     */
+    /* default */ NbtApduResponse getError() {
+        return error;
+    }
+
+    /**
+     * Return the accumulated execution time of all READ BINARY commands.
+     *
+     * @return execution time in nanoseconds.
+     */
+    /* default */ long getExecutionTime() {
+        return execTime;
+    }
+
+    /**
+     * Return the number of READ BINARY commands sent.
+     *
+     * @return number of commands.
+     */
+    /* default */ int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Build the response of a completed read without data.
+     *
+     * @return response with status word 9000.
+     * @throws ApduException if building the response fails.
+     */
+    /* default */ NbtApduResponse toResponse() throws ApduException {
+        return new NbtApduResponse(
+                new ApduResponse(new byte[] { (byte) 0x90, 0x00 }, execTime),
+                (byte) 0);
+    }
+
+    /**
+     * Helper method to read the next chunk of the file.
+     *
+     * @return read-only buffer with message data, empty if the message has
+     *         been read completely, null if the card returned an error.
+     * @throws ApduException if the command fails or the file ends before the
+     *         end of the message.
+     * @throws UtilException if building the command fails.
+     */
+    private ByteBuffer readChunk() throws ApduException, UtilException {
+        int maxReadLength = commandSet.getMaxReadLength();
+        int expectedLength = (length < 0) ? maxReadLength
+                                          : Math.min(maxReadLength,
+                                                     length + NLEN_SIZE -
+                                                             offset);
+
+        if (expectedLength <= 0)
+            return ByteBuffer.allocate(0);
+
+        NbtApduResponse response =
+                commandSet.readBinary((short) offset, (short) expectedLength);
+
+        execTime += response.getExecutionTime();
+        commandCount++;
+        if (response.isSwError()) {
+            error = response;
+            return null;
+        }
+
+        ByteBuffer data = response.getDataBuffer();
+        if (length < 0) {
+            if (data.remaining() < NLEN_SIZE)
+                throw new ApduException("NDEF file too short");
+
+            length = data.getShort() & 0xFFFF;
+            offset = NLEN_SIZE;
+        }
+
+        int chunkLength = Math.min(data.remaining(),
+                                   length + NLEN_SIZE - offset);
+        if ((chunkLength == 0) && (offset < length + NLEN_SIZE))
+            throw new ApduException(String.format(
+                    "NDEF file ends at offset %d before end of message",
+                    offset));
+
+        data.limit(data.position() + chunkLength);
+        offset += chunkLength;
+        return data;
+    }
+}
@@ -0,0 +1,268 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.apdu.ApduCommand;
+import com.infineon.hsw.apdu.ApduException;
+import com.infineon.hsw.apdu.ApduResponse;
+import com.infineon.hsw.utils.UtilException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Iterative writer of an NDEF message into the selected NDEF file. The
+ * message is written chunk by chunk with one reused UPDATE BINARY command.
+ * The 2-byte message length NLEN is written as 0000 together with the first
+ * chunk and set to the actual length after the last chunk, so the file never
+ * contains a partially written message. A message fitting into one chunk is
+ * written with a single command. The NDEF file has to stay selected until
+ * the message is written completely.
+ */
+/* default */ final class NdefFileWriter {
+    /** Size of the NLEN field at the beginning of the NDEF file */
+    private static final int NLEN_SIZE = NbtConstants.T4T_NDEF_MSG_START_OFFSET;
+
+    /** Size of the file range addressable by UPDATE BINARY */
+    private static final int MAX_FILE_SIZE = 0x8000;
+
+    /** Command set writing the file */
+    private final NbtCommandSet commandSet;
+
+    /** UPDATE BINARY command reused for all chunks */
+    private final ApduCommand command;
+
+    /** Buffer collecting the data of the next chunk */
+    private final byte[] buffer;
+
+    /** Number of bytes in the buffer */
+    private int fill = NLEN_SIZE;
+
+    /** File offset of the data in the buffer */
+    private int offset;
+
+    /** Response of the failed UPDATE BINARY command, null if no error */
+    private NbtApduResponse error;
+
+    /** Accumulated execution time of all UPDATE BINARY commands */
+    private long execTime;
+
+    /**
+     * Constructor.
+     *
+     * @param commandSet     command set with the NDEF file selected.
+     * @param command        UPDATE BINARY command to be reused.
+     * @param maxWriteLength maximum data length of one command.
+     */
+    /* default */ NdefFileWriter(NbtCommandSet commandSet, ApduCommand command,
+                                 int maxWriteLength) {
+        this.commandSet = commandSet;
+        this.command = command;
+        this.buffer = new byte[Math.max(NLEN_SIZE + 1, maxWriteLength)];
+    }
+
+    /**
+     * Return the number of UPDATE BINARY commands needed to write a message
+     * completely with write() and finish().
+     *
+     * @param messageLength  length of NDEF message.
+     * @param maxWriteLength maximum data length of one command.
+     * @return number of commands including the one setting NLEN.
+     */
+    /* default */ static int getCommandCount(int messageLength,
+                                             int maxWriteLength) {
+        int chunkLength = Math.max(NLEN_SIZE + 1, maxWriteLength);
+        int imageLength = messageLength + NLEN_SIZE;
+
+        if (imageLength < chunkLength)
+            return 1;
+
+        // the first chunk is flushed by write(), NLEN is set separately
+        return (imageLength + chunkLength - 1) / chunkLength + 1;
+    }
+
+    /**
+     * Write message data from a buffer. Full chunks are written immediately,
+     * the remaining data is kept until the next call or finish(). Full chunks
+     * of a buffer backed by an accessible array are written without being
+     * copied into the chunk buffer.
+     *
+     * @param data buffer with message data, its position is advanced.
+     * @return null if the data was written, the error response otherwise.
+     * @throws ApduException if the command fails or the message exceeds the
+     *         file size.
+     * @throws UtilException if building the command fails.
+     */
+    /* default */ NbtApduResponse write(ByteBuffer data)
+            throws ApduException, UtilException {
+        while (data.hasRemaining() && (error == null)) {
+            if ((fill == 0) && data.hasArray() &&
+                (data.remaining() >= buffer.length)) {
+                send(data.array(), data.arrayOffset() + data.position(),
+                     buffer.length);
+                data.position(data.position() + buffer.length);
+                continue;
+            }
+
+            int length = Math.min(buffer.length - fill, data.remaining());
+            data.get(buffer, fill, length);
+            fill += length;
+            if (fill == buffer.length)
+                flush();
+        }
+
+        return error;
+    }
+
+    /**
+     * Write message data from a stream until its end is reached. Full chunks
+     * are written immediately, the remaining data is kept until finish().
+     *
+     * @param data stream with message data.
+     * @return null if the data was written, the error response otherwise.
+     * @throws ApduException if the command fails or the message exceeds the
+     *         file size.
+     * @throws UtilException if building the command fails.
+     * @throws IOException   if reading the stream fails.
+     */
+    /* default */ NbtApduResponse write(InputStream data)
+            throws ApduException, UtilException, IOException {
+        while (error == null) {
+            int length = data.read(buffer, fill, buffer.length - fill);
+            if (length < 0)
+                break;
+
+            fill += length;
+            if (fill == buffer.length)
+                flush();
+        }
+
+        return error;
+    }
+
+    /**
+     * Write the remaining data and the actual message length.
+     *
+     * @return response with status word and without data, or the error
+     *         response.
+     * @throws ApduException if the command fails or the message exceeds the
+     *         file size.
+     * @throws UtilException if building the command fails.
+     */
+    /* default */ NbtApduResponse finish() throws ApduException, UtilException {
+        if (error != null)
+            return error;
+
+        int length = offset + fill - NLEN_SIZE;
+        if (offset == 0) {
+            // message fits into one chunk, NLEN is written together with it
+            setLength(length);
+            flush();
+        } else {
+            if (fill > 0)
+                flush();
+            if (error == null) {
+                setLength(length);
+                offset = 0;
+                send(buffer, 0, NLEN_SIZE);
+            }
+        }
+
+        return (error != null) ? error : toResponse();
+    }
+
+    /**
+     * Write a range of the file directly, e.g. for a differential update. The
+     * method must not be combined with write() and finish().
+     *
+     * @param fileOffset offset of the range in the file.
+     * @param data       array containing the range.
+     * @param start      offset of the range in the array.
+     * @param length     length of the range.
+     * @return null if the range was written, the error response otherwise.
+     * @throws ApduException if the command fails or the range exceeds the file
+     *         size.
+     * @throws UtilException if building the command fails.
+     */
+    /* default */ NbtApduResponse writeAt(int fileOffset, byte[] data,
+                                          int start, int length)
+            throws ApduException, UtilException {
+        if (error == null) {
+            offset = fileOffset;
+            send(data, start, length);
+        }
+
+        return error;
+    }
+
+    /**
+     * Build the response of a completed write without data.
+     *
+     * @return response with status word 9000.
+     * @throws ApduException if building the response fails.
+     */
+    /* default */ NbtApduResponse toResponse() throws ApduException {
+        return new NbtApduResponse(
+                new ApduResponse(new byte[] { (byte) 0x90, 0x00 }, execTime),
+                (byte) 0);
+    }
+
+    /**
+     * Helper method to set the NLEN field in the buffer.
+     *
+     * @param length length of NDEF message.
+     * @throws ApduException if the message exceeds the file size.
+     */
+    private void setLength(int length) throws ApduException {
+        if (length + NLEN_SIZE > MAX_FILE_SIZE)
+            throw new ApduException(String.format(
+                    "NDEF message of %d bytes exceeds maximum file size",
+                    length));
+
+        buffer[0] = (byte) (length >> 8);
+        buffer[1] = (byte) length;
+    }
+
+    /**
+     * Helper method to write the buffer.
+     *
+     * @throws ApduException if the command fails or the message exceeds the
+     *         file size.
+     * @throws UtilException if building the command fails.
+     */
+    private void flush() throws ApduException, UtilException {
+        send(buffer, 0, fill);
+        fill = 0;
+    }
+
+    /**
+     * Helper method to write a chunk at the current file offset.
+     *
+     * @param data   array containing the chunk.
+     * @param start  offset of the chunk in the array.
+     * @param length length of the chunk.
+     * @throws ApduException if the command fails or the message exceeds the
+     *         file size.
+     * @throws UtilException if building the command fails.
+     */
+    private void send(byte[] data, int start, int length)
+            throws ApduException, UtilException {
+        if (offset + length > MAX_FILE_SIZE)
+            throw new ApduException(String.format(
+                    "NDEF message exceeds maximum file size at offset %d",
+                    offset));
+
+        command.setP1(offset >> 8).setP2(offset).setData(data, start, length);
+
+        NbtApduResponse response = commandSet.updateBinary(command);
+        execTime += response.getExecutionTime();
+        if (response.isSwError()) {
+            error = response;
+            return;
+        }
+
+        offset += length;
+    }
+}
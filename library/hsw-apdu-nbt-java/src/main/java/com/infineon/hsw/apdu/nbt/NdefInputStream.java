@@ -0,0 +1,102 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.apdu.ApduException;
+import com.infineon.hsw.utils.UtilException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream of the NDEF message in the selected NDEF file. READ BINARY
+ * commands are sent lazily when the stream runs out of data, so only the part
+ * of the message actually consumed is read from the card.
+ */
+/* default */ final class NdefInputStream extends InputStream {
+    /** Reader of the NDEF file */
+    private final NdefFileReader reader;
+
+    /** Current chunk of message data */
+    private ByteBuffer chunk;
+
+    /**
+     * Constructor.
+     *
+     * @param reader reader of the selected NDEF file.
+     */
+    /* default */ NdefInputStream(NdefFileReader reader) {
+        this.reader = reader;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+
+        return chunk.get() & 0xFF;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (len > b.length - off))
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+
+        int count = Math.min(len, chunk.remaining());
+        chunk.get(b, off, count);
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available() {
+        return (chunk != null) ? chunk.remaining() : 0;
+    }
+
+    /**
+     * Helper method to read the next chunk if the current one is consumed.
+     *
+     * @return false if the end of the message is reached.
+     * @throws IOException if reading the chunk fails.
+     */
+    private boolean fill() throws IOException {
+        if ((chunk != null) && chunk.hasRemaining())
+            return true;
+
+        try {
+            if (reader.isComplete())
+                return false;
+
+            chunk = reader.next();
+        } catch (ApduException | UtilException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        if (chunk == null)
+            throw new IOException(String.format(
+                    "Reading NDEF file failed with status word %04X",
+                    reader.getError().getSW()));
+
+        return chunk.hasRemaining();
+    }
+}
@@ -0,0 +1,593 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import com.infineon.hsw.apdu.ApduChannel;
+import com.infineon.hsw.apdu.ApduException;
+import com.infineon.hsw.channel.ChannelFactory;
+import com.infineon.hsw.channel.IChannel;
+import com.infineon.hsw.utils.UtilException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor running NBT jobs on several readers in parallel. Each reader is
+ * served by one worker thread executing the jobs of the reader one after the
+ * other, so the NbtCommandSet of a reader is never used concurrently. Every
+ * reader has a bounded job queue: submitting to a full queue blocks the
+ * caller (back-pressure) or fails after a timeout. Jobs can be cancelled
+ * with the returned Future; cancelPending() discards all queued jobs of a
+ * reader. The throughput of each reader and of the whole farm is reported as
+ * ReaderFarmStatistics.
+ *
+ * <p>
+ * The worker threads are created by the thread factory given to the
+ * constructor. On Java 21 or later virtual threads can be used by passing
+ * {@code Thread.ofVirtual().factory()}.
+ */
+public class ReaderFarm {
+    /** Default capacity of the job queue of a reader */
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    /** Capacity of the job queue of each reader */
+    private final int queueCapacity;
+
+    /** Factory creating the worker threads or null for daemon threads */
+    private final ThreadFactory threadFactory;
+
+    /** Workers by reader name */
+    private final ConcurrentMap<String, Worker> workers =
+            new ConcurrentHashMap<>();
+
+    /** Marker if farm has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Create a farm with the default queue capacity running each reader on a
+     * daemon platform thread.
+     */
+    public ReaderFarm() {
+        this(DEFAULT_QUEUE_CAPACITY, null);
+    }
+
+    /**
+     * Create a farm.
+     *
+     * @param queueCapacity maximum number of queued jobs per reader.
+     * @param threadFactory factory creating the worker threads or null to
+     *         run each reader on a daemon platform thread.
+     */
+    public ReaderFarm(int queueCapacity, ThreadFactory threadFactory) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException(
+                    "Queue capacity must be positive");
+
+        this.queueCapacity = queueCapacity;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Add the reader with the given name obtained from the ChannelFactory.
+     *
+     * @param channelName friendly name of reader channel.
+     * @return friendly name of the added reader.
+     * @throws ApduException if the channel cannot be created, the reader is
+     *         already added or the farm has been closed.
+     * @throws UtilException if the command set cannot be created.
+     */
+    public String addReader(String channelName)
+            throws ApduException, UtilException {
+        IChannel channel = ChannelFactory.getChannel(channelName);
+
+        if (channel == null)
+            throw new ApduException("Channel not found: " + channelName);
+
+        return addReader(channel);
+    }
+
+    /**
+     * Add a reader. The channel is opened and connected by the worker of the
+     * reader before the first job is executed.
+     *
+     * @param channel reader channel.
+     * @return friendly name of the added reader.
+     * @throws ApduException if the reader is already added or the farm has
+     *         been closed.
+     * @throws UtilException if the command set cannot be created.
+     */
+    public String addReader(IChannel channel)
+            throws ApduException, UtilException {
+        if (channel == null)
+            throw new IllegalArgumentException("Channel must not be null");
+
+        String readerName = channel.getName();
+
+        synchronized (workers) {
+            if (closed)
+                throw new ApduException("Reader farm closed");
+            if (workers.containsKey(readerName))
+                throw new ApduException("Reader already added: " + readerName);
+
+            // create the command set only for a reader which is added
+            ApduChannel apduChannel = new ApduChannel(channel);
+            Worker worker = new Worker(readerName,
+                                       new NbtCommandSet(apduChannel, 0));
+            workers.put(readerName, worker);
+            worker.start();
+        }
+
+        return readerName;
+    }
+
+    /**
+     * Remove a reader. Queued jobs are cancelled, a running job is completed.
+     * The reader is disconnected afterwards.
+     *
+     * @param readerName friendly name of reader.
+     * @return true if the reader has been removed.
+     */
+    public boolean removeReader(String readerName) {
+        Worker worker = workers.remove(readerName);
+
+        if (worker == null)
+            return false;
+
+        worker.shutdown();
+        return true;
+    }
+
+    /**
+     * Return the names of all readers of the farm.
+     *
+     * @return array of friendly reader names.
+     */
+    public String[] getReaderNames() {
+        return workers.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Submit a job for a reader. If the queue of the reader is full, the
+     * method waits until space becomes available.
+     *
+     * @param <T>        type of job result.
+     * @param readerName friendly name of reader.
+     * @param job        job to be executed.
+     * @return future of job result.
+     * @throws ApduException        if the reader is unknown or the farm has
+     *         been closed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public <T> Future<T> submit(String readerName, INbtJob<T> job)
+            throws ApduException, InterruptedException {
+        Worker worker = getWorker(readerName);
+        Task<T> task = worker.newTask(job);
+
+        worker.queue.put(task);
+        worker.checkShutdown(task);
+        return task;
+    }
+
+    /**
+     * Submit a job for a reader. If the queue of the reader is full, the
+     * method waits at most the given time until space becomes available.
+     *
+     * @param <T>        type of job result.
+     * @param readerName friendly name of reader.
+     * @param job        job to be executed.
+     * @param timeout    maximum time to wait.
+     * @param unit       time unit of the timeout argument.
+     * @return future of job result or null if the queue is still full after
+     *         the timeout.
+     * @throws ApduException        if the reader is unknown or the farm has
+     *         been closed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public <T> Future<T> offer(String readerName, INbtJob<T> job, long timeout,
+                               TimeUnit unit)
+            throws ApduException, InterruptedException {
+        Worker worker = getWorker(readerName);
+        Task<T> task = worker.newTask(job);
+
+        if (!worker.queue.offer(task, timeout, unit))
+            return null;
+
+        worker.checkShutdown(task);
+        return task;
+    }
+
+    /**
+     * Submit a job for every reader of the farm. The method waits for space
+     * in each queue.
+     *
+     * @param <T> type of job result.
+     * @param job job to be executed.
+     * @return futures of the job results by reader name.
+     * @throws ApduException        if the farm has been closed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public <T> Map<String, Future<T>> submitAll(INbtJob<T> job)
+            throws ApduException, InterruptedException {
+        Map<String, Future<T>> futures = new LinkedHashMap<>();
+
+        for (String readerName : getReaderNames()) {
+            try {
+                futures.put(readerName, submit(readerName, job));
+            } catch (ApduException e) {
+                // reader removed meanwhile
+                if (closed)
+                    throw e;
+            }
+        }
+
+        return futures;
+    }
+
+    /**
+     * Cancel all queued jobs of a reader. A running job is not interrupted.
+     *
+     * @param readerName friendly name of reader.
+     * @return number of cancelled jobs.
+     */
+    public int cancelPending(String readerName) {
+        Worker worker = workers.get(readerName);
+
+        return (worker == null) ? 0 : worker.cancelPending();
+    }
+
+    /**
+     * Get the statistics of a reader.
+     *
+     * @param readerName friendly name of reader.
+     * @return statistics snapshot of the reader. If the reader is unknown,
+     *         all values are zero.
+     */
+    public ReaderFarmStatistics getStatistics(String readerName) {
+        Worker worker = workers.get(readerName);
+
+        if (worker == null)
+            return new ReaderFarmStatistics(readerName, 0, 0, 0, 0, 0, 0);
+
+        return worker.getStatistics();
+    }
+
+    /**
+     * Get the aggregate statistics of all readers. The elapsed time spans
+     * from the start of the first job to the end of the last job on any
+     * reader, so the tags per second reflect the parallel throughput.
+     *
+     * @return statistics snapshot of the farm.
+     */
+    public ReaderFarmStatistics getStatistics() {
+        long completed = 0;
+        long failed = 0;
+        long cancelled = 0;
+        int pending = 0;
+        long busyTime = 0;
+        long firstStart = Long.MAX_VALUE;
+        long lastEnd = Long.MIN_VALUE;
+
+        for (Worker worker : workers.values()) {
+            completed += worker.completed.get();
+            failed += worker.failed.get();
+            cancelled += worker.cancelled.get();
+            pending += worker.queue.size();
+            busyTime += worker.busyTime.get();
+
+            if (worker.ended) {
+                firstStart = Math.min(firstStart, worker.firstStart.get());
+                lastEnd = Math.max(lastEnd, worker.lastEnd.get());
+            }
+        }
+
+        long elapsed = (lastEnd > firstStart) ? lastEnd - firstStart : 0;
+        return new ReaderFarmStatistics(null, completed, failed, cancelled,
+                                        pending, busyTime, elapsed);
+    }
+
+    /**
+     * Close the farm. Queued jobs are cancelled, running jobs are completed
+     * and all readers are disconnected. Further submissions are rejected.
+     */
+    public void close() {
+        List<Worker> stopped;
+
+        synchronized (workers) {
+            closed = true;
+            stopped = new ArrayList<>(workers.values());
+            workers.clear();
+        }
+
+        for (Worker worker : stopped) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Helper method to get the worker of a reader.
+     *
+     * @param readerName friendly name of reader.
+     * @return worker of reader.
+     * @throws ApduException if the reader is unknown or the farm has been
+     *         closed.
+     */
+    private Worker getWorker(String readerName) throws ApduException {
+        if (closed)
+            throw new ApduException("Reader farm closed");
+
+        Worker worker = workers.get(readerName);
+        if (worker == null)
+            throw new ApduException("Unknown reader: " + readerName);
+
+        return worker;
+    }
+
+    /**
+     * Queued job of a worker. Cancellation of a job is counted once it is
+     * done.
+     *
+     * @param <T> type of job result.
+     */
+    private static final class Task<T> extends FutureTask<T> {
+        /** Worker executing the task */
+        private final Worker worker;
+
+        /**
+         * Constructor.
+         *
+         * @param worker   worker executing the task.
+         * @param callable callable running the job.
+         */
+        private Task(Worker worker, Callable<T> callable) {
+            super(callable);
+            this.worker = worker;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled())
+                worker.cancelled.incrementAndGet();
+        }
+    }
+
+    /**
+     * Worker serving one reader with its own queue and thread.
+     */
+    private final class Worker implements Runnable {
+        /** Friendly name of reader */
+        private final String readerName;
+
+        /** Command set of reader, only used by the worker thread */
+        private final NbtCommandSet commandSet;
+
+        /** Queued jobs */
+        private final BlockingQueue<Task<?>> queue;
+
+        /** Number of completed jobs */
+        private final AtomicLong completed = new AtomicLong();
+
+        /** Number of failed jobs */
+        private final AtomicLong failed = new AtomicLong();
+
+        /** Number of cancelled jobs */
+        private final AtomicLong cancelled = new AtomicLong();
+
+        /** Accumulated job execution time in nanoseconds */
+        private final AtomicLong busyTime = new AtomicLong();
+
+        /** Start of first job in nanoseconds, valid if started is set */
+        private final AtomicLong firstStart = new AtomicLong();
+
+        /** End of last job in nanoseconds, valid if ended is set */
+        private final AtomicLong lastEnd = new AtomicLong();
+
+        /** Marker if a job has been started, only set by the worker thread */
+        private volatile boolean started;
+
+        /** Marker if a job has ended, only set by the worker thread */
+        private volatile boolean ended;
+
+        /** Worker thread */
+        private Thread thread;
+
+        /** Marker if worker has been stopped */
+        private volatile boolean stopped;
+
+        /** Marker if worker thread waits for a job */
+        private boolean idle;
+
+        /**
+         * Constructor.
+         *
+         * @param readerName friendly name of reader.
+         * @param commandSet command set of reader.
+         */
+        private Worker(String readerName, NbtCommandSet commandSet) {
+            this.readerName = readerName;
+            this.commandSet = commandSet;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        /**
+         * Create and start the worker thread.
+         */
+        private void start() {
+            if (threadFactory != null) {
+                thread = threadFactory.newThread(this);
+            } else {
+                thread = new Thread(this, "hsw-reader-farm-" + readerName);
+                thread.setDaemon(true);
+            }
+            thread.start();
+        }
+
+        /**
+         * Create a task running a job on the command set of the reader.
+         *
+         * @param <T> type of job result.
+         * @param job job to be executed.
+         * @return task to be queued.
+         */
+        private <T> Task<T> newTask(final INbtJob<T> job) {
+            if (job == null)
+                throw new IllegalArgumentException("Job must not be null");
+
+            return new Task<T>(this, new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return execute(job);
+                }
+            });
+        }
+
+        /**
+         * Helper method to cancel a task queued after the worker has been
+         * stopped.
+         *
+         * @param task queued task.
+         * @throws ApduException if the worker has been stopped.
+         */
+        private void checkShutdown(Task<?> task) throws ApduException {
+            if (stopped && queue.remove(task)) {
+                task.cancel(false);
+                throw new ApduException("Reader removed: " + readerName);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    if (stopped)
+                        break;
+                    idle = true;
+                }
+
+                Task<?> task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    // interrupted by shutdown
+                    continue;
+                }
+
+                synchronized (this) {
+                    idle = false;
+                    // clear interrupt of a shutdown racing with take()
+                    Thread.interrupted();
+                    if (stopped) {
+                        task.cancel(false);
+                        break;
+                    }
+                }
+
+                task.run();
+                // clear interrupt of a job cancelled while running
+                Thread.interrupted();
+            }
+
+            cancelPending();
+            try {
+                commandSet.disconnect();
+            } catch (ApduException | RuntimeException e) {
+                // reader already gone
+            }
+        }
+
+        /**
+         * Helper method to execute a job on the worker thread. The reader is
+         * connected lazily before the job runs.
+         *
+         * @param <T> type of job result.
+         * @param job job to be executed.
+         * @return result of job.
+         * @throws Exception if connecting or the job fails.
+         */
+        private <T> T execute(INbtJob<T> job) throws Exception {
+            long begin = System.nanoTime();
+
+            if (!started) {
+                firstStart.set(begin);
+                started = true;
+            }
+
+            try {
+                if (!commandSet.isConnected())
+                    commandSet.connect();
+
+                T result = job.execute(commandSet);
+                completed.incrementAndGet();
+                return result;
+            } catch (InterruptedException e) {
+                // job cancelled while running, counted as cancelled
+                throw e;
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                throw e;
+            } finally {
+                long end = System.nanoTime();
+                busyTime.addAndGet(end - begin);
+                lastEnd.set(end);
+                ended = true;
+            }
+        }
+
+        /**
+         * Cancel all queued tasks.
+         *
+         * @return number of cancelled tasks.
+         */
+        private int cancelPending() {
+            List<Task<?>> pending = new ArrayList<>();
+            int count = 0;
+
+            queue.drainTo(pending);
+            for (Task<?> task : pending) {
+                if (task.cancel(false))
+                    count++;
+            }
+
+            return count;
+        }
+
+        /**
+         * Stop the worker after the running job.
+         */
+        private void shutdown() {
+            synchronized (this) {
+                stopped = true;
+                // a running job is not interrupted
+                if (idle)
+                    thread.interrupt();
+            }
+            cancelPending();
+        }
+
+        /**
+         * Create a statistics snapshot of the worker.
+         *
+         * @return statistics of reader.
+         */
+        private ReaderFarmStatistics getStatistics() {
+            long elapsed = ended ? lastEnd.get() - firstStart.get() : 0;
+
+            return new ReaderFarmStatistics(readerName, completed.get(),
+                                            failed.get(), cancelled.get(),
+                                            queue.size(), busyTime.get(),
+                                            Math.max(0, elapsed));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of the job statistics of one reader or of all readers of a
+ * ReaderFarm. All times are given in nanoseconds.
+ */
+public final class ReaderFarmStatistics {
+    /** Friendly name of reader or null for the aggregate of all readers */
+    private final String readerName;
+
+    /** Number of successfully completed jobs */
+    private final long completedCount;
+
+    /** Number of failed jobs */
+    private final long failedCount;
+
+    /** Number of cancelled jobs */
+    private final long cancelledCount;
+
+    /** Number of queued jobs */
+    private final int pendingCount;
+
+    /** Accumulated job execution time */
+    private final long busyTime;
+
+    /** Time between start of the first job and end of the last job */
+    private final long elapsedTime;
+
+    /**
+     * Constructor.
+     *
+     * @param readerName     friendly name of reader or null.
+     * @param completedCount number of successfully completed jobs.
+     * @param failedCount    number of failed jobs.
+     * @param cancelledCount number of cancelled jobs.
+     * @param pendingCount   number of queued jobs.
+     * @param busyTime       accumulated job execution time.
+     * @param elapsedTime    time between start of first and end of last job.
+     */
+    /* default */ ReaderFarmStatistics(String readerName, long completedCount,
+                                       long failedCount, long cancelledCount,
+                                       int pendingCount, long busyTime,
+                                       long elapsedTime) {
+        this.readerName = readerName;
+        this.completedCount = completedCount;
+        this.failedCount = failedCount;
+        this.cancelledCount = cancelledCount;
+        this.pendingCount = pendingCount;
+        this.busyTime = busyTime;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Return friendly name of reader.
+     *
+     * @return Friendly name of reader or null for the aggregate statistics of
+     *         all readers.
+     */
+    public String getReaderName() {
+        return readerName;
+    }
+
+    /**
+     * Return the number of successfully completed jobs.
+     *
+     * @return number of completed jobs.
+     */
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Return the number of jobs which failed with an exception.
+     *
+     * @return number of failed jobs.
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Return the number of cancelled jobs.
+     *
+     * @return number of cancelled jobs.
+     */
+    public long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * Return the number of jobs waiting in the queue.
+     *
+     * @return number of queued jobs.
+     */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Return the accumulated execution time of all jobs.
+     *
+     * @return busy time in nanoseconds.
+     */
+    public long getBusyTime() {
+        return busyTime;
+    }
+
+    /**
+     * Return the time between the start of the first job and the end of the
+     * last job.
+     *
+     * @return elapsed time in nanoseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Return the throughput, i.e. the number of successfully completed jobs
+     * (tags) per second of elapsed time.
+     *
+     * @return tags per second or zero if no job has completed yet.
+     */
+    public double getTagsPerSecond() {
+        if (elapsedTime <= 0)
+            return 0.0;
+
+        return completedCount * 1e9 / elapsedTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                             "%s: completed=%d failed=%d cancelled=%d "
+                                     + "pending=%d tags/s=%.1f",
+                             (readerName == null) ? "all readers" : readerName,
+                             completedCount, failedCount, cancelledCount,
+                             pendingCount, getTagsPerSecond());
+    }
+}
@@ -0,0 +1,118 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.apdu.nbt.model;
+
+import com.infineon.hsw.apdu.ApduResponse;
+import com.infineon.hsw.utils.annotation.NotNull;
+
+/**
+ * Result of a differential NDEF message update, which writes only the byte
+ * ranges of the NDEF file differing from the current content.
+ */
+public class NdefUpdateResult {
+    /**
+     * Response with the status word of the update.
+     */
+    private final ApduResponse response;
+
+    /**
+     * Number of READ BINARY commands sent to read the current content.
+     */
+    private final int readCount;
+
+    /**
+     * Number of UPDATE BINARY commands sent.
+     */
+    private final int writeCount;
+
+    /**
+     * Number of UPDATE BINARY commands a complete update would send.
+     */
+    private final int fullWriteCount;
+
+    /**
+     * Number of bytes written into the NDEF file.
+     */
+    private final int bytesWritten;
+
+    /**
+     * Constructor for creating an instance with the result of an update.
+     *
+     * @param response       Response with the status word of the update.
+     * @param readCount      Number of READ BINARY commands sent.
+     * @param writeCount     Number of UPDATE BINARY commands sent.
+     * @param fullWriteCount Number of UPDATE BINARY commands of a complete
+     *                       update.
+     * @param bytesWritten   Number of bytes written into the file.
+     */
+    public NdefUpdateResult(@NotNull ApduResponse response, int readCount,
+                            int writeCount, int fullWriteCount,
+                            int bytesWritten) {
+        this.response = response;
+        this.readCount = readCount;
+        this.writeCount = writeCount;
+        this.fullWriteCount = fullWriteCount;
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * Getter for the response with the status word of the update. In case of
+     * an error, this is the response of the failed command.
+     *
+     * @return Returns the response.
+     */
+    public ApduResponse getResponse() {
+        return this.response;
+    }
+
+    /**
+     * Getter for the number of READ BINARY commands sent to read the current
+     * content of the NDEF file.
+     *
+     * @return Returns the number of commands, 0 if the content was supplied.
+     */
+    public int getReadCount() {
+        return this.readCount;
+    }
+
+    /**
+     * Getter for the number of UPDATE BINARY commands sent.
+     *
+     * @return Returns the number of commands.
+     */
+    public int getWriteCount() {
+        return this.writeCount;
+    }
+
+    /**
+     * Getter for the number of UPDATE BINARY commands a complete update of
+     * the NDEF message would send.
+     *
+     * @return Returns the number of commands.
+     */
+    public int getFullWriteCount() {
+        return this.fullWriteCount;
+    }
+
+    /**
+     * Getter for the number of bytes written into the NDEF file.
+     *
+     * @return Returns the number of bytes.
+     */
+    public int getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     * Returns the number of commands saved compared to a complete update,
+     * including the commands sent to read the current content. The number is
+     * negative if the differential update sent more commands.
+     *
+     * @return Returns the number of commands saved.
+     */
+    public int getApdusSaved() {
+        return this.fullWriteCount - this.writeCount - this.readCount;
+    }
+}
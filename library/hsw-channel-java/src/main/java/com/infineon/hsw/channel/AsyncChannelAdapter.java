@@ -0,0 +1,213 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adapter which provides the asynchronous channel interface for any
+ * synchronous channel. The blocking exchanges of the wrapped channel are
+ * executed by an executor. Exchanges of one adapter are serialized: at most
+ * one exchange is performed at a time and the exchanges are performed in the
+ * order they have been requested. A worker thread is only occupied while an
+ * exchange is pending, so a small executor can serve many channels.
+ */
+public class AsyncChannelAdapter implements IAsyncChannel {
+    /** Shared executor used if no executor is given */
+    private static ExecutorService defaultExecutor;
+
+    /** Wrapped synchronous channel */
+    private final IChannel channel;
+
+    /** Executor performing the blocking exchanges */
+    private final Executor executor;
+
+    /** Queue of requested but not yet performed exchanges */
+    private final Queue<Exchange> pending = new ConcurrentLinkedQueue<>();
+
+    /** Marker if a worker is currently draining the queue */
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    /** Task draining the queue of pending exchanges */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Create an asynchronous adapter for a channel which uses the shared
+     * default executor.
+     *
+     * @param channel synchronous channel to be wrapped.
+     */
+    public AsyncChannelAdapter(IChannel channel) {
+        this(channel, getDefaultExecutor());
+    }
+
+    /**
+     * Create an asynchronous adapter for a channel.
+     *
+     * @param channel  synchronous channel to be wrapped.
+     * @param executor executor performing the blocking exchanges.
+     */
+    public AsyncChannelAdapter(IChannel channel, Executor executor) {
+        if ((channel == null) || (executor == null))
+            throw new IllegalArgumentException(
+                    "Channel and executor must not be null");
+
+        this.channel = channel;
+        this.executor = executor;
+    }
+
+    /**
+     * Return the shared default executor. The executor is created on first
+     * use, its daemon threads are created on demand and terminated after
+     * being idle for a while.
+     *
+     * @return shared default executor.
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(
+                                    runnable, "hsw-channel-async-" +
+                                                      count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+
+        return defaultExecutor;
+    }
+
+    /**
+     * Get the wrapped synchronous channel.
+     *
+     * @return reference of wrapped channel.
+     */
+    public IChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> transmitAsync(byte[] stream) {
+        return schedule(new Exchange(false, stream));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> controlAsync(byte[] stream) {
+        return schedule(new Exchange(true, stream));
+    }
+
+    @Override
+    public String getName() {
+        return channel.getName();
+    }
+
+    /**
+     * Helper method to queue an exchange and to start a worker if none is
+     * active.
+     *
+     * @param exchange exchange to be performed.
+     * @return future of the exchange response.
+     */
+    private CompletableFuture<byte[]> schedule(Exchange exchange) {
+        pending.add(exchange);
+        startWorker();
+        return exchange.future;
+    }
+
+    /**
+     * Helper method to start a worker draining the queue if exchanges are
+     * pending and no worker is active.
+     */
+    private void startWorker() {
+        while (!pending.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+                return;
+            } catch (RejectedExecutionException e) {
+                // fail all pending exchanges as nobody will process them
+                Exchange exchange;
+                while ((exchange = pending.poll()) != null) {
+                    exchange.future.completeExceptionally(new ChannelException(
+                            "Executor rejected channel exchange", e));
+                }
+                draining.set(false);
+            }
+        }
+    }
+
+    /**
+     * Helper method performing all pending exchanges one after another.
+     */
+    private void drain() {
+        try {
+            Exchange exchange;
+            while ((exchange = pending.poll()) != null) {
+                try {
+                    byte[] response = exchange.control
+                                              ? channel.control(exchange.stream)
+                                              : channel.transmit(
+                                                        exchange.stream);
+                    exchange.future.complete(response);
+                } catch (ChannelException e) {
+                    exchange.future.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    exchange.future.completeExceptionally(
+                            new ChannelException(e.getMessage(), e));
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // handle exchanges queued after the last poll
+        startWorker();
+    }
+
+    /**
+     * Container for a requested exchange.
+     */
+    private static final class Exchange {
+        /** Marker if exchange is a control exchange */
+        private final boolean control;
+
+        /** Stream to be sent */
+        private final byte[] stream;
+
+        /** Future receiving the response */
+        private final CompletableFuture<byte[]> future =
+                new CompletableFuture<>();
+
+        /**
+         * Constructor.
+         *
+         * @param control true for a control exchange.
+         * @param stream  stream to be sent.
+         */
+        private Exchange(boolean control, byte[] stream) {
+            this.control = control;
+            this.stream = stream;
+        }
+    }
+}
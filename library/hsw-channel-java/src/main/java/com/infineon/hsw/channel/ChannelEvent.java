@@ -0,0 +1,80 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+/**
+ * Container representing a change of the available channels (readers) or of
+ * the card presence in a channel.
+ */
+public class ChannelEvent {
+    /** Channel (reader) has been added */
+    public static final int EV_READER_ADDED = 0x00000001;
+    /** Channel (reader) has been removed */
+    public static final int EV_READER_REMOVED = 0x00000002;
+    /** Card has been inserted into or placed on the reader */
+    public static final int EV_CARD_PRESENT = 0x00000003;
+    /** Card has been removed from the reader */
+    public static final int EV_CARD_ABSENT = 0x00000004;
+
+    /** Event ID for this event */
+    private final int eventID;
+    /** Provider of the channel */
+    private final IChannelProvider provider;
+    /** Friendly name of the channel */
+    private final String channelName;
+    /** Time of detection in milliseconds since epoch */
+    private final long timestamp;
+
+    /**
+     * Constructor.
+     *
+     * @param eventID     event ID for event.
+     * @param provider    provider of the channel.
+     * @param channelName friendly name of the channel.
+     */
+    public ChannelEvent(int eventID, IChannelProvider provider,
+                        String channelName) {
+        this.eventID = eventID;
+        this.provider = provider;
+        this.channelName = channelName;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Get event ID of event.
+     *
+     * @return event ID
+     */
+    public int getEventID() {
+        return eventID;
+    }
+
+    /**
+     * Get the provider of the channel.
+     *
+     * @return channel provider.
+     */
+    public IChannelProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Get the friendly name of the channel.
+     *
+     * @return friendly channel name.
+     */
+    public String getChannelName() {
+        return channelName;
+    }
+
+    /**
+     * Get the time the change has been detected.
+     *
+     * @return time in milliseconds since epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
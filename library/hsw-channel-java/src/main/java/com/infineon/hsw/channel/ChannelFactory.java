@@ -7,12 +7,15 @@ package com.infineon.hsw.channel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Factory class to create communication channels.
+ * Factory class to create communication channels. The factory is thread-safe:
+ * the registry is kept as an immutable snapshot which is replaced on every
+ * modification, so channels can be resolved concurrently without locking.
  */
 public final class ChannelFactory {
     private static final String EXCEPTION_MESSAGE_FACTORY_ALREADY_REGISTER =
@@ -25,14 +28,15 @@ public final class ChannelFactory {
     }
 
     /**
-     * * List containing channel factory registry.
+     * Current snapshot of the registry. The snapshot is immutable and replaced
+     * as a whole on any modification, so lookups do not need any locking.
      */
-    private static final List<IChannelProvider> factoryRegistry = new ArrayList<>();
+    private static volatile Registry registry = new Registry(
+            Collections.<IChannelProvider>emptyList(),
+            Collections.<IChannelProvider, String[]>emptyMap());
 
-    /**
-     * Map of channel names versus provider.
-     */
-    private static final HashMap<String, IChannelProvider> channels = new HashMap<>();
+    /** Lock serializing modifications of the registry */
+    private static final Object REGISTRY_LOCK = new Object();
 
     /**
      * Get a channel of the requested type and name. If the channel requires
@@ -64,10 +68,10 @@ public final class ChannelFactory {
     }
 
     /**
-     * Get a channel of the requested name. The registered factories are asked
-     * to create the channel in the order of their registration. The returned
-     * instance is the object created by the first factory providing the named
-     * channel.
+     * Get a channel of the requested name. The channel is created by the first
+     * registered factory providing the named channel. The factory is looked up
+     * in the channel name index; the channel names of the registered factories
+     * are only enumerated again (see refresh()) if the name is not yet known.
      *
      * @param channelName User friendly name for channel. The available names
      *         for a specific type can be obtained by getChannelNames().
@@ -76,11 +80,9 @@ public final class ChannelFactory {
      */
     public static IChannel getChannel(final String channelName) {
         IChannel channel = null;
-        // force refresh of channel names
-        getChannelNames();
 
         // get provider for this channel name and try to create channel
-        IChannelProvider provider = channels.get(channelName);
+        IChannelProvider provider = lookupChannel(channelName);
         if (provider != null) {
             channel = provider.getChannel(channelName, null);
         }
@@ -94,12 +96,11 @@ public final class ChannelFactory {
      * @return array of friendly channel types.
      */
     public static String[] getChannelTypes() {
-        Enumeration<IChannelProvider> factory = Collections.enumeration(
-                factoryRegistry);
-        String[] channelTypes = new String[factoryRegistry.size()];
+        List<IChannelProvider> providers = registry.providers;
+        String[] channelTypes = new String[providers.size()];
 
         for (int i = 0; i < channelTypes.length; i++) {
-            channelTypes[i] = factory.nextElement().getProviderName();
+            channelTypes[i] = providers.get(i).getProviderName();
         }
 
         return channelTypes;
@@ -126,26 +127,68 @@ public final class ChannelFactory {
     /**
      * Return a list of channel names for all registered factories. Each name
      * only appears once even if more than one factory provides a channel with
-     * the same name.
+     * the same name. The channel names of all factories are enumerated again
+     * before the list is returned.
      *
      * @return array of friendly channel names.
      */
     public static String[] getChannelNames() {
-        channels.clear();
-        String[] names;
-        Enumeration<IChannelProvider> factoryList = Collections.enumeration(
-                factoryRegistry);
-        while (factoryList.hasMoreElements()) {
-            IChannelProvider factory = factoryList.nextElement();
-            for (String strName : factory.getChannelNames()) {
-                channels.put(strName, factory);
+        return getChannelNames(true);
+    }
+
+    /**
+     * Return a list of channel names for all registered factories. Each name
+     * only appears once even if more than one factory provides a channel with
+     * the same name.
+     *
+     * @param refresh if true the channel names of all factories are enumerated
+     *         again, otherwise the names known from the last enumeration are
+     *         returned.
+     * @return array of friendly channel names.
+     */
+    public static String[] getChannelNames(final boolean refresh) {
+        if (refresh)
+            refresh();
+
+        return registry.sortedNames.clone();
+    }
+
+    /**
+     * Enumerate the channel names of all registered factories and update the
+     * channel name index.
+     */
+    public static void refresh() {
+        synchronized (REGISTRY_LOCK) {
+            Registry current = registry;
+            Map<IChannelProvider, String[]> names = new IdentityHashMap<>();
+
+            for (IChannelProvider provider : current.providers) {
+                names.put(provider, enumerate(provider));
             }
+
+            registry = new Registry(current.providers, names);
         }
+    }
 
-        names = channels.keySet().toArray(new String[0]);
-        Arrays.sort(names);
+    /**
+     * Enumerate the channel names of one registered factory and update the
+     * channel name index. The channel names of all other factories are not
+     * enumerated again.
+     *
+     * @param channelType name of channel factory (channel type description)
+     * @throws ChannelException if no factory with the given name is
+     *         registered.
+     */
+    public static void refresh(final String channelType)
+            throws ChannelException {
+        synchronized (REGISTRY_LOCK) {
+            IChannelProvider provider = lookupProvider(channelType);
 
-        return names;
+            if (provider == null)
+                throw new ChannelException("Factory not found");
+
+            updateChannelNames(provider, enumerate(provider));
+        }
     }
 
     /**
@@ -157,12 +200,24 @@ public final class ChannelFactory {
      */
     public static void registerProvider(final IChannelProvider factory)
             throws ChannelException {
-        // Check for factory with this name already registered or not
-        if (lookupProvider(factory.getProviderName()) == null) {
-            factoryRegistry.add(factory);
-        } else {
-            throw new ChannelException(
-                    EXCEPTION_MESSAGE_FACTORY_ALREADY_REGISTER);
+        synchronized (REGISTRY_LOCK) {
+            Registry current = registry;
+
+            // Check for factory with this name already registered or not
+            if (current.byType.containsKey(factory.getProviderName())) {
+                throw new ChannelException(
+                        EXCEPTION_MESSAGE_FACTORY_ALREADY_REGISTER);
+            }
+
+            // only the channel names of the new factory have to be enumerated
+            List<IChannelProvider> providers = new ArrayList<>(
+                    current.providers);
+            Map<IChannelProvider, String[]> names = new IdentityHashMap<>(
+                    current.names);
+            providers.add(factory);
+            names.put(factory, enumerate(factory));
+
+            registry = new Registry(providers, names);
         }
     }
 
@@ -176,54 +231,163 @@ public final class ChannelFactory {
      *         name could be found.
      */
     public static IChannelProvider unregisterProvider(final String name) {
-        IChannelProvider factory = lookupProvider(name);
+        synchronized (REGISTRY_LOCK) {
+            Registry current = registry;
+            IChannelProvider factory = current.byType.get(name);
 
-        // look for factory
-        if (factory != null) {
-            factoryRegistry.remove(factory);
-        }
+            // look for factory
+            if (factory != null) {
+                List<IChannelProvider> providers = new ArrayList<>(
+                        current.providers);
+                Map<IChannelProvider, String[]> names = new IdentityHashMap<>(
+                        current.names);
+                providers.remove(factory);
+                names.remove(factory);
+
+                registry = new Registry(providers, names);
+            }
 
-        return factory;
+            return factory;
+        }
     }
 
     /**
      * Method to find the channel factory by its name.
      *
-     *
-     *
      * @param channelType name of channel factory (channel type description)
      * @return channel factory object or null if not found.
      */
     public static IChannelProvider lookupProvider(final String channelType) {
-        Enumeration<IChannelProvider> registry = Collections.enumeration(
-                factoryRegistry);
-
-        while (registry.hasMoreElements()) {
-            IChannelProvider provider = registry.nextElement();
-
-            if (provider.getProviderName().compareTo(channelType) == 0) {
-                return provider;
-            }
-        }
+        if (channelType == null)
+            return null;
 
-        return null;
+        return registry.byType.get(channelType);
     }
 
     /**
      * Method to return the channel factory by its name.
      *
      * @param readerName name of the reader
-     * @return the registered Channel provider with the given channel name
+     * @return the registered Channel provider with the given channel name. If
+     *         no registered provider offers the channel, the last registered
+     *         provider is returned (or null if no provider is registered).
      */
     public static IChannelProvider getChannelProvider(final String readerName) {
-        IChannelProvider channelProvider = null;
-        for (IChannelProvider iChannelProvider : factoryRegistry) {
-            channelProvider = iChannelProvider;
-            if (Arrays.asList(channelProvider.getChannelNames())
-                    .contains(readerName)) {
-                return channelProvider;
-            }
+        IChannelProvider channelProvider = lookupChannel(readerName);
+
+        if (channelProvider == null) {
+            List<IChannelProvider> providers = registry.providers;
+            if (!providers.isEmpty())
+                channelProvider = providers.get(providers.size() - 1);
         }
+
         return channelProvider;
     }
+
+    /**
+     * Helper method to find the provider of a channel in the channel name
+     * index. If the channel name is unknown, the channel names are enumerated
+     * again once.
+     *
+     * @param channelName friendly name of channel.
+     * @return provider of the channel or null if no provider offers it.
+     */
+    private static IChannelProvider lookupChannel(final String channelName) {
+        if (channelName == null)
+            return null;
+
+        IChannelProvider provider = registry.index.get(channelName);
+        if (provider == null) {
+            // channel might have been added since last enumeration
+            refresh();
+            provider = registry.index.get(channelName);
+        }
+
+        return provider;
+    }
+
+    /**
+     * Helper method to replace the known channel names of one provider. The
+     * method has no effect if the provider is not registered.
+     *
+     * @param provider     registered provider.
+     * @param channelNames current channel names of the provider.
+     */
+    /* default */ static void updateChannelNames(
+            final IChannelProvider provider, final String[] channelNames) {
+        synchronized (REGISTRY_LOCK) {
+            Registry current = registry;
+
+            if (current.names.containsKey(provider)) {
+                Map<IChannelProvider, String[]> names = new IdentityHashMap<>(
+                        current.names);
+                names.put(provider, channelNames.clone());
+
+                registry = new Registry(current.providers, names);
+            }
+        }
+    }
+
+    /**
+     * Helper method to enumerate the channel names of a provider.
+     *
+     * @param provider channel provider.
+     * @return array of channel names, never null.
+     */
+    private static String[] enumerate(final IChannelProvider provider) {
+        String[] names = provider.getChannelNames();
+        return (names != null) ? names : new String[0];
+    }
+
+    /**
+     * Immutable snapshot of the registered providers and their channel names.
+     */
+    private static final class Registry {
+        /** Registered providers in order of registration */
+        private final List<IChannelProvider> providers;
+
+        /** Registered providers by provider name (channel type) */
+        private final Map<String, IChannelProvider> byType;
+
+        /** Channel names per provider as known from last enumeration */
+        private final Map<IChannelProvider, String[]> names;
+
+        /** Channel name index pointing to the first provider of a name */
+        private final Map<String, IChannelProvider> index;
+
+        /** Sorted array of all known channel names */
+        private final String[] sortedNames;
+
+        /**
+         * Build snapshot and derived lookup tables.
+         *
+         * @param providers registered providers in order of registration.
+         * @param names     channel names per provider.
+         */
+        private Registry(List<IChannelProvider> providers,
+                         Map<IChannelProvider, String[]> names) {
+            Map<String, IChannelProvider> typeMap = new HashMap<>();
+            Map<String, IChannelProvider> indexMap = new HashMap<>();
+
+            for (IChannelProvider provider : providers) {
+                typeMap.put(provider.getProviderName(), provider);
+
+                String[] channelNames = names.get(provider);
+                if (channelNames != null) {
+                    for (String channelName : channelNames) {
+                        if (!indexMap.containsKey(channelName))
+                            indexMap.put(channelName, provider);
+                    }
+                }
+            }
+
+            this.providers = Collections.unmodifiableList(
+                    new ArrayList<>(providers));
+            this.names = names;
+            byType = typeMap;
+            index = indexMap;
+            sortedNames = indexMap.keySet().toArray(new String[0]);
+            Arrays.sort(sortedNames);
+        }
+    }
 }
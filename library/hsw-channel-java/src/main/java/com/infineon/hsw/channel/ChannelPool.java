@@ -0,0 +1,371 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of opened and connected communication channels. The pool keeps one
+ * channel per channel (reader) name. A channel is leased exclusively by one
+ * thread and has to be returned to the pool after use. Before a channel is
+ * handed out its health is checked: a channel which is not open or not
+ * connected anymore is evicted and replaced by a freshly opened and connected
+ * channel.
+ */
+public class ChannelPool {
+    /** Provider creating the channels or null to use the ChannelFactory */
+    private final IChannelProvider provider;
+
+    /** Marker if channels are opened for exclusive access */
+    private final boolean exclusive;
+
+    /** Pool entries by channel name */
+    private final ConcurrentMap<String, Entry> entries =
+            new ConcurrentHashMap<>();
+
+    /** Marker if pool has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Create a pool which obtains its channels from the ChannelFactory and
+     * opens them for shared access.
+     */
+    public ChannelPool() {
+        this(null, false);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param provider  provider creating the channels or null to obtain the
+     *         channels from the ChannelFactory.
+     * @param exclusive if true the channels are opened for exclusive access.
+     */
+    public ChannelPool(IChannelProvider provider, boolean exclusive) {
+        this.provider = provider;
+        this.exclusive = exclusive;
+    }
+
+    /**
+     * Lease the channel with the given name. The method waits until the
+     * channel is available.
+     *
+     * @param channelName friendly name of channel.
+     * @return opened and connected channel.
+     * @throws ChannelException     if the channel cannot be created, opened or
+     *         connected.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public IChannel lease(String channelName)
+            throws ChannelException, InterruptedException {
+        Entry entry = getEntry(channelName);
+        long waitTime = System.nanoTime();
+
+        entry.lock.acquire();
+        return activate(entry, System.nanoTime() - waitTime);
+    }
+
+    /**
+     * Lease the channel with the given name. The method waits at most the
+     * given time until the channel is available.
+     *
+     * @param channelName friendly name of channel.
+     * @param timeout     maximum time to wait.
+     * @param unit        time unit of the timeout argument.
+     * @return opened and connected channel.
+     * @throws ChannelException     if the channel is not available in time or
+     *         cannot be created, opened or connected.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public IChannel lease(String channelName, long timeout, TimeUnit unit)
+            throws ChannelException, InterruptedException {
+        Entry entry = getEntry(channelName);
+        long waitTime = System.nanoTime();
+
+        if (!entry.lock.tryAcquire(timeout, unit)) {
+            entry.timeouts.incrementAndGet();
+            throw new ChannelException(
+                    "Timeout while waiting for channel " + channelName);
+        }
+
+        return activate(entry, System.nanoTime() - waitTime);
+    }
+
+    /**
+     * Return a leased channel to the pool.
+     *
+     * @param channel channel obtained by one of the lease methods.
+     * @throws IllegalArgumentException if the channel is not managed by the
+     *         pool.
+     * @throws IllegalStateException    if the channel is not leased, e.g. it
+     *         has already been returned.
+     */
+    public void release(IChannel channel) {
+        release(channel, false);
+    }
+
+    /**
+     * Return a leased channel to the pool and evict it. This method should be
+     * used if the channel is known to be broken. The next lease will create a
+     * new channel.
+     *
+     * @param channel channel obtained by one of the lease methods.
+     * @throws IllegalArgumentException if the channel is not managed by the
+     *         pool.
+     * @throws IllegalStateException    if the channel is not leased, e.g. it
+     *         has already been returned.
+     */
+    public void invalidate(IChannel channel) {
+        release(channel, true);
+    }
+
+    /**
+     * Get the wait time statistics of a channel.
+     *
+     * @param channelName friendly name of channel.
+     * @return statistics snapshot of the channel. If the channel has never
+     *         been leased, all values are zero.
+     */
+    public ChannelPoolStatistics getStatistics(String channelName) {
+        Entry entry = entries.get(channelName);
+
+        if (entry == null)
+            return new ChannelPoolStatistics(channelName, 0, 0, 0, 0, 0, 0);
+
+        return new ChannelPoolStatistics(channelName, entry.leases.get(),
+                                         entry.totalWaitTime.get(),
+                                         entry.maxWaitTime.get(),
+                                         entry.timeouts.get(),
+                                         entry.evictions.get(),
+                                         entry.lock.getQueueLength());
+    }
+
+    /**
+     * Return the names of all channels managed by the pool.
+     *
+     * @return array of friendly channel names.
+     */
+    public String[] getChannelNames() {
+        return entries.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Close the pool. All channels which are currently not leased are
+     * disconnected and closed. Leased channels are closed when they are
+     * returned. Further lease requests are rejected.
+     */
+    public void close() {
+        closed = true;
+
+        for (Entry entry : entries.values()) {
+            if (entry.lock.tryAcquire()) {
+                try {
+                    evict(entry);
+                } finally {
+                    entry.lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to get or create the pool entry of a channel.
+     *
+     * @param channelName friendly name of channel.
+     * @return pool entry.
+     * @throws ChannelException if the pool has been closed.
+     */
+    private Entry getEntry(String channelName) throws ChannelException {
+        if (channelName == null)
+            throw new ChannelException("No channel name specified");
+
+        if (closed)
+            throw new ChannelException("Channel pool closed");
+
+        Entry entry = entries.get(channelName);
+        if (entry == null) {
+            Entry newEntry = new Entry(channelName);
+            entry = entries.putIfAbsent(channelName, newEntry);
+            if (entry == null)
+                entry = newEntry;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Helper method to hand out the channel of an entry after the lock has
+     * been acquired. The health of the channel is checked and a broken channel
+     * is replaced.
+     *
+     * @param entry    locked pool entry.
+     * @param waitTime time in nanoseconds spent to acquire the lock.
+     * @return opened and connected channel.
+     * @throws ChannelException if the channel cannot be created, opened or
+     *         connected.
+     */
+    private IChannel activate(Entry entry, long waitTime)
+            throws ChannelException {
+        boolean success = false;
+
+        // update statistics
+        entry.leases.incrementAndGet();
+        entry.totalWaitTime.addAndGet(waitTime);
+        long max = entry.maxWaitTime.get();
+        while ((waitTime > max) &&
+               !entry.maxWaitTime.compareAndSet(max, waitTime)) {
+            max = entry.maxWaitTime.get();
+        }
+
+        try {
+            if (closed)
+                throw new ChannelException("Channel pool closed");
+
+            // evict broken channel
+            IChannel channel = entry.channel;
+            if ((channel != null) &&
+                (!channel.isOpen() || !channel.isConnected())) {
+                evict(entry);
+                channel = null;
+            }
+
+            // create new channel if required
+            if (channel == null) {
+                channel = (provider != null)
+                                  ? provider.getChannel(entry.name, null)
+                                  : ChannelFactory.getChannel(entry.name);
+                if (channel == null)
+                    throw new ChannelException("Channel " + entry.name +
+                                               " not available");
+
+                entry.channel = channel;
+                if (!channel.isOpen())
+                    channel.open(exclusive);
+                if (!channel.isConnected())
+                    channel.connect(null);
+            }
+
+            entry.leased.set(true);
+            success = true;
+            return channel;
+        } finally {
+            if (!success) {
+                evict(entry);
+                entry.lock.release();
+            }
+        }
+    }
+
+    /**
+     * Helper method to return a channel to the pool.
+     *
+     * @param channel channel to be returned.
+     * @param evict   if true the channel is evicted.
+     * @throws IllegalArgumentException if the channel is not managed by the
+     *         pool.
+     * @throws IllegalStateException    if the channel is not leased.
+     */
+    private void release(IChannel channel, boolean evict) {
+        Entry entry = null;
+
+        // look for the entry owning the channel
+        if (channel != null) {
+            for (Entry candidate : entries.values()) {
+                if (candidate.channel == channel) {
+                    entry = candidate;
+                    break;
+                }
+            }
+        }
+
+        if (entry == null)
+            throw new IllegalArgumentException("Channel not leased from pool");
+
+        // a second release must not add a permit to the lock
+        if (!entry.leased.compareAndSet(true, false))
+            throw new IllegalStateException("Channel not leased");
+
+        if (evict || closed)
+            evict(entry);
+
+        entry.lock.release();
+    }
+
+    /**
+     * Helper method to disconnect and close the channel of an entry. Errors
+     * are ignored as the channel is dropped anyway.
+     *
+     * @param entry locked pool entry.
+     */
+    private void evict(Entry entry) {
+        IChannel channel = entry.channel;
+
+        if (channel == null)
+            return;
+
+        entry.channel = null;
+        entry.evictions.incrementAndGet();
+
+        try {
+            if (channel.isConnected())
+                channel.disconnect(null);
+        } catch (ChannelException e) {
+            // ignore, channel is dropped
+        }
+
+        try {
+            if (channel.isOpen())
+                channel.close();
+        } catch (ChannelException e) {
+            // ignore, channel is dropped
+        }
+    }
+
+    /**
+     * Pool entry of one channel.
+     */
+    private static final class Entry {
+        /** Friendly name of channel */
+        private final String name;
+
+        /** Lock granting exclusive access to the channel */
+        private final Semaphore lock = new Semaphore(1, true);
+
+        /** Marker if the channel is currently leased */
+        private final AtomicBoolean leased = new AtomicBoolean();
+
+        /** Current channel or null if no channel is available */
+        private volatile IChannel channel;
+
+        /** Number of leases */
+        private final AtomicLong leases = new AtomicLong();
+
+        /** Accumulated wait time in nanoseconds */
+        private final AtomicLong totalWaitTime = new AtomicLong();
+
+        /** Maximum wait time in nanoseconds */
+        private final AtomicLong maxWaitTime = new AtomicLong();
+
+        /** Number of lease requests which timed out */
+        private final AtomicLong timeouts = new AtomicLong();
+
+        /** Number of evicted channels */
+        private final AtomicLong evictions = new AtomicLong();
+
+        /**
+         * Constructor.
+         *
+         * @param name friendly name of channel.
+         */
+        private Entry(String name) {
+            this.name = name;
+        }
+    }
+}
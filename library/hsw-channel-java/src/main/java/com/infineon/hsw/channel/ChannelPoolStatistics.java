@@ -0,0 +1,140 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+/**
+ * Snapshot of the lease statistics of one channel managed by a ChannelPool.
+ * All times are given in nanoseconds.
+ */
+public final class ChannelPoolStatistics {
+    /** Friendly name of channel */
+    private final String channelName;
+
+    /** Number of leases */
+    private final long leaseCount;
+
+    /** Accumulated wait time */
+    private final long totalWaitTime;
+
+    /** Maximum wait time */
+    private final long maxWaitTime;
+
+    /** Number of lease requests which timed out */
+    private final long timeoutCount;
+
+    /** Number of evicted channels */
+    private final long evictionCount;
+
+    /** Number of threads currently waiting for the channel */
+    private final int waitingCount;
+
+    /**
+     * Constructor.
+     *
+     * @param channelName   friendly name of channel.
+     * @param leaseCount    number of leases.
+     * @param totalWaitTime accumulated wait time.
+     * @param maxWaitTime   maximum wait time.
+     * @param timeoutCount  number of lease requests which timed out.
+     * @param evictionCount number of evicted channels.
+     * @param waitingCount  number of threads currently waiting.
+     */
+    /* default */ ChannelPoolStatistics(String channelName, long leaseCount,
+                                        long totalWaitTime, long maxWaitTime,
+                                        long timeoutCount, long evictionCount,
+                                        int waitingCount) {
+        this.channelName = channelName;
+        this.leaseCount = leaseCount;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.timeoutCount = timeoutCount;
+        this.evictionCount = evictionCount;
+        this.waitingCount = waitingCount;
+    }
+
+    /**
+     * Return friendly name of channel.
+     *
+     * @return Friendly name of channel.
+     */
+    public String getChannelName() {
+        return channelName;
+    }
+
+    /**
+     * Return the number of leases (including failed leases).
+     *
+     * @return number of leases.
+     */
+    public long getLeaseCount() {
+        return leaseCount;
+    }
+
+    /**
+     * Return the accumulated time spent waiting for the channel.
+     *
+     * @return accumulated wait time in nanoseconds.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    /**
+     * Return the maximum time spent waiting for the channel.
+     *
+     * @return maximum wait time in nanoseconds.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Return the average time spent waiting for the channel.
+     *
+     * @return average wait time in nanoseconds.
+     */
+    public long getAverageWaitTime() {
+        return (leaseCount > 0) ? totalWaitTime / leaseCount : 0;
+    }
+
+    /**
+     * Return the number of lease requests which timed out.
+     *
+     * @return number of timeouts.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * Return the number of channels which have been evicted because they were
+     * broken, invalidated or the pool was closed.
+     *
+     * @return number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Return the number of threads waiting for the channel at the time the
+     * snapshot was taken.
+     *
+     * @return number of waiting threads.
+     */
+    public int getWaitingCount() {
+        return waitingCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s: leases=%d avgWait=%.3fms maxWait=%.3fms timeouts=%d " +
+                        "evictions=%d waiting=%d",
+                channelName, leaseCount, getAverageWaitTime() / 1000000.0,
+                maxWaitTime / 1000000.0, timeoutCount, evictionCount,
+                waitingCount);
+    }
+}
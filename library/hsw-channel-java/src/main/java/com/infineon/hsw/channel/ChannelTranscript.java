@@ -0,0 +1,379 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reader of compact binary channel transcripts as written by the
+ * RecordingChannel. A transcript starts with a header consisting of the magic
+ * "HSWT", a version byte and the start time in milliseconds since epoch
+ * (8 bytes, big endian). The header is followed by records, one per channel
+ * exchange:
+ * <ul>
+ * <li>type byte (record type ored with the flags FLAG_ERROR and
+ * FLAG_NO_RESPONSE)</li>
+ * <li>timestamp delta to the previous record in microseconds (varint)</li>
+ * <li>duration of the exchange in microseconds (varint)</li>
+ * <li>length of request (varint) followed by the request</li>
+ * <li>length of response (varint) followed by the response or the UTF-8
+ * message of the exception for error records</li>
+ * </ul>
+ * Varints are unsigned LEB128 encoded. A truncated record at the end of a
+ * transcript, e.g. after a crash during recording, is ignored.
+ */
+public final class ChannelTranscript {
+    /** Magic at the start of each transcript */
+    public static final byte[] MAGIC = { 'H', 'S', 'W', 'T' };
+
+    /** Version of the transcript format */
+    public static final int VERSION = 1;
+
+    /** Length of the transcript header */
+    public static final int HEADER_LENGTH = MAGIC.length + 1 + 8;
+
+    /** Record type of a connect exchange */
+    public static final int TYPE_CONNECT = 1;
+
+    /** Record type of a disconnect exchange */
+    public static final int TYPE_DISCONNECT = 2;
+
+    /** Record type of a reset exchange */
+    public static final int TYPE_RESET = 3;
+
+    /** Record type of a transmit exchange */
+    public static final int TYPE_TRANSMIT = 4;
+
+    /** Record type of a control exchange */
+    public static final int TYPE_CONTROL = 5;
+
+    /** Flag marking an exchange which failed with an exception */
+    public static final int FLAG_ERROR = 0x80;
+
+    /** Flag marking an exchange which returned no response (null) */
+    public static final int FLAG_NO_RESPONSE = 0x40;
+
+    /** Mask of the record type */
+    private static final int TYPE_MASK = 0x3F;
+
+    /** Transcript data positioned at the next record */
+    private final ByteBuffer buffer;
+
+    /** Start time of the recording in milliseconds since epoch */
+    private final long startTime;
+
+    /** Timestamp of the last read record in microseconds */
+    private long timestamp;
+
+    /**
+     * Create a reader for a transcript held in a buffer. The remaining bytes
+     * of the buffer are used, the buffer itself is not modified.
+     *
+     * @param transcript buffer containing the transcript.
+     * @throws ChannelException if the transcript header is invalid.
+     */
+    public ChannelTranscript(ByteBuffer transcript) throws ChannelException {
+        buffer = transcript.slice().order(ByteOrder.BIG_ENDIAN);
+
+        byte[] magic = new byte[MAGIC.length];
+        if (buffer.remaining() < HEADER_LENGTH)
+            throw new ChannelException("Transcript header truncated");
+
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || (buffer.get() != VERSION))
+            throw new ChannelException("Unsupported transcript format");
+
+        startTime = buffer.getLong();
+        buffer.mark();
+    }
+
+    /**
+     * Open a transcript file. The file is mapped into memory, so even large
+     * transcripts are read without copying them to the heap.
+     *
+     * @param path path of transcript file.
+     * @return transcript reader.
+     * @throws ChannelException if the file cannot be mapped, exceeds 2 GB or
+     *         the transcript header is invalid.
+     */
+    public static ChannelTranscript open(Path path) throws ChannelException {
+        try (FileChannel file = FileChannel.open(path,
+                                                 StandardOpenOption.READ)) {
+            long size = file.size();
+
+            // a mapped buffer is limited to 2 GB
+            if (size > Integer.MAX_VALUE)
+                throw new ChannelException(String.format(
+                        "Transcript %s of %d bytes is too large", path, size));
+
+            return new ChannelTranscript(
+                    file.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            throw new ChannelException("Cannot open transcript " + path, e);
+        }
+    }
+
+    /**
+     * Get the start time of the recording.
+     *
+     * @return start time in milliseconds since epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return next record or null if the end of the transcript is reached.
+     */
+    public Record next() {
+        int start = buffer.position();
+
+        try {
+            int type = buffer.get() & 0xFF;
+            long time = timestamp + readVarint(buffer);
+            long duration = readVarint(buffer);
+            ByteBuffer request = readBlock(buffer);
+            ByteBuffer response = readBlock(buffer);
+
+            timestamp = time;
+            return new Record(type, time, duration, request, response);
+        } catch (RuntimeException e) {
+            // truncated or corrupt record terminates the transcript
+            buffer.position(start);
+            return null;
+        }
+    }
+
+    /**
+     * Set the reader back to the first record.
+     */
+    public void rewind() {
+        buffer.reset();
+        timestamp = 0;
+    }
+
+    /**
+     * Write a transcript header.
+     *
+     * @param out       stream receiving the header.
+     * @param startTime start time in milliseconds since epoch.
+     * @throws IOException if writing to the stream fails.
+     */
+    public static void writeHeader(OutputStream out, long startTime)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+        header.put(MAGIC).put((byte) VERSION).putLong(startTime);
+        out.write(header.array());
+    }
+
+    /**
+     * Write a varint.
+     *
+     * @param out   stream receiving the varint.
+     * @param value non-negative value.
+     * @throws IOException if writing to the stream fails.
+     */
+    public static void writeVarint(OutputStream out, long value)
+            throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Helper method to read a varint.
+     *
+     * @param buffer buffer positioned at the varint.
+     * @return decoded value.
+     */
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buffer.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IllegalStateException("Varint too long");
+    }
+
+    /**
+     * Helper method to read a length prefixed block without copying it.
+     *
+     * @param buffer buffer positioned at the block.
+     * @return read-only view of the block.
+     */
+    private static ByteBuffer readBlock(ByteBuffer buffer) {
+        long length = readVarint(buffer);
+
+        if (length > buffer.remaining())
+            throw new IllegalStateException("Block truncated");
+
+        ByteBuffer block = buffer.slice().asReadOnlyBuffer();
+        block.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return block;
+    }
+
+    /**
+     * Record of one channel exchange. Request and response are views into the
+     * transcript and are only copied on request.
+     */
+    public static final class Record {
+        /** Type byte including flags */
+        private final int type;
+
+        /** Timestamp in microseconds since start of recording */
+        private final long timestamp;
+
+        /** Duration of exchange in microseconds */
+        private final long duration;
+
+        /** View of request */
+        private final ByteBuffer request;
+
+        /** View of response or error message */
+        private final ByteBuffer response;
+
+        /**
+         * Constructor.
+         *
+         * @param type      type byte including flags.
+         * @param timestamp timestamp in microseconds.
+         * @param duration  duration in microseconds.
+         * @param request   view of request.
+         * @param response  view of response.
+         */
+        private Record(int type, long timestamp, long duration,
+                       ByteBuffer request, ByteBuffer response) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.duration = duration;
+            this.request = request;
+            this.response = response;
+        }
+
+        /**
+         * Get the record type.
+         *
+         * @return one of the TYPE constants.
+         */
+        public int getType() {
+            return type & TYPE_MASK;
+        }
+
+        /**
+         * Check if the exchange failed with an exception.
+         *
+         * @return true if the exchange failed.
+         */
+        public boolean isError() {
+            return (type & FLAG_ERROR) != 0;
+        }
+
+        /**
+         * Get the start time of the exchange.
+         *
+         * @return timestamp in microseconds since start of recording.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Get the duration of the exchange.
+         *
+         * @return duration in microseconds.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Get a copy of the request.
+         *
+         * @return request bytes.
+         */
+        public byte[] getRequest() {
+            return toBytes(request);
+        }
+
+        /**
+         * Check if the request equals the remaining bytes of a buffer. The
+         * position of the buffer is not changed.
+         *
+         * @param stream buffer with request to be compared.
+         * @return true if the request is equal.
+         */
+        public boolean matchesRequest(ByteBuffer stream) {
+            return request.duplicate().equals(stream);
+        }
+
+        /**
+         * Get a copy of the response.
+         *
+         * @return response bytes or null if the exchange returned no
+         *         response or failed.
+         */
+        public byte[] getResponse() {
+            if (isError() || ((type & FLAG_NO_RESPONSE) != 0))
+                return null;
+
+            return toBytes(response);
+        }
+
+        /**
+         * Get a read-only view of the response.
+         *
+         * @return response view or null if the exchange returned no response
+         *         or failed.
+         */
+        public ByteBuffer getResponseBuffer() {
+            if (isError() || ((type & FLAG_NO_RESPONSE) != 0))
+                return null;
+
+            return response.duplicate();
+        }
+
+        /**
+         * Get the message of the exception of a failed exchange.
+         *
+         * @return exception message or null if the exchange succeeded.
+         */
+        public String getErrorMessage() {
+            if (!isError())
+                return null;
+
+            return new String(toBytes(response), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Helper method to copy a view.
+         *
+         * @param view view to be copied.
+         * @return copied bytes.
+         */
+        private static byte[] toBytes(ByteBuffer view) {
+            byte[] bytes = new byte[view.remaining()];
+            view.duplicate().get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background service watching channel providers for readers being added or
+ * removed and cards being presented or removed. Each provider is watched by
+ * its own daemon thread. Providers implementing IChannelMonitor are waited on
+ * with their blocking wait, all other providers are polled with the
+ * configured interval; card presence can only be reported by providers
+ * implementing IChannelMonitor. Changes of the reader list are published to
+ * the registered listeners and to the channel name index of the
+ * ChannelFactory. On start the readers (and cards) already present are
+ * reported as added, so a listener receives the complete picture.
+ */
+public class ChannelWatcher {
+    /** Poll interval or maximum blocking wait in milliseconds */
+    private final long interval;
+
+    /** Registered listeners */
+    private final List<IChannelListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+    /** Explicitly watched providers */
+    private final List<IChannelProvider> providers = new ArrayList<>();
+
+    /** Active workers by provider */
+    private final Map<IChannelProvider, Worker> workers =
+            new IdentityHashMap<>();
+
+    /** Marker if the watcher is running */
+    private boolean running;
+
+    /**
+     * Create a watcher polling every second.
+     */
+    public ChannelWatcher() {
+        this(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create a watcher.
+     *
+     * @param interval poll interval, also used as maximum blocking wait for
+     *         providers implementing IChannelMonitor.
+     * @param unit     time unit of interval.
+     */
+    public ChannelWatcher(long interval, TimeUnit unit) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("Interval must be positive");
+
+        this.interval = Math.max(1, unit.toMillis(interval));
+    }
+
+    /**
+     * Add a listener.
+     *
+     * @param listener listener to be notified of changes.
+     */
+    public void addListener(IChannelListener listener) {
+        if (listener != null)
+            listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener listener to be removed.
+     */
+    public void removeListener(IChannelListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Add a provider to be watched. If no provider is added explicitly, all
+     * providers registered at the ChannelFactory on start are watched.
+     *
+     * @param provider channel provider.
+     */
+    public synchronized void watch(IChannelProvider provider) {
+        if ((provider == null) || providers.contains(provider))
+            return;
+
+        providers.add(provider);
+        if (running)
+            startWorker(provider);
+    }
+
+    /**
+     * Start watching. The method has no effect if the watcher is already
+     * running.
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+
+        running = true;
+        if (providers.isEmpty()) {
+            for (String channelType : ChannelFactory.getChannelTypes()) {
+                IChannelProvider provider =
+                        ChannelFactory.lookupProvider(channelType);
+                if (provider != null)
+                    providers.add(provider);
+            }
+        }
+
+        for (IChannelProvider provider : providers) {
+            startWorker(provider);
+        }
+    }
+
+    /**
+     * Stop watching. The worker threads terminate after the current poll or
+     * blocking wait.
+     */
+    public synchronized void stop() {
+        running = false;
+
+        for (Worker worker : workers.values()) {
+            worker.stopped = true;
+            worker.thread.interrupt();
+        }
+        workers.clear();
+    }
+
+    /**
+     * Check if the watcher is running.
+     *
+     * @return true if running.
+     */
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Helper method to start the worker of a provider.
+     *
+     * @param provider channel provider.
+     */
+    private void startWorker(IChannelProvider provider) {
+        Worker worker = new Worker(provider);
+
+        worker.thread = new Thread(worker, "hsw-channel-watcher-" +
+                                                   provider.getProviderName());
+        worker.thread.setDaemon(true);
+        workers.put(provider, worker);
+        worker.thread.start();
+    }
+
+    /**
+     * Helper method to notify all listeners. Exceptions thrown by a listener
+     * do not affect the other listeners or the watcher.
+     *
+     * @param event event to be published.
+     */
+    private void publish(ChannelEvent event) {
+        for (IChannelListener listener : listeners) {
+            try {
+                listener.notify(event);
+            } catch (RuntimeException e) {
+                // ignore faulty listener
+            }
+        }
+    }
+
+    /**
+     * Worker watching one provider. All state is confined to the worker
+     * thread.
+     */
+    private final class Worker implements Runnable {
+        /** Watched provider */
+        private final IChannelProvider provider;
+
+        /** Blocking monitor of provider or null if provider is polled */
+        private final IChannelMonitor monitor;
+
+        /** Known channel names */
+        private Set<String> names = new LinkedHashSet<>();
+
+        /** Channel names with card present */
+        private final Set<String> present = new HashSet<>();
+
+        /** Worker thread */
+        private Thread thread;
+
+        /** Marker if worker has been stopped */
+        private volatile boolean stopped;
+
+        /**
+         * Constructor.
+         *
+         * @param provider watched provider.
+         */
+        private Worker(IChannelProvider provider) {
+            this.provider = provider;
+            this.monitor = (provider instanceof IChannelMonitor)
+                                   ? (IChannelMonitor) provider
+                                   : null;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    scan();
+                    if (monitor != null)
+                        monitor.waitForChange(interval);
+                    else
+                        Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (ChannelException | RuntimeException e) {
+                    // provider failed, try again after the interval
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Helper method to compare the current state of the provider with
+         * the known state and to publish the differences.
+         */
+        private void scan() {
+            String[] channelNames = provider.getChannelNames();
+            if (channelNames == null)
+                channelNames = new String[0];
+
+            Set<String> current = new LinkedHashSet<>(
+                    Arrays.asList(channelNames));
+            boolean changed = false;
+
+            for (String name : names) {
+                if (!current.contains(name)) {
+                    changed = true;
+                    if (present.remove(name))
+                        publishEvent(ChannelEvent.EV_CARD_ABSENT, name);
+                    publishEvent(ChannelEvent.EV_READER_REMOVED, name);
+                }
+            }
+            for (String name : current) {
+                if (!names.contains(name)) {
+                    changed = true;
+                    publishEvent(ChannelEvent.EV_READER_ADDED, name);
+                }
+            }
+
+            if (changed)
+                ChannelFactory.updateChannelNames(provider, channelNames);
+            names = current;
+
+            if (monitor == null)
+                return;
+
+            for (String name : names) {
+                boolean cardPresent;
+                try {
+                    cardPresent = monitor.isCardPresent(name);
+                } catch (ChannelException e) {
+                    // state unknown, keep previous state
+                    continue;
+                }
+
+                if (cardPresent && present.add(name))
+                    publishEvent(ChannelEvent.EV_CARD_PRESENT, name);
+                else if (!cardPresent && present.remove(name))
+                    publishEvent(ChannelEvent.EV_CARD_ABSENT, name);
+            }
+        }
+
+        /**
+         * Helper method to publish an event unless the worker is stopped.
+         *
+         * @param eventID     event ID.
+         * @param channelName friendly name of channel.
+         */
+        private void publishEvent(int eventID, String channelName) {
+            if (!stopped)
+                publish(new ChannelEvent(eventID, provider, channelName));
+        }
+    }
+}
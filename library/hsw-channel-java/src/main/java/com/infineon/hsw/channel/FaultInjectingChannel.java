@@ -0,0 +1,504 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channel decorator injecting latency and faults into the transmit exchanges
+ * of the wrapped channel. Faults are configured per instruction byte (INS) of
+ * the command APDU or for all instructions with ANY_INS; a setting for a
+ * specific instruction takes precedence. The following faults are supported:
+ * <ul>
+ * <li>latency: fixed latency plus uniformly distributed jitter plus an
+ * occasional tail latency</li>
+ * <li>dropped responses: the command is forwarded but a ChannelException is
+ * thrown instead of returning the response</li>
+ * <li>truncated responses: only a random prefix of the response is
+ * returned</li>
+ * <li>forced 61xx: the response data is held back and announced with 61xx,
+ * it is returned on the following GET RESPONSE commands</li>
+ * <li>forced 6Cxx: the response is held back and 6Cxx with the length of the
+ * response data is returned, the held response is returned when the command
+ * is repeated</li>
+ * </ul>
+ * The command is forwarded to the wrapped channel exactly once in all cases.
+ * All random decisions are taken from a seeded random generator, so a
+ * scenario is repeatable. Decorators can be stacked.
+ */
+public class FaultInjectingChannel implements IChannel {
+    /** Instruction selector matching all instructions */
+    public static final int ANY_INS = -1;
+
+    /** Instruction byte of GET RESPONSE */
+    private static final int INS_GET_RESPONSE = 0xC0;
+
+    /** Profile used if no faults are configured for an instruction */
+    private static final Profile NO_FAULTS = new Profile();
+
+    /** Wrapped channel */
+    private final IChannel channel;
+
+    /** Fault profiles by instruction byte */
+    private final Map<Integer, Profile> profiles = new HashMap<>();
+
+    /** Random generator for all fault decisions */
+    private Random random;
+
+    /** Response data held back by a forced 61xx */
+    private byte[] heldData;
+
+    /** Offset of the next byte of held data to be returned */
+    private int heldOffset;
+
+    /** Status word returned after all held data has been returned */
+    private byte[] heldStatus;
+
+    /** Header of a command answered with a forced 6Cxx */
+    private byte[] heldHeader;
+
+    /** Response held back by a forced 6Cxx */
+    private byte[] heldResponse;
+
+    /** Number of injected faults */
+    private long faultCount;
+
+    /**
+     * Create a decorator with seed zero. Without further configuration no
+     * faults are injected.
+     *
+     * @param channel channel to be decorated.
+     */
+    public FaultInjectingChannel(IChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * Create a decorator. Without further configuration no faults are
+     * injected.
+     *
+     * @param channel channel to be decorated.
+     * @param seed    seed of the random generator.
+     */
+    public FaultInjectingChannel(IChannel channel, long seed) {
+        if (channel == null)
+            throw new IllegalArgumentException("Channel must not be null");
+
+        this.channel = channel;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Get the decorated channel.
+     *
+     * @return reference of wrapped channel.
+     */
+    public IChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Set the seed of the random generator.
+     *
+     * @param seed seed of random generator.
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel setSeed(long seed) {
+        random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Set the latency added to exchanges.
+     *
+     * @param ins     instruction byte or ANY_INS.
+     * @param latency fixed latency.
+     * @param jitter  maximum uniformly distributed latency added to the fixed
+     *         latency.
+     * @param unit    time unit of latency and jitter.
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel setLatency(int ins, long latency,
+                                                         long jitter,
+                                                         TimeUnit unit) {
+        if ((latency < 0) || (jitter < 0))
+            throw new IllegalArgumentException("Latency must not be negative");
+
+        Profile profile = getProfile(ins);
+        profile.latency = unit.toNanos(latency);
+        profile.jitter = unit.toNanos(jitter);
+        return this;
+    }
+
+    /**
+     * Set an additional latency which occurs with the given probability, e.g.
+     * to model the tail of a latency distribution.
+     *
+     * @param ins         instruction byte or ANY_INS.
+     * @param probability probability between 0.0 and 1.0.
+     * @param latency     additional latency.
+     * @param unit        time unit of latency.
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel setTailLatency(int ins,
+                                                             double probability,
+                                                             long latency,
+                                                             TimeUnit unit) {
+        if (latency < 0)
+            throw new IllegalArgumentException("Latency must not be negative");
+
+        Profile profile = getProfile(ins);
+        profile.tailRate = checkProbability(probability);
+        profile.tailLatency = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * Set the probability of dropped responses.
+     *
+     * @param ins         instruction byte or ANY_INS.
+     * @param probability probability between 0.0 and 1.0.
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel setDropRate(int ins,
+                                                          double probability) {
+        getProfile(ins).dropRate = checkProbability(probability);
+        return this;
+    }
+
+    /**
+     * Set the probability of truncated responses.
+     *
+     * @param ins         instruction byte or ANY_INS.
+     * @param probability probability between 0.0 and 1.0.
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel setTruncateRate(int ins,
+                                                              double
+                                                              probability) {
+        getProfile(ins).truncateRate = checkProbability(probability);
+        return this;
+    }
+
+    /**
+     * Set the probability of forced 61xx status words. Only responses with
+     * data are affected.
+     *
+     * @param ins         instruction byte or ANY_INS.
+     * @param probability probability between 0.0 and 1.0.
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel setGetResponseRate(int ins,
+                                                                 double
+                                                                 probability) {
+        getProfile(ins).getResponseRate = checkProbability(probability);
+        return this;
+    }
+
+    /**
+     * Set the probability of forced 6Cxx status words. Only responses with
+     * data are affected.
+     *
+     * @param ins         instruction byte or ANY_INS.
+     * @param probability probability between 0.0 and 1.0.
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel setWrongLengthRate(int ins,
+                                                                 double
+                                                                 probability) {
+        getProfile(ins).wrongLengthRate = checkProbability(probability);
+        return this;
+    }
+
+    /**
+     * Remove all fault settings and discard held back responses.
+     *
+     * @return reference to this object.
+     */
+    public synchronized FaultInjectingChannel clear() {
+        profiles.clear();
+        clearHeld();
+        return this;
+    }
+
+    /**
+     * Return the number of injected faults.
+     *
+     * @return number of faults.
+     */
+    public synchronized long getFaultCount() {
+        return faultCount;
+    }
+
+    @Override
+    public void open(boolean exclusive) throws ChannelException {
+        channel.open(exclusive);
+    }
+
+    @Override
+    public void close() throws ChannelException {
+        clearHeld();
+        channel.close();
+    }
+
+    @Override
+    public byte[] connect(byte[] request) throws ChannelException {
+        clearHeld();
+        return channel.connect(request);
+    }
+
+    @Override
+    public byte[] disconnect(byte[] request) throws ChannelException {
+        clearHeld();
+        return channel.disconnect(request);
+    }
+
+    @Override
+    public byte[] reset(byte[] request) throws ChannelException {
+        clearHeld();
+        return channel.reset(request);
+    }
+
+    @Override
+    public byte[] transmit(byte[] stream) throws ChannelException {
+        int ins = (stream.length >= 4) ? (stream[1] & 0xFF) : ANY_INS;
+        Profile profile;
+        long delay;
+
+        synchronized (this) {
+            // serve responses held back by forced 61xx or 6Cxx
+            byte[] held = serveHeld(stream, ins);
+            if (held != null)
+                return held;
+
+            profile = profiles.get(ins);
+            if (profile == null)
+                profile = profiles.get(ANY_INS);
+            if (profile == null)
+                profile = NO_FAULTS;
+
+            delay = profile.latency;
+            if (profile.jitter > 0)
+                delay += (long) (random.nextDouble() * profile.jitter);
+            if (hit(profile.tailRate))
+                delay += profile.tailLatency;
+        }
+
+        sleep(delay);
+        byte[] response = channel.transmit(stream);
+
+        synchronized (this) {
+            if ((response == null) || (response.length < 2))
+                return response;
+
+            if (hit(profile.dropRate)) {
+                faultCount++;
+                throw new ChannelException("Simulated dropped response");
+            }
+
+            if (hit(profile.truncateRate)) {
+                faultCount++;
+                return Arrays.copyOf(response,
+                                     random.nextInt(response.length));
+            }
+
+            int dataLength = response.length - 2;
+            if ((dataLength > 0) && hit(profile.getResponseRate)) {
+                faultCount++;
+                heldData = Arrays.copyOf(response, dataLength);
+                heldOffset = 0;
+                heldStatus = Arrays.copyOfRange(response, dataLength,
+                                                response.length);
+                return status(0x61, dataLength);
+            }
+
+            if ((dataLength > 0) && (dataLength <= 256) &&
+                hit(profile.wrongLengthRate)) {
+                faultCount++;
+                heldHeader = Arrays.copyOf(stream, 4);
+                heldResponse = response;
+                return status(0x6C, dataLength);
+            }
+
+            return response;
+        }
+    }
+
+    @Override
+    public byte[] control(byte[] stream) throws ChannelException {
+        return channel.control(stream);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    @Override
+    public String getName() {
+        return channel.getName();
+    }
+
+    /**
+     * Helper method to answer GET RESPONSE after a forced 61xx and the
+     * repeated command after a forced 6Cxx from the held back response.
+     *
+     * @param stream command APDU.
+     * @param ins    instruction byte of command.
+     * @return response or null if the command is not served from held data.
+     */
+    private byte[] serveHeld(byte[] stream, int ins) {
+        if ((heldData != null) && (ins == INS_GET_RESPONSE)) {
+            int le = (stream.length == 5) ? (((stream[4] - 1) & 0xFF) + 1)
+                                          : 256;
+            int remaining = heldData.length - heldOffset;
+            int length = Math.min(le, remaining);
+            byte[] response = Arrays.copyOfRange(heldData, heldOffset,
+                                                 heldOffset + length + 2);
+
+            heldOffset += length;
+            remaining -= length;
+            if (remaining > 0) {
+                response[length] = 0x61;
+                response[length + 1] = (byte) Math.min(remaining, 256);
+            } else {
+                response[length] = heldStatus[0];
+                response[length + 1] = heldStatus[1];
+                heldData = null;
+            }
+            return response;
+        }
+
+        if ((heldHeader != null) && (stream.length >= 4) &&
+            Arrays.equals(heldHeader, Arrays.copyOf(stream, 4))) {
+            byte[] response = heldResponse;
+            heldHeader = null;
+            heldResponse = null;
+            return response;
+        }
+
+        // any other command discards held back data
+        clearHeld();
+        return null;
+    }
+
+    /**
+     * Helper method to discard held back responses.
+     */
+    private synchronized void clearHeld() {
+        heldData = null;
+        heldStatus = null;
+        heldHeader = null;
+        heldResponse = null;
+    }
+
+    /**
+     * Helper method to get or create the profile of an instruction.
+     *
+     * @param ins instruction byte or ANY_INS.
+     * @return profile.
+     */
+    private Profile getProfile(int ins) {
+        if ((ins != ANY_INS) && ((ins < 0) || (ins > 0xFF)))
+            throw new IllegalArgumentException("Invalid instruction byte");
+
+        Profile profile = profiles.get(ins);
+        if (profile == null) {
+            profile = new Profile();
+            profiles.put(ins, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Helper method to take a random decision.
+     *
+     * @param probability probability of a hit.
+     * @return true on hit.
+     */
+    private boolean hit(double probability) {
+        return (probability > 0.0) && (random.nextDouble() < probability);
+    }
+
+    /**
+     * Helper method to validate a probability.
+     *
+     * @param probability probability to be checked.
+     * @return validated probability.
+     */
+    private static double checkProbability(double probability) {
+        if ((probability < 0.0) || (probability > 1.0))
+            throw new IllegalArgumentException(
+                    "Probability must be between 0.0 and 1.0");
+        return probability;
+    }
+
+    /**
+     * Helper method to wait for the injected latency.
+     *
+     * @param delay latency in nanoseconds.
+     * @throws ChannelException if the thread is interrupted.
+     */
+    private static void sleep(long delay) throws ChannelException {
+        if (delay <= 0)
+            return;
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChannelException("Exchange interrupted", e);
+        }
+    }
+
+    /**
+     * Helper method to build a status word response.
+     *
+     * @param sw1    first status byte.
+     * @param length length announced in the second status byte.
+     * @return status word.
+     */
+    private static byte[] status(int sw1, int length) {
+        return new byte[] { (byte) sw1, (byte) Math.min(length, 256) };
+    }
+
+    /**
+     * Fault settings of one instruction.
+     */
+    private static final class Profile {
+        /** Fixed latency in nanoseconds */
+        private long latency;
+
+        /** Maximum jitter in nanoseconds */
+        private long jitter;
+
+        /** Probability of the tail latency */
+        private double tailRate;
+
+        /** Tail latency in nanoseconds */
+        private long tailLatency;
+
+        /** Probability of a dropped response */
+        private double dropRate;
+
+        /** Probability of a truncated response */
+        private double truncateRate;
+
+        /** Probability of a forced 61xx */
+        private double getResponseRate;
+
+        /** Probability of a forced 6Cxx */
+        private double wrongLengthRate;
+    }
+}
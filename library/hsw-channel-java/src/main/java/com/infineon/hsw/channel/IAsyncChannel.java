@@ -0,0 +1,44 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for a generic asynchronous communication channel. It is the
+ * non-blocking companion of IChannel: instead of blocking the calling thread
+ * until the response has been received, the exchange is started and the
+ * response is delivered via a future. Exchanges requested on the same channel
+ * are performed in the order in which they have been requested.
+ * Any IChannel can be turned into an asynchronous channel with the help of the
+ * AsyncChannelAdapter class.
+ */
+public interface IAsyncChannel {
+    /**
+     * Send a byte stream via the channel and return the future response
+     * stream.
+     * @param stream byte array with stream to be sent.
+     * @return future which is completed with the received response stream or
+     *         completed exceptionally with a ChannelException if any
+     *         communication problem occurred.
+     */
+    CompletableFuture<byte[]> transmitAsync(byte[] stream);
+
+    /**
+     * Send a control byte stream via the channel and return the future
+     * response stream.
+     * @param stream byte array with control stream to be sent.
+     * @return future which is completed with the received control response
+     *         stream or completed exceptionally with a ChannelException if any
+     *         communication problem occurred.
+     */
+    CompletableFuture<byte[]> controlAsync(byte[] stream);
+
+    /**
+     * Return friendly name of channel.
+     * @return Friendly name of channel.
+     */
+    String getName();
+}
@@ -4,6 +4,8 @@
 
 package com.infineon.hsw.channel;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface for a generic synchronous communication channel.
  * An example for this type of channel is a channel to a smart card via a
@@ -59,6 +61,37 @@ public interface IChannel {
      */
     byte[] transmit(byte[] stream) throws ChannelException;
 
+    /**
+     * Send a byte stream via the channel and receive the response stream into
+     * a buffer. The stream to be sent is taken from the remaining bytes of the
+     * command buffer, the response is written to the response buffer starting
+     * at its current position. The positions of both buffers are advanced
+     * accordingly. Providers which can exchange data without intermediate
+     * arrays (e.g. with direct buffers) should override this method, the
+     * default implementation bridges to {@link #transmit(byte[])}.
+     * @param command buffer containing the stream to be sent.
+     * @param response buffer receiving the response stream.
+     * @return length of the received response stream or -1 if no response
+     *         has been received.
+     * @throws ChannelException if any communication problem occurred or if
+     *         the response does not fit into the response buffer.
+     */
+    default int transmit(ByteBuffer command, ByteBuffer response)
+            throws ChannelException {
+        byte[] stream = new byte[command.remaining()];
+        command.get(stream);
+
+        byte[] result = transmit(stream);
+        if (result == null)
+            return -1;
+
+        if (result.length > response.remaining())
+            throw new ChannelException("Response buffer too small");
+
+        response.put(result);
+        return result.length;
+    }
+
     /**
      * Send a control byte stream via the channel and return response stream.
      * @param stream byte array with control stream to be sent.
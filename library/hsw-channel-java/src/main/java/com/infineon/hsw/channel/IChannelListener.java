@@ -0,0 +1,20 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+/**
+ * Interface to be implemented by any class interested in readers being added
+ * or removed and cards being presented or removed. Listeners are registered
+ * at the ChannelWatcher.
+ */
+public interface IChannelListener {
+    /**
+     * Notify the listener of a change. The method is called from a watcher
+     * thread and should return quickly.
+     *
+     * @param event event describing the change.
+     */
+    void notify(ChannelEvent event);
+}
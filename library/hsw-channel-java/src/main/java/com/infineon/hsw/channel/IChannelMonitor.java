@@ -0,0 +1,35 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+/**
+ * Optional interface of a channel provider which is able to wait for changes
+ * of its channels without polling, e.g. based on the PC/SC status change
+ * mechanism. The ChannelWatcher uses this interface if the provider
+ * implements it and polls the channel names otherwise.
+ */
+public interface IChannelMonitor {
+    /**
+     * Wait until a channel (reader) has been added or removed or a card has
+     * been presented to or removed from a channel.
+     *
+     * @param timeout maximum time to wait in milliseconds, zero to wait
+     *         without a limit.
+     * @return true if a change occurred, false if the timeout expired.
+     * @throws ChannelException     if waiting failed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    boolean waitForChange(long timeout)
+            throws ChannelException, InterruptedException;
+
+    /**
+     * Check if a card is present in a channel.
+     *
+     * @param channelName friendly name of channel.
+     * @return true if a card is present.
+     * @throws ChannelException if the card presence cannot be determined.
+     */
+    boolean isCardPresent(String channelName) throws ChannelException;
+}
@@ -0,0 +1,270 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Channel decorator which records all connect, disconnect, reset, transmit
+ * and control exchanges of the wrapped channel with timestamps and durations
+ * to a compact binary transcript. The transcript format is described in
+ * ChannelTranscript, it can be replayed with the ReplayChannel. The transcript
+ * stream is flushed on disconnect and close but not closed, it is owned by the
+ * caller.
+ */
+public class RecordingChannel implements IChannel {
+    /** Wrapped channel */
+    private final IChannel channel;
+
+    /** Stream receiving the transcript */
+    private final OutputStream out;
+
+    /** Buffer assembling one record before it is written */
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+    /** Start of recording in nanoseconds */
+    private final long startTime;
+
+    /** Timestamp of the last record in microseconds */
+    private long lastTimestamp;
+
+    /**
+     * Create a recording channel and write the transcript header.
+     *
+     * @param channel channel to be recorded.
+     * @param out     stream receiving the transcript.
+     * @throws ChannelException if the transcript header cannot be written.
+     */
+    public RecordingChannel(IChannel channel, OutputStream out)
+            throws ChannelException {
+        if ((channel == null) || (out == null))
+            throw new IllegalArgumentException(
+                    "Channel and stream must not be null");
+
+        this.channel = channel;
+        this.out = out;
+        this.startTime = System.nanoTime();
+
+        try {
+            ChannelTranscript.writeHeader(out, System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new ChannelException("Failed to write transcript", e);
+        }
+    }
+
+    /**
+     * Get the recorded channel.
+     *
+     * @return reference of wrapped channel.
+     */
+    public IChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Flush the transcript stream.
+     *
+     * @throws ChannelException if flushing the stream fails.
+     */
+    public synchronized void flush() throws ChannelException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new ChannelException("Failed to write transcript", e);
+        }
+    }
+
+    @Override
+    public void open(boolean exclusive) throws ChannelException {
+        channel.open(exclusive);
+    }
+
+    @Override
+    public void close() throws ChannelException {
+        try {
+            channel.close();
+        } finally {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized byte[] connect(byte[] request)
+            throws ChannelException {
+        long begin = System.nanoTime();
+        byte[] response;
+
+        try {
+            response = channel.connect(request);
+        } catch (ChannelException e) {
+            writeError(ChannelTranscript.TYPE_CONNECT, begin, request, e);
+            throw e;
+        }
+
+        write(ChannelTranscript.TYPE_CONNECT, begin, request, response);
+        return response;
+    }
+
+    @Override
+    public synchronized byte[] disconnect(byte[] request)
+            throws ChannelException {
+        long begin = System.nanoTime();
+
+        try {
+            byte[] response;
+
+            try {
+                response = channel.disconnect(request);
+            } catch (ChannelException e) {
+                writeError(ChannelTranscript.TYPE_DISCONNECT, begin, request,
+                           e);
+                throw e;
+            }
+
+            write(ChannelTranscript.TYPE_DISCONNECT, begin, request, response);
+            return response;
+        } finally {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized byte[] reset(byte[] request) throws ChannelException {
+        long begin = System.nanoTime();
+        byte[] response;
+
+        try {
+            response = channel.reset(request);
+        } catch (ChannelException e) {
+            writeError(ChannelTranscript.TYPE_RESET, begin, request, e);
+            throw e;
+        }
+
+        write(ChannelTranscript.TYPE_RESET, begin, request, response);
+        return response;
+    }
+
+    @Override
+    public synchronized byte[] transmit(byte[] stream)
+            throws ChannelException {
+        long begin = System.nanoTime();
+        byte[] response;
+
+        try {
+            response = channel.transmit(stream);
+        } catch (ChannelException e) {
+            writeError(ChannelTranscript.TYPE_TRANSMIT, begin, stream, e);
+            throw e;
+        }
+
+        write(ChannelTranscript.TYPE_TRANSMIT, begin, stream, response);
+        return response;
+    }
+
+    @Override
+    public synchronized byte[] control(byte[] stream) throws ChannelException {
+        long begin = System.nanoTime();
+        byte[] response;
+
+        try {
+            response = channel.control(stream);
+        } catch (ChannelException e) {
+            writeError(ChannelTranscript.TYPE_CONTROL, begin, stream, e);
+            throw e;
+        }
+
+        write(ChannelTranscript.TYPE_CONTROL, begin, stream, response);
+        return response;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    @Override
+    public String getName() {
+        return channel.getName();
+    }
+
+    /**
+     * Helper method to record a failed exchange. The exception message is
+     * stored as response. If writing the record fails, the failure is added
+     * to the suppressed exceptions of the exchange error, which is thrown by
+     * the caller.
+     *
+     * @param type    record type.
+     * @param begin   start of exchange in nanoseconds.
+     * @param request request of exchange.
+     * @param error   exception thrown by the exchange.
+     */
+    private void writeError(int type, long begin, byte[] request,
+                            ChannelException error) {
+        String message = (error.getMessage() == null) ? "" : error.getMessage();
+
+        try {
+            write(type | ChannelTranscript.FLAG_ERROR, begin, request,
+                  message.getBytes(StandardCharsets.UTF_8));
+        } catch (ChannelException e) {
+            error.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Helper method to append a record to the transcript.
+     *
+     * @param type     record type including flags.
+     * @param begin    start of exchange in nanoseconds.
+     * @param request  request of exchange or null.
+     * @param response response of exchange or null.
+     * @throws ChannelException if writing the record fails.
+     */
+    private void write(int type, long begin, byte[] request, byte[] response)
+            throws ChannelException {
+        long end = System.nanoTime();
+        long timestamp = (begin - startTime) / 1000;
+
+        if (response == null)
+            type |= ChannelTranscript.FLAG_NO_RESPONSE;
+
+        try {
+            record.reset();
+            record.write(type);
+            ChannelTranscript.writeVarint(record,
+                                          Math.max(0, timestamp -
+                                                              lastTimestamp));
+            ChannelTranscript.writeVarint(record, (end - begin) / 1000);
+            writeBlock(request);
+            writeBlock(response);
+            record.writeTo(out);
+        } catch (IOException e) {
+            throw new ChannelException("Failed to write transcript", e);
+        }
+
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+    }
+
+    /**
+     * Helper method to write a length prefixed block to the record buffer.
+     *
+     * @param block block to be written or null for an empty block.
+     * @throws IOException if writing fails.
+     */
+    private void writeBlock(byte[] block) throws IOException {
+        int length = (block == null) ? 0 : block.length;
+
+        ChannelTranscript.writeVarint(record, length);
+        if (length > 0)
+            record.write(block, 0, length);
+    }
+}
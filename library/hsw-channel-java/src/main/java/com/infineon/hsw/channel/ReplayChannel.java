@@ -0,0 +1,269 @@
+// SPDX-FileCopyrightText: 2024 Infineon Technologies AG
+//
+// SPDX-License-Identifier: MIT
+
+package com.infineon.hsw.channel;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channel serving the responses of a transcript recorded by the
+ * RecordingChannel. The exchanges are replayed in the recorded order. In
+ * strict mode (default) each exchange must match the next record in type and
+ * request, otherwise a ChannelException is thrown. In lenient mode records of
+ * other types are skipped and the request is not compared. Recorded failures
+ * are replayed as ChannelException. Optionally the recorded durations are
+ * reproduced and the transcript is restarted when its end is reached, so a
+ * captured session can be replayed any number of times.
+ */
+public class ReplayChannel implements IChannel {
+    /** Friendly name of channel */
+    private final String name;
+
+    /** Transcript to be replayed */
+    private final ChannelTranscript transcript;
+
+    /** Marker if type and request of each exchange must match */
+    private boolean strict = true;
+
+    /** Marker if the transcript is restarted at its end */
+    private boolean loop;
+
+    /** Marker if the recorded durations are reproduced */
+    private boolean realTime;
+
+    /** Number of replayed exchanges */
+    private long replayCount;
+
+    /** Marker if channel is opened */
+    private boolean open;
+
+    /** Marker if channel is connected */
+    private boolean connected;
+
+    /**
+     * Create a replay channel for a transcript file. The file is mapped into
+     * memory.
+     *
+     * @param name friendly name of channel.
+     * @param path path of transcript file.
+     * @throws ChannelException if the transcript cannot be opened.
+     */
+    public ReplayChannel(String name, Path path) throws ChannelException {
+        this(name, ChannelTranscript.open(path));
+    }
+
+    /**
+     * Create a replay channel for a transcript.
+     *
+     * @param name       friendly name of channel.
+     * @param transcript transcript positioned at its first record.
+     */
+    public ReplayChannel(String name, ChannelTranscript transcript) {
+        if (transcript == null)
+            throw new IllegalArgumentException("Transcript must not be null");
+
+        this.name = name;
+        this.transcript = transcript;
+    }
+
+    /**
+     * Enable or disable strict matching of exchanges.
+     *
+     * @param strict if true type and request of each exchange must match the
+     *         next record.
+     */
+    public synchronized void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    /**
+     * Enable or disable restarting the transcript at its end.
+     *
+     * @param loop if true the transcript is restarted at its end.
+     */
+    public synchronized void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Enable or disable reproducing the recorded durations.
+     *
+     * @param realTime if true each exchange takes as long as recorded.
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    /**
+     * Restart the replay at the first record.
+     */
+    public synchronized void rewind() {
+        transcript.rewind();
+    }
+
+    /**
+     * Return the number of replayed exchanges.
+     *
+     * @return number of exchanges.
+     */
+    public synchronized long getReplayCount() {
+        return replayCount;
+    }
+
+    @Override
+    public synchronized void open(boolean exclusive) throws ChannelException {
+        open = true;
+    }
+
+    @Override
+    public synchronized void close() throws ChannelException {
+        connected = false;
+        open = false;
+    }
+
+    @Override
+    public synchronized byte[] connect(byte[] request)
+            throws ChannelException {
+        if (!open)
+            throw new ChannelException("Channel not opened");
+
+        byte[] response = replay(ChannelTranscript.TYPE_CONNECT, null)
+                                  .getResponse();
+        connected = true;
+        return response;
+    }
+
+    @Override
+    public synchronized byte[] disconnect(byte[] request)
+            throws ChannelException {
+        connected = false;
+        return replay(ChannelTranscript.TYPE_DISCONNECT, null).getResponse();
+    }
+
+    @Override
+    public synchronized byte[] reset(byte[] request) throws ChannelException {
+        checkConnected();
+        return replay(ChannelTranscript.TYPE_RESET, null).getResponse();
+    }
+
+    @Override
+    public synchronized byte[] transmit(byte[] stream)
+            throws ChannelException {
+        checkConnected();
+        return replay(ChannelTranscript.TYPE_TRANSMIT, ByteBuffer.wrap(stream))
+                .getResponse();
+    }
+
+    @Override
+    public synchronized int transmit(ByteBuffer command, ByteBuffer response)
+            throws ChannelException {
+        checkConnected();
+
+        ChannelTranscript.Record record =
+                replay(ChannelTranscript.TYPE_TRANSMIT, command);
+        command.position(command.limit());
+
+        // copy directly from the mapped transcript
+        ByteBuffer recorded = record.getResponseBuffer();
+        if (recorded == null)
+            return -1;
+        if (recorded.remaining() > response.remaining())
+            throw new ChannelException("Response buffer too small");
+
+        int length = recorded.remaining();
+        response.put(recorded);
+        return length;
+    }
+
+    @Override
+    public synchronized byte[] control(byte[] stream) throws ChannelException {
+        return replay(ChannelTranscript.TYPE_CONTROL, ByteBuffer.wrap(stream))
+                .getResponse();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Helper method to check the connection status.
+     *
+     * @throws ChannelException if channel is not connected.
+     */
+    private void checkConnected() throws ChannelException {
+        if (!connected)
+            throw new ChannelException("Channel not connected");
+    }
+
+    /**
+     * Helper method to find the record of the next exchange.
+     *
+     * @param type    expected record type.
+     * @param request request of exchange or null if the request is not
+     *         compared.
+     * @return record of exchange.
+     * @throws ChannelException if no matching record is found or if the
+     *         recorded exchange failed.
+     */
+    private ChannelTranscript.Record replay(int type, ByteBuffer request)
+            throws ChannelException {
+        ChannelTranscript.Record record;
+        int rewinds = 0;
+
+        // find next record, in lenient mode records of other types are skipped
+        while (true) {
+            record = transcript.next();
+            if (record == null) {
+                if (!loop)
+                    throw new ChannelException("End of transcript reached");
+                if (++rewinds > 1)
+                    throw new ChannelException(
+                            "Transcript contains no matching record");
+                transcript.rewind();
+            } else if (strict || (record.getType() == type)) {
+                break;
+            }
+        }
+
+        if (strict) {
+            if (record.getType() != type)
+                throw new ChannelException(
+                        "Exchange does not match transcript record type " +
+                        record.getType());
+            if ((request != null) && !record.matchesRequest(request))
+                throw new ChannelException(
+                        "Request does not match transcript at " +
+                        record.getTimestamp() + " us");
+        }
+
+        replayCount++;
+
+        if (realTime && (record.getDuration() > 0)) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(record.getDuration());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChannelException("Replay interrupted", e);
+            }
+        }
+
+        if (record.isError())
+            throw new ChannelException(record.getErrorMessage());
+
+        return record;
+    }
+}